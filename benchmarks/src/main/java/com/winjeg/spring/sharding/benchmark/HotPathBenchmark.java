@@ -0,0 +1,134 @@
+package com.winjeg.spring.sharding.benchmark;
+
+import com.winjeg.spring.sharding.benchmark.mapper.User;
+import com.winjeg.spring.sharding.benchmark.mapper.UserMapper;
+import com.winjeg.spring.sharding.core.ShardingKeyAccessor;
+import com.winjeg.spring.sharding.route.KeyHash;
+import com.winjeg.spring.sharding.route.RouteRule;
+import com.winjeg.spring.sharding.route.ShardingRule;
+import com.winjeg.spring.sharding.utils.ExpressionUtil;
+import com.winjeg.spring.sharding.utils.NameUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分发类每次调用经过的各个环节， 各自单独测量
+ * 运行时加上 -prof gc 可以看到每次操作的内存分配(gc.alloc.rate.norm)
+ *
+ * @author winjeg
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+    private static final String DB_RULE = UserMapper.class.getAnnotation(
+            com.winjeg.spring.sharding.annos.Sharding.class).dbRule();
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private long next;
+        RouteRule dbRule;
+        ShardingRule rule;
+        ShardingKeyAccessor direct;
+        ShardingKeyAccessor nested;
+        Object[] directArgs;
+        Object[] nestedArgs;
+        RouteRule jumpRule;
+        String[] accounts;
+
+        @Setup(Level.Trial)
+        public void setup() throws NoSuchMethodException {
+            dbRule = RouteRule.compile(DB_RULE, "id");
+            rule = ShardingRule.of(UserMapper.class);
+            direct = ShardingKeyAccessor.of(UserMapper.class.getMethod("getName", long.class));
+            nested = ShardingKeyAccessor.of(UserMapper.class.getMethod("getNameByUser", User.class));
+            directArgs = new Object[]{5L};
+            nestedArgs = new Object[]{new User(5L, "user-5")};
+            jumpRule = RouteRule.compile("'ds-' + jump(id, 64)", "id");
+            accounts = new String[1024];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = "account-" + (1000000007L * i);
+            }
+        }
+
+        long next() {
+            return next++ & 1023;
+        }
+    }
+
+    /**
+     * String 分片键： UTF-8 编码 + murmur3
+     */
+    @Benchmark
+    public long stringKeyMurmur3(Keys keys) {
+        return KeyHash.toKey(KeyHash.MURMUR3.hash(keys.accounts[(int) keys.next()]));
+    }
+
+    @Benchmark
+    public long stringKeyXxHash(Keys keys) {
+        return KeyHash.toKey(KeyHash.XXHASH.hash(keys.accounts[(int) keys.next()]));
+    }
+
+    @Benchmark
+    public String jumpRoute(Keys keys) {
+        return keys.jumpRule.route(keys.next() * 0x9E3779B97F4A7C15L);
+    }
+
+    @Benchmark
+    public String expressionEval(Keys keys) {
+        return ExpressionUtil.eval(DB_RULE, "id", keys.next());
+    }
+
+    @Benchmark
+    public String compiledRoute(Keys keys) {
+        return keys.dbRule.route(keys.next());
+    }
+
+    @Benchmark
+    public int shardingRuleDatasource(Keys keys) {
+        return keys.rule.datasourceIndex(keys.next());
+    }
+
+    @Benchmark
+    public String shardingRuleTable(Keys keys) {
+        return keys.rule.table(keys.next());
+    }
+
+    @Benchmark
+    public long shardingKeyDirect(Keys keys) {
+        return keys.direct.read(keys.directArgs);
+    }
+
+    @Benchmark
+    public long shardingKeyNested(Keys keys) {
+        return keys.nested.read(keys.nestedArgs);
+    }
+
+    @Benchmark
+    public String buildClassName() {
+        return NameUtils.buildClassName(ShardingState.DATASOURCES[1], UserMapper.class.getCanonicalName());
+    }
+
+    @Benchmark
+    public Object dispatchTableGetMethod(ShardingState state) {
+        return state.dispatchTable.getShardMethod(0, state.getNameOrdinal);
+    }
+
+    @Benchmark
+    public Object sessionFactoryGetMapper(ShardingState state) {
+        return state.sessionFactoryManager.getMapper(state.generatedMapper);
+    }
+}
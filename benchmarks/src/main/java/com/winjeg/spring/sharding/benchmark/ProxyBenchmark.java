@@ -0,0 +1,42 @@
+package com.winjeg.spring.sharding.benchmark;
+
+import com.winjeg.spring.sharding.benchmark.mapper.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整的一次查询： 分库分表 mapper 与直接使用 MyBatis 的 mapper 查询同一张 H2 表
+ * 两者之差即为分库分表组件本身的开销
+ *
+ * @author winjeg
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyBenchmark {
+    private static final User USER = new User(ShardingState.KEY, null);
+
+    @Benchmark
+    public String plainMapper(ShardingState state) {
+        return state.plain.getName(ShardingState.KEY);
+    }
+
+    @Benchmark
+    public String shardedMapper(ShardingState state) {
+        return state.sharded.getName(ShardingState.KEY);
+    }
+
+    @Benchmark
+    public String shardedMapperNestedKey(ShardingState state) {
+        return state.sharded.getNameByUser(USER);
+    }
+}
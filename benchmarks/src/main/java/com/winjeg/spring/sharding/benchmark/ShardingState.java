@@ -0,0 +1,126 @@
+package com.winjeg.spring.sharding.benchmark;
+
+import com.winjeg.spring.sharding.benchmark.mapper.PlainUserMapper;
+import com.winjeg.spring.sharding.benchmark.mapper.UserMapper;
+import com.winjeg.spring.sharding.config.DataSourceProps;
+import com.winjeg.spring.sharding.core.DatasourceManager;
+import com.winjeg.spring.sharding.core.SqlSessionFactoryManager;
+import com.winjeg.spring.sharding.exec.ShardExecutors;
+import com.winjeg.spring.sharding.factories.ClassManager;
+import com.winjeg.spring.sharding.factories.DispatchTable;
+import com.winjeg.spring.sharding.factories.ShardingMapperFactory;
+import com.winjeg.spring.sharding.metrics.MetricsRegistry;
+import com.winjeg.spring.sharding.metrics.PoolStatsMXBean;
+import com.winjeg.spring.sharding.metrics.RoutingStatsMXBean;
+import com.winjeg.spring.sharding.metrics.ShardStatsMXBean;
+import com.winjeg.spring.sharding.metrics.ShardingMetrics;
+import com.winjeg.spring.sharding.utils.ResourceUtil;
+import lombok.val;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于 H2 内存库的完整环境： 两个数据源， 每个数据源四张表
+ * 生成的类和各个管理器都是静态缓存的， 所以每个 fork 只初始化一次
+ *
+ * @author winjeg
+ */
+@State(Scope.Benchmark)
+public class ShardingState {
+    static final String[] DATASOURCES = {"bench-0", "bench-1"};
+    static final int ROWS = 64;
+    static final long KEY = 5;
+
+    /**
+     * 是否开启运行指标， 用于比较指标统计本身的开销， 例如 -p metrics=false,true
+     */
+    @Param({"false"})
+    public boolean metrics;
+
+    public UserMapper sharded;
+    public PlainUserMapper plain;
+    public ClassManager classManager;
+    public SqlSessionFactoryManager sessionFactoryManager;
+    public DispatchTable dispatchTable;
+    public Class<?> generatedMapper;
+    public int getNameOrdinal;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        val props = new DataSourceProps();
+        val list = new DataSourceProps.HikariProps[DATASOURCES.length];
+        for (int i = 0; i < DATASOURCES.length; i++) {
+            val p = new DataSourceProps.HikariProps();
+            p.setName(DATASOURCES[i]);
+            p.setDriverClassName("org.h2.Driver");
+            p.setJdbcUrl("jdbc:h2:mem:" + DATASOURCES[i].replace('-', '_')
+                    + ";DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM 'classpath:benchmark/init.sql'");
+            p.setUsername("sa");
+            p.setPassword("");
+            list[i] = p;
+        }
+        props.setList(list);
+
+        List<Class<?>> classes = Collections.singletonList(UserMapper.class);
+        ResourceUtil.getClassesWithAnno(new String[]{UserMapper.class.getPackage().getName()});
+        classManager = new ClassManager(classes);
+        val datasourceManager = new DatasourceManager(props);
+        val shardingMetrics = metrics ? new ShardingMetrics(new NoopRegistry()) : null;
+        sessionFactoryManager = new SqlSessionFactoryManager(classes, datasourceManager, shardingMetrics);
+        val factory = new ShardingMapperFactory(sessionFactoryManager, classManager,
+                ShardExecutors.create(props), shardingMetrics);
+        sharded = factory.createProxy(UserMapper.class);
+        dispatchTable = classManager.getDispatchTable(UserMapper.class);
+        generatedMapper = dispatchTable.getShardClass(0);
+        try {
+            getNameOrdinal = dispatchTable.ordinal(UserMapper.class.getMethod("getName", long.class));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        for (long id = 0; id < ROWS; id++) {
+            sharded.addUser(id, "user-" + id);
+        }
+
+        // 对照组: 同一个连接池上直接使用 MyBatis， 查询 KEY 所在的表
+        val configuration = new Configuration(new Environment("plain", new JdbcTransactionFactory(),
+                datasourceManager.get(DATASOURCES[(int) (KEY % 8 / 4)])));
+        configuration.addMapper(PlainUserMapper.class);
+        plain = new SqlSessionTemplate(new SqlSessionFactoryBuilder().build(configuration))
+                .getMapper(PlainUserMapper.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sharded = null;
+        plain = null;
+    }
+
+    /**
+     * 只统计， 不发布
+     */
+    private static class NoopRegistry implements MetricsRegistry {
+        @Override
+        public void registerShard(ShardStatsMXBean stats) {
+        }
+
+        @Override
+        public void registerRouting(RoutingStatsMXBean stats) {
+        }
+
+        @Override
+        public void registerPool(PoolStatsMXBean stats) {
+        }
+    }
+}
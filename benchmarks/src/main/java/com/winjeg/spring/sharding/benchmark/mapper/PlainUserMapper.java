@@ -0,0 +1,15 @@
+package com.winjeg.spring.sharding.benchmark.mapper;
+
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+/**
+ * 对照组， 直接使用 MyBatis 访问同一张表
+ *
+ * @author winjeg
+ */
+public interface PlainUserMapper {
+
+    @Select("SELECT name FROM user_1 WHERE id = #{id}")
+    String getName(@Param("id") long id);
+}
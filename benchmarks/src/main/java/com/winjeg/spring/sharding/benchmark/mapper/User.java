@@ -0,0 +1,16 @@
+package com.winjeg.spring.sharding.benchmark.mapper;
+
+import com.winjeg.spring.sharding.annos.ShardingKey;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * @author winjeg
+ */
+@Data
+@AllArgsConstructor
+public class User {
+    @ShardingKey
+    private long id;
+    private String name;
+}
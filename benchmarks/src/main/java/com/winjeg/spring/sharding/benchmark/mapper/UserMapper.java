@@ -0,0 +1,21 @@
+package com.winjeg.spring.sharding.benchmark.mapper;
+
+import com.winjeg.spring.sharding.annos.Sharding;
+import com.winjeg.spring.sharding.annos.ShardingKey;
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * 两个库， 每个库四张表
+ *
+ * @author winjeg
+ */
+@Sharding(datasource = {"bench-0", "bench-1"}, mapperLocation = "classpath:benchmark/*.xml",
+        dbRule = "'bench-' + (id % 8 / 4)", tableRule = "'user_' + (id % 4)", shardingKey = "id")
+public interface UserMapper {
+
+    int addUser(@ShardingKey @Param("id") long id, @Param("name") String name);
+
+    String getName(@ShardingKey @Param("id") long id);
+
+    String getNameByUser(@Param("user") User user);
+}
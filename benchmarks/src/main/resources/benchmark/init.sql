@@ -0,0 +1,4 @@
+CREATE TABLE IF NOT EXISTS user_0(id BIGINT PRIMARY KEY, name VARCHAR(64));
+CREATE TABLE IF NOT EXISTS user_1(id BIGINT PRIMARY KEY, name VARCHAR(64));
+CREATE TABLE IF NOT EXISTS user_2(id BIGINT PRIMARY KEY, name VARCHAR(64));
+CREATE TABLE IF NOT EXISTS user_3(id BIGINT PRIMARY KEY, name VARCHAR(64));
@@ -0,0 +1,505 @@
+package com.winjeg.spring.sharding.agg;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 跨分片聚合的分组表
+ * 以分组键的 64 位 hash 为主键的开放寻址表， 分组状态按行连续存放在一个 long 数组里， 每个分组只有一个键数组对象
+ * hash 相同但是键不同的分组按键比较区分， 结果总是正确的
+ * <p>
+ * 状态的第 0 个槽位是各列是否有非空值的掩码， 其余槽位按 ops 合并， OP_ADD_LONG 溢出抛出 ArithmeticException
+ * OP_MIN_OBJECT/OP_MAX_OBJECT 的槽位不使用 long 状态， 值(Comparable)保存在与状态对应的对象数组里
+ * 估算的内存超过上限的时候， 按 hash 排序写入临时文件(一个有序的 run)并清空， 最后对所有 run 多路归并
+ * 不是线程安全的， 由调用方加锁
+ *
+ * @author winjeg
+ */
+@Slf4j
+public final class AggregateTable implements Closeable {
+    public static final byte OP_ADD_LONG = 1;
+    public static final byte OP_ADD_DOUBLE = 2;
+    public static final byte OP_MIN_LONG = 3;
+    public static final byte OP_MAX_LONG = 4;
+    public static final byte OP_MIN_DOUBLE = 5;
+    public static final byte OP_MAX_DOUBLE = 6;
+    public static final byte OP_MIN_OBJECT = 7;
+    public static final byte OP_MAX_OBJECT = 8;
+
+    private static final int INITIAL_ROWS = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final byte[] ops;
+    /**
+     * 每个槽位对应的列在掩码中的位置
+     */
+    private final int[] columns;
+    private final int width;
+    private final int keyLength;
+    private final long memoryLimit;
+    private final File spillDir;
+    private final List<File> runs = new ArrayList<>();
+    private final List<RunReader> readers = new ArrayList<>();
+
+    private int[] slots;
+    private long[] hashes;
+    private Object[][] keys;
+    private long[] states;
+    /**
+     * 对象槽位的值， 下标与 states 相同， 没有对象槽位的时候为空
+     */
+    private Object[] values;
+    private boolean hasValues;
+    private int rows;
+    private long bytes;
+
+    /**
+     * @param ops         每个槽位的合并方式， 第 0 个为掩码
+     * @param columns     每个槽位对应的列
+     * @param keyLength   分组键的长度
+     * @param memoryLimit 估算内存的上限(字节)
+     * @param spillDir    溢出文件的目录， 为空使用 java.io.tmpdir
+     */
+    public AggregateTable(byte[] ops, int[] columns, int keyLength, long memoryLimit, File spillDir) {
+        this.ops = ops.clone();
+        this.columns = columns;
+        this.width = ops.length;
+        this.keyLength = keyLength;
+        this.memoryLimit = memoryLimit;
+        this.spillDir = spillDir;
+        for (byte op : ops) {
+            hasValues |= isObject(op);
+        }
+        reset();
+    }
+
+    private void reset() {
+        slots = new int[INITIAL_ROWS * 2];
+        Arrays.fill(slots, -1);
+        hashes = new long[INITIAL_ROWS];
+        keys = new Object[INITIAL_ROWS][];
+        states = new long[INITIAL_ROWS * width];
+        values = hasValues ? new Object[INITIAL_ROWS * width] : null;
+        rows = 0;
+        bytes = 0;
+    }
+
+    /**
+     * 修改槽位的合并方式， 用于第一次读到值的时候才能确定类型的列
+     */
+    public void setOp(int slot, byte op) {
+        ops[slot] = op;
+        if (isObject(op) && !hasValues) {
+            hasValues = true;
+            values = new Object[states.length];
+        }
+    }
+
+    private static boolean isObject(byte op) {
+        return op == OP_MIN_OBJECT || op == OP_MAX_OBJECT;
+    }
+
+    /**
+     * 值是否可以放在对象槽位里(溢出的时候能够写入临时文件)
+     */
+    public static boolean isSpillable(Object v) {
+        return KeyCodec.supports(v);
+    }
+
+    /**
+     * 合并一行部分结果
+     *
+     * @param hash    分组键的 hash
+     * @param key     分组键， 表会持有这个数组
+     * @param partial 部分结果的状态， 长度为槽位数， 调用之后可以复用
+     */
+    public void add(long hash, Object[] key, long[] partial) {
+        add(hash, key, partial, null);
+    }
+
+    /**
+     * 合并一行部分结果
+     *
+     * @param hash          分组键的 hash
+     * @param key           分组键， 表会持有这个数组
+     * @param partial       部分结果的状态， 长度为槽位数， 调用之后可以复用
+     * @param partialValues 对象槽位的值， 长度为槽位数， 没有对象槽位的时候可以为空， 调用之后可以复用
+     */
+    public void add(long hash, Object[] key, long[] partial, Object[] partialValues) {
+        int slot = find(hash, key);
+        if (slot >= 0) {
+            combine(states, values, slots[slot] * width, partial, partialValues, 0);
+            return;
+        }
+        if (rows == hashes.length) {
+            grow();
+        }
+        int row = rows++;
+        hashes[row] = hash;
+        keys[row] = key;
+        System.arraycopy(partial, 0, states, row * width, width);
+        if (values != null && partialValues != null) {
+            System.arraycopy(partialValues, 0, values, row * width, width);
+        }
+        slots[-slot - 1] = row;
+        bytes += rowBytes(key, partialValues);
+        if (rows * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        if (bytes > memoryLimit) {
+            spill();
+        }
+    }
+
+    /**
+     * @return 找到的槽位， 没有的时候为 -(可以插入的槽位 + 1)
+     */
+    private int find(long hash, Object[] key) {
+        int mask = slots.length - 1;
+        int i = index(hash) & mask;
+        while (slots[i] >= 0) {
+            int row = slots[i];
+            if (hashes[row] == hash && Arrays.equals(keys[row], key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -i - 1;
+    }
+
+    private static int index(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void grow() {
+        int capacity = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        states = Arrays.copyOf(states, capacity * width);
+        if (values != null) {
+            values = Arrays.copyOf(values, capacity * width);
+        }
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        int mask = capacity - 1;
+        for (int row = 0; row < rows; row++) {
+            int i = index(hashes[row]) & mask;
+            while (slots[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = row;
+        }
+    }
+
+    private long rowBytes(Object[] key, Object[] partialValues) {
+        // hash + 状态 + 两个槽位 + 键数组
+        long size = 8 + 8L * width + 8 + 16 + 8L * key.length;
+        for (val v : key) {
+            size += KeyCodec.estimate(v);
+        }
+        if (values != null) {
+            size += 8L * width;
+            if (partialValues != null) {
+                for (val v : partialValues) {
+                    size += KeyCodec.estimate(v);
+                }
+            }
+        }
+        return size;
+    }
+
+    private void combine(long[] dst, Object[] dstValues, int d, long[] src, Object[] srcValues, int s) {
+        long dstMask = dst[d];
+        long srcMask = src[s];
+        for (int i = 1; i < width; i++) {
+            long bit = 1L << columns[i];
+            long a = dst[d + i];
+            long b = src[s + i];
+            boolean hasA = (dstMask & bit) != 0;
+            boolean hasB = (srcMask & bit) != 0;
+            switch (ops[i]) {
+                case OP_ADD_LONG:
+                    dst[d + i] = Math.addExact(a, b);
+                    break;
+                case OP_ADD_DOUBLE:
+                    dst[d + i] = Double.doubleToRawLongBits(Double.longBitsToDouble(a) + Double.longBitsToDouble(b));
+                    break;
+                case OP_MIN_LONG:
+                    if (hasB && (!hasA || b < a)) {
+                        dst[d + i] = b;
+                    }
+                    break;
+                case OP_MAX_LONG:
+                    if (hasB && (!hasA || b > a)) {
+                        dst[d + i] = b;
+                    }
+                    break;
+                case OP_MIN_DOUBLE:
+                    if (hasB && (!hasA || Double.longBitsToDouble(b) < Double.longBitsToDouble(a))) {
+                        dst[d + i] = b;
+                    }
+                    break;
+                case OP_MAX_DOUBLE:
+                    if (hasB && (!hasA || Double.longBitsToDouble(b) > Double.longBitsToDouble(a))) {
+                        dst[d + i] = b;
+                    }
+                    break;
+                case OP_MIN_OBJECT:
+                    if (hasB && (!hasA || compare(srcValues[s + i], dstValues[d + i]) < 0)) {
+                        dstValues[d + i] = srcValues[s + i];
+                    }
+                    break;
+                case OP_MAX_OBJECT:
+                    if (hasB && (!hasA || compare(srcValues[s + i], dstValues[d + i]) > 0)) {
+                        dstValues[d + i] = srcValues[s + i];
+                    }
+                    break;
+                default:
+                    if (hasB && !hasA) {
+                        dst[d + i] = b;
+                    }
+            }
+        }
+        dst[d] = dstMask | srcMask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    /**
+     * 按 hash 排序写入一个 run， 然后清空
+     */
+    private void spill() {
+        long[] sorted = Arrays.copyOf(hashes, rows);
+        Arrays.sort(sorted);
+        File file;
+        try {
+            file = File.createTempFile("sharding-agg-", ".run", spillDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to create spill file", e);
+        }
+        runs.add(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            out.writeInt(rows);
+            out.writeBoolean(values != null);
+            int mask = slots.length - 1;
+            for (int k = 0; k < sorted.length; k++) {
+                long hash = sorted[k];
+                if (k > 0 && sorted[k - 1] == hash) {
+                    continue;
+                }
+                // hash 相同的所有分组一起写出
+                for (int i = index(hash) & mask; slots[i] >= 0; i = (i + 1) & mask) {
+                    int row = slots[i];
+                    if (hashes[row] == hash) {
+                        out.writeLong(hash);
+                        KeyCodec.write(out, keys[row]);
+                        for (int j = 0; j < width; j++) {
+                            out.writeLong(states[row * width + j]);
+                        }
+                        if (values != null) {
+                            for (int j = 0; j < width; j++) {
+                                KeyCodec.write(out, values[row * width + j]);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write spill file " + file, e);
+        }
+        log.info("aggregate spilled {} groups ({} bytes estimated) to {}", rows, bytes, file);
+        reset();
+    }
+
+    /**
+     * @return 溢出到磁盘的次数
+     */
+    public int getSpillCount() {
+        return runs.size();
+    }
+
+    /**
+     * 所有分组的最终结果， 只能调用一次， 之后不能再 add
+     * 没有溢出的时候按分组第一次出现的顺序返回， 否则按 hash 顺序
+     */
+    public Iterator<Group> groups() {
+        if (runs.isEmpty()) {
+            return new Iterator<Group>() {
+                private int row;
+
+                @Override
+                public boolean hasNext() {
+                    return row < rows;
+                }
+
+                @Override
+                public Group next() {
+                    if (row >= rows) {
+                        throw new NoSuchElementException();
+                    }
+                    int r = row++;
+                    return new Group(keys[r], Arrays.copyOfRange(states, r * width, (r + 1) * width),
+                            values == null ? null : Arrays.copyOfRange(values, r * width, (r + 1) * width));
+                }
+            };
+        }
+        if (rows > 0) {
+            spill();
+        }
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size(), Comparator.comparingLong(r -> r.hash));
+        for (val file : runs) {
+            val reader = new RunReader(file);
+            readers.add(reader);
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+        return new Iterator<Group>() {
+            private final Deque<Group> pending = new ArrayDeque<>();
+
+            @Override
+            public boolean hasNext() {
+                while (pending.isEmpty() && !queue.isEmpty()) {
+                    long hash = queue.peek().hash;
+                    while (!queue.isEmpty() && queue.peek().hash == hash) {
+                        val reader = queue.poll();
+                        merge(pending, reader.current);
+                        if (reader.next()) {
+                            queue.add(reader);
+                        }
+                    }
+                }
+                return !pending.isEmpty();
+            }
+
+            @Override
+            public Group next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pending.poll();
+            }
+        };
+    }
+
+    /**
+     * hash 相同的分组中， 键相同的合并， 不同的分别返回
+     */
+    private void merge(Deque<Group> same, Group group) {
+        for (val g : same) {
+            if (Arrays.equals(g.keys, group.keys)) {
+                combine(g.state, g.values, 0, group.state, group.values, 0);
+                return;
+            }
+        }
+        same.add(group);
+    }
+
+    /**
+     * 删除所有溢出文件
+     */
+    @Override
+    public void close() {
+        for (val reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+        for (val file : runs) {
+            if (!file.delete() && file.exists()) {
+                log.warn("failed to delete spill file {}", file);
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * 一个分组的最终状态
+     */
+    public static final class Group {
+        private final Object[] keys;
+        private final long[] state;
+        private final Object[] values;
+
+        Group(Object[] keys, long[] state, Object[] values) {
+            this.keys = keys;
+            this.state = state;
+            this.values = values;
+        }
+
+        public Object[] getKeys() {
+            return keys;
+        }
+
+        public long[] getState() {
+            return state;
+        }
+
+        /**
+         * @return 对象槽位的值， 下标与 getState 相同， 没有对象槽位的时候为空
+         */
+        public Object[] getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * 顺序读取一个 run
+     */
+    private final class RunReader {
+        private final File file;
+        private final DataInputStream in;
+        private int remaining;
+        private final boolean withValues;
+        long hash;
+        Group current;
+
+        RunReader(File file) {
+            this.file = file;
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+                this.remaining = in.readInt();
+                this.withValues = in.readBoolean();
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read spill file " + file, e);
+            }
+        }
+
+        boolean next() {
+            if (remaining == 0) {
+                close();
+                return false;
+            }
+            remaining--;
+            try {
+                hash = in.readLong();
+                Object[] key = KeyCodec.read(in, keyLength);
+                long[] state = new long[width];
+                for (int j = 0; j < width; j++) {
+                    state[j] = in.readLong();
+                }
+                // 写入这个 run 的时候还没有对象槽位
+                Object[] v = withValues ? KeyCodec.read(in, width) : hasValues ? new Object[width] : null;
+                current = new Group(key, state, v);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read spill file " + file, e);
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
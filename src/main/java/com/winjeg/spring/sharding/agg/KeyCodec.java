@@ -0,0 +1,195 @@
+package com.winjeg.spring.sharding.agg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 分组键以及 MIN/MAX 对象槽位的值写入溢出文件的编码， 支持 JDBC 常见的类型， 写入之前与读取之后类型相同
+ *
+ * @author winjeg
+ */
+final class KeyCodec {
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte BIG_DECIMAL = 9;
+    private static final byte BIG_INTEGER = 10;
+    private static final byte TIMESTAMP = 11;
+    private static final byte SQL_DATE = 12;
+    private static final byte DATE = 13;
+    private static final byte LOCAL_DATE = 14;
+    private static final byte LOCAL_DATE_TIME = 15;
+    private static final byte CHARACTER = 16;
+    private static final byte INSTANT = 17;
+    private static final Set<Class<?>> SUPPORTED = new HashSet<>(Arrays.asList(String.class, Integer.class,
+            Long.class, Double.class, Float.class, Short.class, Byte.class, Boolean.class, BigDecimal.class,
+            BigInteger.class, java.sql.Timestamp.class, java.sql.Date.class, java.util.Date.class, LocalDate.class,
+            LocalDateTime.class, Character.class, Instant.class));
+
+    private KeyCodec() {
+    }
+
+    static void write(DataOutput out, Object[] keys) throws IOException {
+        for (Object v : keys) {
+            write(out, v);
+        }
+    }
+
+    static Object[] read(DataInput in, int length) throws IOException {
+        Object[] keys = new Object[length];
+        for (int i = 0; i < length; i++) {
+            keys[i] = read(in);
+        }
+        return keys;
+    }
+
+    /**
+     * @return 值是否可以写入溢出文件
+     */
+    static boolean supports(Object v) {
+        return v == null || SUPPORTED.contains(v.getClass());
+    }
+
+    static void write(DataOutput out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(NULL);
+        } else if (v instanceof String) {
+            byte[] bytes = ((String) v).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (v instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) v);
+        } else if (v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) v);
+        } else if (v instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) v);
+        } else if (v instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) v);
+        } else if (v instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) v);
+        } else if (v instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) v);
+        } else if (v instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeUTF(v.toString());
+        } else if (v instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            out.writeUTF(v.toString());
+        } else if (v instanceof java.sql.Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((java.sql.Timestamp) v).getTime());
+            out.writeInt(((java.sql.Timestamp) v).getNanos());
+        } else if (v instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((java.sql.Date) v).getTime());
+        } else if (v.getClass() == java.util.Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((java.util.Date) v).getTime());
+        } else if (v instanceof LocalDate) {
+            out.writeByte(LOCAL_DATE);
+            out.writeLong(((LocalDate) v).toEpochDay());
+        } else if (v instanceof LocalDateTime) {
+            out.writeByte(LOCAL_DATE_TIME);
+            out.writeUTF(v.toString());
+        } else if (v instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) v);
+        } else if (v instanceof Instant) {
+            out.writeByte(INSTANT);
+            out.writeLong(((Instant) v).getEpochSecond());
+            out.writeInt(((Instant) v).getNano());
+        } else {
+            throw new IllegalArgumentException("value can not be spilled: " + v.getClass().getName());
+        }
+    }
+
+    private static Object read(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BIG_DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case BIG_INTEGER:
+                return new BigInteger(in.readUTF());
+            case TIMESTAMP:
+                java.sql.Timestamp ts = new java.sql.Timestamp(in.readLong());
+                ts.setNanos(in.readInt());
+                return ts;
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case DATE:
+                return new java.util.Date(in.readLong());
+            case LOCAL_DATE:
+                return LocalDate.ofEpochDay(in.readLong());
+            case LOCAL_DATE_TIME:
+                return LocalDateTime.parse(in.readUTF());
+            case CHARACTER:
+                return in.readChar();
+            case INSTANT:
+                return Instant.ofEpochSecond(in.readLong(), in.readInt());
+            default:
+                throw new IOException("corrupted spill file, unknown tag: " + tag);
+        }
+    }
+
+    /**
+     * 估算一个值占用的内存
+     */
+    static long estimate(Object v) {
+        if (v == null) {
+            return 0;
+        }
+        if (v instanceof String) {
+            return 40 + 2L * ((String) v).length();
+        }
+        if (v instanceof BigDecimal || v instanceof BigInteger || v instanceof LocalDateTime) {
+            return 64;
+        }
+        return 24;
+    }
+}
@@ -0,0 +1,65 @@
+package com.winjeg.spring.sharding.annos;
+
+import java.lang.annotation.*;
+
+/**
+ * 跨分片聚合： 与 Broadcast 或者范围查询(RangeFrom/RangeTo)一起使用
+ * 每个分片的 SQL 按 groupBy 分组并返回部分聚合结果， 各分片流式读取， 读到的部分结果立即合并，
+ * 分组状态超过内存上限的时候按分组键的 hash 排序写入临时文件， 最后多路归并
+ * <pre>
+ * &#64;Broadcast
+ * &#64;Aggregate(groupBy = "region", value = {
+ *         &#64;Aggregate.Column(value = "cnt", fn = AggregateFunction.COUNT),
+ *         &#64;Aggregate.Column(value = "amount", fn = AggregateFunction.SUM),
+ *         &#64;Aggregate.Column(value = "avgAmount", fn = AggregateFunction.AVG, sum = "amount", count = "cnt")})
+ * List&lt;Map&lt;String, Object&gt;&gt; stats();
+ * </pre>
+ * 每个分片的 SQL 为 SELECT region, COUNT(*) cnt, SUM(amount) amount FROM ${tableName} GROUP BY region
+ * 方法可以返回 List、Cursor/Iterable(流式返回， 使用完需要关闭)或者单个对象(没有 groupBy 的时候)，
+ * 结果对象为 Map 或者与分片返回的对象同类型， 没有溢出到磁盘的时候按分组第一次出现的顺序返回， 否则顺序不确定
+ *
+ * @author winjeg
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Aggregate {
+    /**
+     * 分组的属性， 支持 a.b 这样的嵌套属性以及 Map 的 key
+     */
+    String[] groupBy() default {};
+
+    /**
+     * 聚合的列， 最多 63 个
+     */
+    Column[] value();
+
+    /**
+     * 分组状态占用内存的上限(估算)， 超过之后溢出到临时文件
+     */
+    int memoryLimitMb() default 64;
+
+    /**
+     * 一个聚合列
+     */
+    @Target({})
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Column {
+        /**
+         * 结果上的属性名， 也是分片结果上的属性名(AVG 除外)
+         */
+        String value();
+
+        AggregateFunction fn();
+
+        /**
+         * AVG 的时候分片结果上 sum 的属性名
+         */
+        String sum() default "";
+
+        /**
+         * AVG 的时候分片结果上 count 的属性名
+         */
+        String count() default "";
+    }
+}
@@ -0,0 +1,31 @@
+package com.winjeg.spring.sharding.annos;
+
+/**
+ * 跨分片聚合的函数， 每个分片返回部分结果， 合并的时候再计算一次
+ *
+ * @author winjeg
+ */
+public enum AggregateFunction {
+    /**
+     * 各分片 COUNT 的和， 结果为 long
+     */
+    COUNT,
+    /**
+     * 各分片 SUM 的和， 整数和 BigDecimal 按列的 scale 精确累加(超出 long 范围抛出异常)， float/double 按 double 累加
+     */
+    SUM,
+    /**
+     * 各分片 MIN 的最小值， 支持数值、字符串、Date/Timestamp 以及 LocalDate/LocalDateTime/Instant，
+     * BigDecimal、字符串和带纳秒的时间按 compareTo 精确比较
+     */
+    MIN,
+    /**
+     * 各分片 MAX 的最大值， 支持的类型与 MIN 相同
+     */
+    MAX,
+    /**
+     * 平均值不能直接合并， 需要各分片返回 sum 和 count， 结果为 sum 之和 / count 之和
+     * sum 为 BigDecimal 的时候精确累加， 结果为 BigDecimal(34 位有效数字)， 否则为 double
+     */
+    AVG
+}
@@ -0,0 +1,20 @@
+package com.winjeg.spring.sharding.annos;
+
+import java.lang.annotation.*;
+
+/**
+ * 标记一个分库分表 mapper 上不带 ShardingKey 的方法， 在所有分片上执行
+ * 会在 Sharding.datasource() 中的每个数据源以及 tableRule 能计算出的每个表上并行执行
+ * 结果合并规则： List/Set 拼接， Map 合并(key 相同的时候后面的分片覆盖前面的)， int/long 类型求和
+ * 其他返回类型无法合并， 创建代理的时候抛出异常
+ * 需要排序分页的时候加上 SortedMerge， 按排序属性流式归并
+ * 需要跨分片 GROUP BY/COUNT/SUM 等的时候加上 Aggregate， 合并各分片的部分聚合结果
+ * 注意： 分表规则必须是 'prefix' + (key % N ...) 这种可以枚举的形式
+ *
+ * @author winjeg
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Broadcast {
+}
@@ -0,0 +1,28 @@
+package com.winjeg.spring.sharding.annos;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存单个分片键的查询结果， 缓存键为 (方法, 分片键, 全部参数)， 结果为 null 也会缓存
+ * 同一个 mapper 上的写方法(insert/update/delete)执行之后删除相同分片键的所有缓存， 批量写删除每个分片键，
+ * 广播或者范围写入清空整个 mapper 的缓存； 在事务中执行的时候， 事务结束后会再删除一次
+ * 缓存容量由 Sharding.resultCacheSize 指定， 满了按 CLOCK 淘汰
+ * 注意：
+ * 1. 只在当前进程内生效， 其他进程或者直接执行 SQL 的修改只能等过期
+ * 2. 事务中的查询不读也不写缓存
+ * 3. 多次调用返回的是同一个对象， 不要修改
+ *
+ * @author winjeg
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Cached {
+    /**
+     * 过期时间
+     */
+    long ttl() default 60;
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -9,7 +9,7 @@ import java.lang.annotation.*;
 /**
  * 是否开启sharding， 如果要使用这个中间件，此注解必不可少
  * 必须要配置扫描的 packages, 即mapper 所在包名， 包里可以放其他东西，但是不推荐
- * 注意一点：在同一个Mapper内，方法名称不可以重复，如果重复的话，则会导致问题
+ * 同一个Mapper内的重载方法按完整签名分别分发， 但 mybatis 按方法名对应 xml 中的语句， 重载方法共用同一个语句
  *
  * @author winjeg
  */
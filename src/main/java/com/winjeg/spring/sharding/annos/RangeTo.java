@@ -0,0 +1,16 @@
+package com.winjeg.spring.sharding.annos;
+
+import java.lang.annotation.*;
+
+/**
+ * 范围查询的终点(不包含)， 与 RangeFrom 成对使用， 只能用于按范围分区(tableRule 或 dbRule 以 range: 开头)的 mapper
+ * 支持 int/Integer/long/Long 以及 Date/Instant(按毫秒时间戳)， 可以放在参数或者参数对象的成员上
+ * 只查询与 [RangeFrom, RangeTo) 有交集的分区， 并行执行后按分区顺序合并结果
+ *
+ * @author winjeg
+ */
+@Target({ElementType.PARAMETER, ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RangeTo {
+}
@@ -1,5 +1,7 @@
 package com.winjeg.spring.sharding.annos;
 
+import com.winjeg.spring.sharding.route.KeyHash;
+
 import java.lang.annotation.*;
 
 /**
@@ -40,6 +42,7 @@ public @interface Sharding {
 
     /**
      * example: 'trade_order_' + userId % 1024 % 64
+     * range example: range:month:'trade_order_'yyyyMM, see RangeRouteRule
      *
      * @return actual table rule
      */
@@ -52,4 +55,28 @@ public @interface Sharding {
      * @return 占位符字段名称
      */
     String shardingKey() default "";
+
+    /**
+     * 路由结果缓存的容量， 分片键到 数据源 + 表名 的映射， 0 表示不缓存
+     * 只对无法编译成查找表的规则(例如调用了 aviator 函数的表达式)生效， 适合热点 key 集中的场景
+     *
+     * @return 缓存容量
+     */
+    int routeCacheSize() default 0;
+
+    /**
+     * Cached 方法的查询结果缓存的容量， 所有 Cached 方法共用， 同一个分片键最多缓存 8 个结果
+     *
+     * @return 缓存容量
+     */
+    int resultCacheSize() default 4096;
+
+    /**
+     * String/UUID 类型的分片键以及组合键转换为 long 使用的 hash 算法， 结果为非负数
+     * int/long 类型的单个分片键不经过 hash， 保持原值
+     * 规则中可以使用 jump(key, N) 做一致性 hash， 例如 'ds-' + jump(id, 8)
+     *
+     * @return hash 算法
+     */
+    KeyHash keyHash() default KeyHash.MURMUR3;
 }
@@ -3,8 +3,12 @@ package com.winjeg.spring.sharding.annos;
 import java.lang.annotation.*;
 
 /**
- * sharding key only supports int or long columns
- * 仅支持 long 类型的shardingKey
+ * sharding key supports int, long, String and UUID columns
+ * 支持 int/Integer/long/Long 类型的shardingKey， String/UUID 类型按 Sharding.keyHash 转换为 long
+ * 多个参数(或者参数对象同一层的多个成员)都标记的时候， 按声明顺序组成组合键， 同样按 Sharding.keyHash 计算
+ * 可以放在方法参数上， 也可以放在参数对象（或其嵌套对象）的成员上
+ * 参数为集合的时候， 可以放在集合元素的成员上， 集合会按分片拆分后批量执行
+ * 也可以直接放在 key 的集合上(例如 List&lt;Long&gt; ids)， 按分片拆分后并行查询， 结果合并为一个列表
  *
  * @author winjeg
  */
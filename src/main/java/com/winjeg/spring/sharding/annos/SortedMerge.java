@@ -0,0 +1,40 @@
+package com.winjeg.spring.sharding.annos;
+
+import java.lang.annotation.*;
+
+/**
+ * 跨分片排序分页： 与 Broadcast 或者范围查询(RangeFrom/RangeTo)一起使用
+ * 每个分片打开一个 MyBatis Cursor， 按排序属性多路归并， 满足 offset + limit 之后不再读取， 内存占用与分片数成正比
+ * 方法返回 Cursor/Iterable 的时候流式返回， 使用完需要关闭； 返回 List 的时候只保存 limit 条结果
+ * <p>
+ * 每个分片上的 SQL 需要按相同的顺序排序， 并且不能带 OFFSET， 例如 ORDER BY create_time DESC LIMIT ${offset + limit}
+ * 同一个数据源的多张表共用一个连接， 同时有多个未读完的结果集， MySQL 需要在连接上设置 useCursorFetch=true
+ * 并且给语句设置正数的 fetchSize 才会流式读取； 不能使用 fetchSize="-2147483648"， 一个连接上只允许一个这样的结果集
+ *
+ * @author winjeg
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface SortedMerge {
+    /**
+     * 结果对象上的排序属性， 支持 a.b 这样的嵌套属性以及 Map 的 key， 为空则按结果本身排序
+     * 属性值需要实现 Comparable， null 最小(与 MySQL 一致)
+     */
+    String value() default "";
+
+    /**
+     * 是否倒序
+     */
+    boolean desc() default false;
+
+    /**
+     * limit 对应的参数名称(@Param 或者参数对象的属性)， 为空或者参数值为空则不限制
+     */
+    String limit() default "";
+
+    /**
+     * offset 对应的参数名称(@Param 或者参数对象的属性)， 为空或者参数值为空则为 0
+     */
+    String offset() default "";
+}
@@ -2,6 +2,8 @@ package com.winjeg.spring.sharding.config;
 
 import lombok.Data;
 
+import java.util.Map;
+
 /**
  * 数据库数据源配置， 支持多数据源
  * 如果需要其他属性，可以在此添加，然后在
@@ -14,21 +16,159 @@ public class DataSourceProps {
 
     private HikariProps[] list;
 
+    /**
+     * 多分片并行执行的配置， 参考 ShardExecutors
+     */
+    private ExecutorProps executor = new ExecutorProps();
+
+    /**
+     * 运行指标的配置
+     */
+    private MetricsProps metrics = new MetricsProps();
+
+    /**
+     * 连接池的创建方式
+     */
+    private InitProps init = new InitProps();
+
+    /**
+     * 启动时的预热， 参考 ShardingWarmUp
+     */
+    private WarmUpProps warmUp = new WarmUpProps();
+
     @Data
     public static class HikariProps {
+        public static final long DEFAULT_CONNECTION_TIMEOUT = 2000;
+        public static final long DEFAULT_IDLE_TIMEOUT = 600000;
+        public static final String DEFAULT_CONNECTION_TEST_QUERY = "SELECT 1";
+        public static final int DEFAULT_MAXIMUM_POOL_SIZE = 10;
 
         /**
          * name 是作为map的KEY使用需要保证唯一性
          */
         private String name;
 
-        private long connectionTimeout = 2000;
-        private long idleTimeout = 2000;
-        private String connectionTestQuery = "SELECT 1";
-        private int maximumPoolSize = 10;
+        /**
+         * 以下四个属性为空的时候使用 DEFAULT_ 开头的默认值， 从库未配置的继承主库
+         */
+        private Long connectionTimeout;
+        private Long idleTimeout;
+        private String connectionTestQuery;
+        private Integer maximumPoolSize;
         private String driverClassName;
         private String jdbcUrl;
         private String username;
         private String password;
+
+        /**
+         * 以下属性为空的时候使用 HikariCP 的默认值， 从库未配置的继承主库
+         * 最小空闲连接数， 默认与 maximumPoolSize 相同
+         */
+        private Integer minimumIdle;
+        private Long maxLifetime;
+        /**
+         * 空闲连接保活的间隔， 需要小于 maxLifetime， 0 为不保活
+         */
+        private Long keepaliveTime;
+        private Long validationTimeout;
+        /**
+         * 连接借出超过这个时间没有归还则打印泄漏日志， 0 为不检测
+         */
+        private Long leakDetectionThreshold;
+        private Long initializationFailTimeout;
+        private Boolean autoCommit;
+        private Boolean readOnly;
+        private String transactionIsolation;
+        private String catalog;
+        private String schema;
+        private String connectionInitSql;
+        /**
+         * 传给驱动的属性， 例如 MySQL 的 cachePrepStmts
+         * 为空并且是 MySQL 的时候使用预编译语句缓存的推荐配置， 参考 HikariCPFactory.MYSQL_DEFAULTS
+         */
+        private Map<String, String> dataSourceProperties;
+
+        /**
+         * 从库， 未配置的属性(驱动、用户名、密码等)继承主库， 名称默认为 name-replica-序号
+         */
+        private HikariProps[] replicas;
+        /**
+         * 从库选择策略： least-outstanding / ewma
+         */
+        private String loadBalance = "least-outstanding";
+    }
+
+    @Data
+    public static class ExecutorProps {
+        /**
+         * caller / pool / virtual / auto
+         */
+        private String type = "auto";
+        /**
+         * pool 类型的线程数， 0 表示 cpu 核数 * 2
+         */
+        private int threads = 0;
+        private int queueSize = 1024;
+    }
+
+    @Data
+    public static class MetricsProps {
+        private boolean enabled = true;
+        /**
+         * MetricsRegistry 的实现类， 默认为 JmxMetricsRegistry
+         */
+        private String registry;
+        /**
+         * 每个 mapper 统计的热点分片键数量， 0 为不统计
+         */
+        private int hotKeys = 16;
+        /**
+         * 热点计数减半的间隔， 秒
+         */
+        private int hotKeyHalfLife = 10;
+        /**
+         * 热点统计每 N 次调用随机记录一次， 减少多线程写同一个热点计数的争用， 1 为全部记录
+         */
+        private int hotKeySampling = 16;
+        /**
+         * 路由耗时每 N 次调用随机计时一次， 1 为全部计时
+         */
+        private int routingSampling = 16;
+    }
+
+    @Data
+    public static class WarmUpProps {
+        /**
+         * 为 true 则启动时把每个连接池填充到 minimumIdle， 完成之后才继续启动
+         */
+        private boolean enabled = false;
+        /**
+         * 在预热借出的每个连接上， 把每个语句在每个分片表上预编译一次， 需要驱动开启预编译语句缓存才有意义
+         */
+        private boolean prepareStatements = false;
+        /**
+         * 每个 mapper 按分发类的路径执行路由计算的次数， 用于 JIT 预热， 0 为不执行
+         */
+        private int routingIterations = 20000;
+        /**
+         * 预热的超时时间， 毫秒， 超时之后记录日志并继续启动
+         */
+        private long timeout = 30000;
+    }
+
+    @Data
+    public static class InitProps {
+        /**
+         * 同时创建的连接池数量， 0 表示每个数据源一个线程(不超过 32)
+         */
+        private int parallelism = 0;
+        /**
+         * 启动时创建所有连接池的超时时间， 毫秒
+         */
+        private long timeout = 60000;
+        /**
+         * 为 true 则启动时不创建连接池， 第一次路由到某个分片的时候再创建
+         */
+        private boolean lazy = false;
     }
 }
@@ -0,0 +1,512 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.agg.AggregateTable;
+import com.winjeg.spring.sharding.annos.Aggregate;
+import com.winjeg.spring.sharding.annos.AggregateFunction;
+import com.winjeg.spring.sharding.exec.ShardExecutor;
+import com.winjeg.spring.sharding.factories.DispatchTable;
+import com.winjeg.spring.sharding.route.KeyHash;
+import com.winjeg.spring.sharding.route.Shard;
+import lombok.val;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.*;
+
+/**
+ * 一个 Aggregate 方法的执行计划， 创建代理的时候生成一次
+ * 通过 ShardCursors 流式读取每个分片的部分结果， 读到一行就合并到 AggregateTable， 内存占用与分组数(以及内存上限)相关，
+ * 与分片数无关
+ *
+ * @author winjeg
+ */
+final class AggregatePlan {
+    private static final int SINGLE = 0;
+    private static final int LIST = 1;
+    private static final int CURSOR = 2;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte INTEGRAL = 1;
+    private static final byte FLOATING = 2;
+    private static final byte DATE = 3;
+    private static final byte COMPARABLE = 4;
+
+    private final ShardCursors cursors;
+    private final Configuration configuration;
+    private final String[] groupBy;
+    private final String[] names;
+    private final AggregateFunction[] fns;
+    private final String[] sums;
+    private final String[] counts;
+    /**
+     * 每一列在状态中的第一个槽位
+     */
+    private final int[] offsets;
+    private final byte[] ops;
+    private final int[] slotColumns;
+    private final long memoryLimit;
+    private final int returnKind;
+
+    AggregatePlan(Aggregate anno, Method m, DispatchTable dispatch, int ordinal, SqlSessionFactoryManager sm) {
+        this(anno, m, new ShardCursors(m, dispatch, ordinal, sm));
+    }
+
+    private AggregatePlan(Aggregate anno, Method m, ShardCursors cursors) {
+        this(anno, m, cursors, cursors.getConfiguration());
+    }
+
+    /**
+     * @param cursors 为空的时候只能调用 merge
+     */
+    AggregatePlan(Aggregate anno, Method m, ShardCursors cursors, Configuration configuration) {
+        this.cursors = cursors;
+        this.configuration = configuration;
+        val method = m.getDeclaringClass().getCanonicalName() + "." + m.getName();
+        val columns = anno.value();
+        if (columns.length == 0 || columns.length > 63) {
+            throw new IllegalArgumentException("@Aggregate should have 1 to 63 columns: " + method);
+        }
+        this.groupBy = anno.groupBy();
+        this.names = new String[columns.length];
+        this.fns = new AggregateFunction[columns.length];
+        this.sums = new String[columns.length];
+        this.counts = new String[columns.length];
+        this.offsets = new int[columns.length];
+        List<Byte> opList = new ArrayList<>();
+        List<Integer> columnList = new ArrayList<>();
+        // 第 0 个槽位为非空掩码
+        opList.add((byte) 0);
+        columnList.add(0);
+        for (int c = 0; c < columns.length; c++) {
+            names[c] = columns[c].value();
+            fns[c] = columns[c].fn();
+            offsets[c] = opList.size();
+            switch (fns[c]) {
+                case COUNT:
+                    opList.add(AggregateTable.OP_ADD_LONG);
+                    break;
+                case SUM:
+                    // 整数和 BigDecimal(按列的 scale 转换为 unscaled long)精确累加， 浮点数单独累加
+                    opList.add(AggregateTable.OP_ADD_LONG);
+                    opList.add(AggregateTable.OP_ADD_DOUBLE);
+                    break;
+                case MIN:
+                    opList.add(AggregateTable.OP_MIN_LONG);
+                    break;
+                case MAX:
+                    opList.add(AggregateTable.OP_MAX_LONG);
+                    break;
+                case AVG:
+                    if (columns[c].sum().isEmpty() || columns[c].count().isEmpty()) {
+                        throw new IllegalArgumentException(String.format("AVG column %s of %s should have sum and count",
+                                names[c], method));
+                    }
+                    sums[c] = columns[c].sum();
+                    counts[c] = columns[c].count();
+                    // sum 为整数或 BigDecimal 的时候改为 OP_ADD_LONG
+                    opList.add(AggregateTable.OP_ADD_DOUBLE);
+                    opList.add(AggregateTable.OP_ADD_LONG);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported aggregate function: " + fns[c]);
+            }
+            while (columnList.size() < opList.size()) {
+                columnList.add(c);
+            }
+        }
+        this.ops = new byte[opList.size()];
+        this.slotColumns = new int[opList.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = opList.get(i);
+            slotColumns[i] = columnList.get(i);
+        }
+        this.memoryLimit = anno.memoryLimitMb() * 1024L * 1024L;
+        val rt = m.getReturnType();
+        if (Cursor.class.isAssignableFrom(rt) || rt == Iterable.class) {
+            returnKind = CURSOR;
+        } else if (rt.isAssignableFrom(ArrayList.class)) {
+            returnKind = LIST;
+        } else if (rt.isPrimitive() || Number.class.isAssignableFrom(rt) || groupBy.length > 0) {
+            throw new IllegalArgumentException("@Aggregate method should return Cursor, Iterable, List, "
+                    + "or a single Map/object without groupBy: " + method);
+        } else {
+            returnKind = SINGLE;
+        }
+    }
+
+    /**
+     * 在所有分片上执行并合并
+     *
+     * @param executor    执行器
+     * @param shards      分片
+     * @param datasources 每个分片的数据源
+     * @param args        每个分片的参数(已经加上了表名)
+     * @return 按返回类型返回 List、Cursor 或者单个结果
+     * @throws Throwable 任意一个分片的异常
+     */
+    Object execute(ShardExecutor executor, List<Shard> shards, List<String> datasources,
+                   List<Object[]> args) throws Throwable {
+        val execution = new Execution();
+        try {
+            cursors.open(executor, shards, datasources, args, (p, cursor) -> {
+                try (Cursor<Object> c = cursor) {
+                    for (Object row : c) {
+                        execution.add(row);
+                    }
+                }
+            }, false);
+        } catch (Throwable t) {
+            execution.table.close();
+            throw t;
+        }
+        val rows = execution.rows();
+        if (returnKind == CURSOR) {
+            return new IteratorCursor<>(rows, execution.table);
+        }
+        try {
+            if (returnKind == SINGLE) {
+                // 没有 groupBy 的时候最多一行
+                return rows.hasNext() ? rows.next() : null;
+            }
+            List<Object> result = new ArrayList<>();
+            rows.forEachRemaining(result::add);
+            return result;
+        } finally {
+            execution.table.close();
+        }
+    }
+
+    /**
+     * 合并已经读到的各分片的部分结果
+     *
+     * @param partials 各分片返回的行
+     * @return 合并之后的所有分组
+     */
+    List<Object> merge(Iterable<?> partials) {
+        val execution = new Execution();
+        try {
+            for (Object row : partials) {
+                execution.add(row);
+            }
+            List<Object> result = new ArrayList<>();
+            execution.rows().forEachRemaining(result::add);
+            return result;
+        } finally {
+            execution.table.close();
+        }
+    }
+
+    private static long hashOf(Object v) {
+        if (v == null) {
+            return 0x9E3779B97F4A7C15L;
+        }
+        if (v instanceof String) {
+            return KeyHash.MURMUR3.hash((String) v);
+        }
+        if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            return KeyHash.finish(((Number) v).longValue());
+        }
+        return KeyHash.finish(v.hashCode());
+    }
+
+    private static boolean isIntegral(Object v) {
+        return v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte
+                || v instanceof BigInteger;
+    }
+
+    private static boolean isExact(Object v) {
+        return isIntegral(v) || v instanceof BigDecimal;
+    }
+
+    /**
+     * 整数、浮点数和 Date 编码为 long 比较， Timestamp(有纳秒)、BigDecimal、字符串、java.time 等按 Comparable 比较
+     */
+    private static byte kindOf(Object v, String name) {
+        if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            return INTEGRAL;
+        }
+        if (v instanceof Double || v instanceof Float) {
+            return FLOATING;
+        }
+        if (v instanceof Date && !(v instanceof java.sql.Timestamp)) {
+            return DATE;
+        }
+        if (v instanceof Comparable && AggregateTable.isSpillable(v)) {
+            return COMPARABLE;
+        }
+        if (v instanceof Number) {
+            return FLOATING;
+        }
+        throw new IllegalArgumentException("MIN/MAX column " + name + " should be a number, a string, a date or time: "
+                + v.getClass().getName());
+    }
+
+    /**
+     * 转换为属性的类型， 例如 long 的 COUNT 写到 int 类型的属性上
+     */
+    private static Object convert(Object value, Class<?> target) {
+        if (value == null || target == null || target.isInstance(value) || !(value instanceof Number)) {
+            return value;
+        }
+        Number n = (Number) value;
+        if (target == Integer.class || target == int.class) {
+            return n.intValue();
+        }
+        if (target == Long.class || target == long.class) {
+            return n.longValue();
+        }
+        if (target == Double.class || target == double.class) {
+            return n.doubleValue();
+        }
+        if (target == Float.class || target == float.class) {
+            return n.floatValue();
+        }
+        if (target == Short.class || target == short.class) {
+            return n.shortValue();
+        }
+        if (target == Byte.class || target == byte.class) {
+            return n.byteValue();
+        }
+        if (target == BigDecimal.class) {
+            return isIntegral(n) ? BigDecimal.valueOf(n.longValue()) : BigDecimal.valueOf(n.doubleValue());
+        }
+        if (target == BigInteger.class) {
+            return BigInteger.valueOf(n.longValue());
+        }
+        return value;
+    }
+
+    /**
+     * 一次调用的状态， add 在执行器的多个线程上调用
+     */
+    private final class Execution {
+        private final AggregateTable table = new AggregateTable(ops, slotColumns, groupBy.length, memoryLimit, null);
+        private final long[] partial = new long[ops.length];
+        private final Object[] partialValues = new Object[ops.length];
+        private final byte[] kinds = new byte[names.length];
+        private final Class<?>[] samples = new Class<?>[names.length];
+        /**
+         * SUM/AVG 列有浮点数
+         */
+        private final boolean[] decimal = new boolean[names.length];
+        /**
+         * SUM/AVG 列精确累加的 scale， 由第一个整数或 BigDecimal 值确定， -1 为还没有
+         */
+        private final int[] scales = new int[names.length];
+
+        Execution() {
+            Arrays.fill(scales, -1);
+        }
+        private Class<?> rowClass;
+
+        synchronized void add(Object row) {
+            if (rowClass == null) {
+                rowClass = row.getClass();
+            }
+            MetaObject meta = configuration.newMetaObject(row);
+            Object[] key = new Object[groupBy.length];
+            long h = 0;
+            for (int i = 0; i < key.length; i++) {
+                key[i] = meta.getValue(groupBy[i]);
+                h = KeyHash.combine(h, hashOf(key[i]));
+            }
+            Arrays.fill(partial, 0);
+            Arrays.fill(partialValues, null);
+            long mask = 0;
+            for (int c = 0; c < names.length; c++) {
+                int o = offsets[c];
+                long bit = 1L << c;
+                if (fns[c] == AggregateFunction.AVG) {
+                    Object sum = meta.getValue(sums[c]);
+                    Object count = meta.getValue(counts[c]);
+                    if (sum != null && count != null) {
+                        if (samples[c] == null) {
+                            samples[c] = sum.getClass();
+                        }
+                        if (isExact(sum)) {
+                            if (decimal[c]) {
+                                throw new IllegalArgumentException("AVG column " + names[c] + " has mixed types");
+                            }
+                            if (scales[c] < 0) {
+                                table.setOp(o, AggregateTable.OP_ADD_LONG);
+                            }
+                            partial[o] = unscaled(c, sum);
+                        } else {
+                            if (scales[c] >= 0) {
+                                throw new IllegalArgumentException("AVG column " + names[c] + " has mixed types");
+                            }
+                            decimal[c] = true;
+                            partial[o] = Double.doubleToRawLongBits(((Number) sum).doubleValue());
+                        }
+                        partial[o + 1] = ((Number) count).longValue();
+                        mask |= bit;
+                    }
+                    continue;
+                }
+                Object v = meta.getValue(names[c]);
+                if (v == null) {
+                    continue;
+                }
+                mask |= bit;
+                if (samples[c] == null) {
+                    samples[c] = v.getClass();
+                }
+                switch (fns[c]) {
+                    case COUNT:
+                        partial[o] = ((Number) v).longValue();
+                        break;
+                    case SUM:
+                        if (isExact(v)) {
+                            partial[o] = unscaled(c, v);
+                        } else {
+                            partial[o + 1] = Double.doubleToRawLongBits(((Number) v).doubleValue());
+                            decimal[c] = true;
+                        }
+                        break;
+                    default:
+                        partial[o] = encode(c, v);
+                }
+            }
+            partial[0] = mask;
+            table.add(KeyHash.finish(h), key, partial, partialValues);
+        }
+
+        /**
+         * 整数或 BigDecimal 按列的 scale 转换为 unscaled long， 第一个值确定 scale
+         * 数据库按列定义的精度返回 DECIMAL， 同一列的 scale 通常是一样的； 超出 scale 或者 long 范围的抛出异常
+         */
+        private long unscaled(int c, Object v) {
+            if (scales[c] <= 0 && isIntegral(v) && !(v instanceof BigInteger)) {
+                scales[c] = 0;
+                return ((Number) v).longValue();
+            }
+            BigDecimal d = v instanceof BigDecimal ? (BigDecimal) v
+                    : v instanceof BigInteger ? new BigDecimal((BigInteger) v) : BigDecimal.valueOf(((Number) v).longValue());
+            if (scales[c] < 0) {
+                scales[c] = Math.max(d.scale(), 0);
+            }
+            try {
+                return d.setScale(scales[c]).unscaledValue().longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException(String.format("%s column %s: %s does not fit scale %d of the column",
+                        fns[c], names[c], v, scales[c]), e);
+            }
+        }
+
+        /**
+         * MIN/MAX 的值编码为 long， 或者放在对象槽位里， 第一次读到值的时候确定这一列的类型
+         */
+        private long encode(int c, Object v) {
+            byte kind = kindOf(v, names[c]);
+            boolean min = fns[c] == AggregateFunction.MIN;
+            if (kinds[c] == UNKNOWN) {
+                kinds[c] = kind;
+                if (kind == FLOATING) {
+                    table.setOp(offsets[c], min ? AggregateTable.OP_MIN_DOUBLE : AggregateTable.OP_MAX_DOUBLE);
+                } else if (kind == COMPARABLE) {
+                    table.setOp(offsets[c], min ? AggregateTable.OP_MIN_OBJECT : AggregateTable.OP_MAX_OBJECT);
+                }
+            } else if (kinds[c] != kind || kind == COMPARABLE && v.getClass() != samples[c]) {
+                throw new IllegalArgumentException("MIN/MAX column " + names[c] + " has mixed types");
+            }
+            switch (kind) {
+                case FLOATING:
+                    return Double.doubleToRawLongBits(((Number) v).doubleValue());
+                case DATE:
+                    return ((Date) v).getTime();
+                case COMPARABLE:
+                    partialValues[offsets[c]] = v;
+                    return 0;
+                default:
+                    return ((Number) v).longValue();
+            }
+        }
+
+        Iterator<Object> rows() {
+            val groups = table.groups();
+            return new Iterator<Object>() {
+                @Override
+                public boolean hasNext() {
+                    return groups.hasNext();
+                }
+
+                @Override
+                public Object next() {
+                    return toRow(groups.next());
+                }
+            };
+        }
+
+        private Object toRow(AggregateTable.Group group) {
+            Object row = configuration.getObjectFactory().create(rowClass);
+            MetaObject meta = configuration.newMetaObject(row);
+            Object[] key = group.getKeys();
+            for (int i = 0; i < key.length; i++) {
+                set(meta, groupBy[i], key[i]);
+            }
+            for (int c = 0; c < names.length; c++) {
+                set(meta, names[c], decode(c, group));
+            }
+            return row;
+        }
+
+        private void set(MetaObject meta, String name, Object value) {
+            Class<?> type = meta.getSetterType(name);
+            if (value == null && type.isPrimitive()) {
+                return;
+            }
+            meta.setValue(name, convert(value, type == Object.class ? null : type));
+        }
+
+        private Object decode(int c, AggregateTable.Group group) {
+            long[] state = group.getState();
+            int o = offsets[c];
+            boolean has = (state[0] & (1L << c)) != 0;
+            switch (fns[c]) {
+                case COUNT:
+                    return state[o];
+                case SUM:
+                    if (!has) {
+                        return null;
+                    }
+                    if (decimal[c]) {
+                        return exact(c, state[o]).doubleValue() + Double.longBitsToDouble(state[o + 1]);
+                    }
+                    return samples[c] == BigDecimal.class || scales[c] > 0 ? exact(c, state[o]) : (Object) state[o];
+                case AVG:
+                    long count = state[o + 1];
+                    if (!has || count == 0) {
+                        return null;
+                    }
+                    if (decimal[c]) {
+                        return Double.longBitsToDouble(state[o]) / count;
+                    }
+                    if (samples[c] == BigDecimal.class) {
+                        return exact(c, state[o]).divide(BigDecimal.valueOf(count), MathContext.DECIMAL128);
+                    }
+                    return exact(c, state[o]).doubleValue() / count;
+                default:
+                    if (!has) {
+                        return null;
+                    }
+                    if (kinds[c] == COMPARABLE) {
+                        return group.getValues()[o];
+                    }
+                    if (kinds[c] == DATE) {
+                        return samples[c] == java.sql.Date.class ? new java.sql.Date(state[o]) : new Date(state[o]);
+                    }
+                    Object v = kinds[c] == FLOATING ? (Object) Double.longBitsToDouble(state[o]) : (Object) state[o];
+                    return convert(v, samples[c]);
+            }
+        }
+
+        private BigDecimal exact(int c, long unscaled) {
+            return BigDecimal.valueOf(unscaled, Math.max(scales[c], 0));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.route.ShardingRule;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片事务绑定在当前线程上的路由， 由 ShardingTransactionManager.execute 绑定
+ * 事务内分片键相同的调用直接使用绑定的结果， 不再重新计算
+ * 路由到其他数据源的调用立即失败， 因为它不会加入当前事务
+ * <p>
+ * 没有任何线程绑定的时候只读取一次计数， 不访问 ThreadLocal
+ *
+ * @author winjeg
+ */
+final class BoundShard {
+    private static final ThreadLocal<BoundShard> CURRENT = new ThreadLocal<>();
+    private static final AtomicInteger BOUND = new AtomicInteger();
+
+    private final ShardingRule rule;
+    private final long key;
+    private final int datasourceIndex;
+    private final String datasource;
+    private final String table;
+
+    BoundShard(ShardingRule rule, long key) {
+        this.rule = rule;
+        this.key = key;
+        this.datasourceIndex = rule.datasourceIndex(key);
+        this.datasource = rule.getDatasource(datasourceIndex);
+        this.table = rule.isShardingTable() ? rule.table(key) : null;
+    }
+
+    String getDatasource() {
+        return datasource;
+    }
+
+    /**
+     * @return 当前线程绑定的路由， 没有返回 null
+     */
+    static BoundShard current() {
+        return BOUND.get() == 0 ? null : CURRENT.get();
+    }
+
+    /**
+     * 绑定到当前线程
+     *
+     * @return 之前绑定的路由， 用于 unbind 的时候恢复
+     * @throws IllegalStateException 已经绑定了其他数据源
+     */
+    BoundShard bind() {
+        BoundShard previous = CURRENT.get();
+        if (previous != null) {
+            previous.check(datasource);
+        }
+        CURRENT.set(this);
+        BOUND.incrementAndGet();
+        return previous;
+    }
+
+    static void unbind(BoundShard previous) {
+        BOUND.decrementAndGet();
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * 事务内一次调用的数据源下标， 与绑定的 mapper 和分片键都相同的时候直接使用绑定的结果
+     *
+     * @throws IllegalStateException 路由到了其他数据源
+     */
+    int datasourceIndex(ShardingRule r, long k) {
+        if (r == rule && k == key) {
+            return datasourceIndex;
+        }
+        int idx = r.datasourceIndex(k);
+        check(r.getDatasource(idx));
+        return idx;
+    }
+
+    String table(ShardingRule r, long k) {
+        return r == rule && k == key ? table : r.table(k);
+    }
+
+    /**
+     * @throws IllegalStateException 不是绑定的数据源
+     */
+    void check(String ds) {
+        if (!datasource.equals(ds)) {
+            throw new IllegalStateException(String.format("shard transaction is bound to %s, but the call routes to %s",
+                    datasource, ds));
+        }
+    }
+}
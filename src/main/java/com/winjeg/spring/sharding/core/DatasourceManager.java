@@ -3,9 +3,13 @@ package com.winjeg.spring.sharding.core;
 
 import com.winjeg.spring.sharding.config.DataSourceProps;
 import com.winjeg.spring.sharding.factories.HikariCPFactory;
+import com.winjeg.spring.sharding.factories.LazyDataSource;
+import com.winjeg.spring.sharding.rw.ReadWriteDataSource;
+import com.zaxxer.hikari.HikariDataSource;
 import lombok.val;
 
 import javax.sql.DataSource;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
@@ -34,6 +38,61 @@ public class DatasourceManager {
         }
     }
 
+    /**
+     * 所有的连接池， 读写分离的数据源展开为主库和各个从库， key 为连接池名称
+     * 延迟创建的数据源只包括已经创建了的
+     * 可以从 HikariDataSource.getHikariPoolMXBean() 读取活跃、空闲以及等待连接的线程数
+     *
+     * @return 连接池名称到连接池的映射
+     */
+    public Map<String, HikariDataSource> getPools() {
+        Map<String, HikariDataSource> result = new LinkedHashMap<>();
+        foreach((name, dataSource) -> result.putAll(getPools(name)));
+        return result;
+    }
+
+    /**
+     * 一个数据源已经创建了的连接池， 第一个是主库， 之后是各个从库
+     *
+     * @param name 数据源名称
+     * @return 连接池名称到连接池的映射， 数据源不存在或者延迟创建还没有创建的时候为空
+     */
+    public Map<String, HikariDataSource> getPools(String name) {
+        DataSource ds = DATASOURCE_MAP.get(name);
+        if (ds instanceof LazyDataSource) {
+            ds = ((LazyDataSource) ds).getTarget();
+        }
+        return ds == null ? new LinkedHashMap<>() : getPools(name, ds);
+    }
+
+    /**
+     * 一个数据源的所有连接池， 读写分离的数据源展开为主库和各个从库
+     *
+     * @param name 数据源名称
+     * @param ds   数据源， 不能是 LazyDataSource
+     * @return 连接池名称到连接池的映射
+     */
+    public static Map<String, HikariDataSource> getPools(String name, DataSource ds) {
+        Map<String, HikariDataSource> result = new LinkedHashMap<>();
+        if (ds instanceof ReadWriteDataSource) {
+            val rw = (ReadWriteDataSource) ds;
+            addPool(result, name, rw.getPrimary());
+            for (val replica : rw.getReplicas()) {
+                addPool(result, null, replica);
+            }
+        } else {
+            addPool(result, name, ds);
+        }
+        return result;
+    }
+
+    private static void addPool(Map<String, HikariDataSource> pools, String name, DataSource ds) {
+        if (ds instanceof HikariDataSource) {
+            val hikari = (HikariDataSource) ds;
+            pools.put(hikari.getPoolName() != null ? hikari.getPoolName() : name, hikari);
+        }
+    }
+
     public DatasourceManager(DataSourceProps props) {
         this.props = props;
         init();
@@ -0,0 +1,88 @@
+package com.winjeg.spring.sharding.core;
+
+import org.apache.ibatis.cursor.Cursor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 把已经在内存或者本地文件中的结果包装为 Cursor， 读完或者关闭的时候释放资源
+ *
+ * @author winjeg
+ */
+final class IteratorCursor<T> implements Cursor<T> {
+    private final Iterator<T> it;
+    private final Closeable resource;
+    private int index = -1;
+    private boolean iterated;
+    private boolean closed;
+
+    IteratorCursor(Iterator<T> it, Closeable resource) {
+        this.it = it;
+        this.resource = resource;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return iterated && !closed;
+    }
+
+    @Override
+    public boolean isConsumed() {
+        return iterated && closed;
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return index;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+        }
+        if (closed) {
+            throw new IllegalStateException("A Cursor is already closed.");
+        }
+        iterated = true;
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                if (closed) {
+                    return false;
+                }
+                if (!it.hasNext()) {
+                    close();
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                index++;
+                return it.next();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resource.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.winjeg.spring.sharding.core;
+
+import lombok.val;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSession;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/**
+ * 多个有序 Cursor 的多路归并， 堆中每个分片只保存当前一行， 内存占用与分片数成正比
+ * 跳过 offset 行之后最多返回 limit 行， 之后关闭所有分片以及 SqlSession； 某个分片读完的时候立即关闭它的 Cursor
+ * 排序键相同的时候按分片顺序返回， 结果是确定的
+ *
+ * @author winjeg
+ */
+final class MergedCursor<T> implements Cursor<T> {
+    private final List<Source> sources;
+    private final List<SqlSession> sessions;
+    private final PriorityQueue<Head<T>> heap;
+    private final Function<Object, Object> sortKey;
+    private final long limit;
+    private long skip;
+    private int index = -1;
+    private boolean iterated;
+    private boolean fetched;
+    private T current;
+    private boolean closed;
+
+    /**
+     * @param sources  各个分片打开的 Cursor， 按分片顺序
+     * @param sessions Cursor 所在的 SqlSession， 关闭的时候一起关闭
+     * @param sortKey 从一行结果读取排序键
+     * @param order   排序键的顺序
+     * @param offset  跳过的行数
+     * @param limit   最多返回的行数， 小于 0 则不限制
+     */
+    MergedCursor(List<Source> sources, List<SqlSession> sessions, Function<Object, Object> sortKey,
+                 Comparator<Object> order, long offset, long limit) {
+        this.sources = sources;
+        this.sessions = sessions;
+        this.sortKey = sortKey;
+        this.skip = offset;
+        this.limit = limit;
+        Comparator<Head<T>> byKey = (a, b) -> order.compare(a.key, b.key);
+        this.heap = new PriorityQueue<>(Math.max(1, sources.size()), byKey.thenComparingInt(h -> h.shard));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return iterated && !closed;
+    }
+
+    @Override
+    public boolean isConsumed() {
+        return closed && iterated;
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return index;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+        }
+        if (closed) {
+            throw new IllegalStateException("A Cursor is already closed.");
+        }
+        iterated = true;
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                if (!fetched) {
+                    fetched = fetch();
+                }
+                return fetched;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                fetched = false;
+                index++;
+                return current;
+            }
+        };
+    }
+
+    /**
+     * 取出下一行放到 current， 没有了或者已经满足 limit 的时候关闭并返回 false
+     */
+    private boolean fetch() {
+        if (closed) {
+            return false;
+        }
+        if (index < 0 && heap.isEmpty()) {
+            for (int i = 0; i < sources.size(); i++) {
+                advance(new Head<>(i, sources.get(i).iterator()));
+            }
+        }
+        while (!heap.isEmpty() && (limit < 0 || index + 1 < limit)) {
+            val head = heap.poll();
+            T row = head.row;
+            advance(head);
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            current = row;
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance(Head<T> head) {
+        if (head.it.hasNext()) {
+            head.row = (T) head.it.next();
+            head.key = sortKey.apply(head.row);
+            heap.add(head);
+        } else {
+            sources.get(head.shard).close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heap.clear();
+        RuntimeException error = null;
+        for (val s : sources) {
+            try {
+                s.close();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+        for (val session : sessions) {
+            try {
+                session.close();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 读取剩余结果到列表， 然后关闭
+     */
+    List<T> toList() {
+        List<T> result = new ArrayList<>(limit < 0 ? 16 : (int) Math.min(limit, 1024));
+        try {
+            for (T row : this) {
+                result.add(row);
+            }
+        } finally {
+            close();
+        }
+        return result;
+    }
+
+    private static final class Head<T> {
+        final int shard;
+        final Iterator<?> it;
+        T row;
+        Object key;
+
+        Head(int shard, Iterator<?> it) {
+            this.shard = shard;
+            this.it = it;
+        }
+    }
+
+    /**
+     * 一个分片上打开的 Cursor
+     */
+    static final class Source {
+        private final Cursor<?> cursor;
+        private boolean closed;
+
+        Source(Cursor<?> cursor) {
+            this.cursor = cursor;
+        }
+
+        Iterator<?> iterator() {
+            return cursor.iterator();
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                cursor.close();
+            } catch (Exception e) {
+                throw new IllegalStateException("failed to close cursor", e);
+            }
+        }
+    }
+}
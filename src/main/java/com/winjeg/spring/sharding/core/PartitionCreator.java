@@ -0,0 +1,106 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.route.RangeRouteRule;
+import com.winjeg.spring.sharding.route.Shard;
+import com.winjeg.spring.sharding.route.ShardingRule;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 按范围分区的表的创建， 例如按月分表的时候提前创建之后几个月的表
+ * ddl 中的 ${table} 替换为分区的表名， 需要使用 CREATE TABLE IF NOT EXISTS 之类可以重复执行的语句
+ *
+ * @author winjeg
+ */
+@Slf4j
+public class PartitionCreator {
+    private static final String TABLE_PLACEHOLDER = "${table}";
+    private final DatasourceManager datasourceManager;
+
+    public PartitionCreator(DatasourceManager datasourceManager) {
+        this.datasourceManager = datasourceManager;
+    }
+
+    /**
+     * 创建与 [from, to) 有交集的所有分区
+     *
+     * @param mapper 标记了 Sharding 的 mapper， 规则需要以 range: 开头
+     * @param from   起点(包含)
+     * @param to     终点(不包含)
+     * @param ddl    建表语句， ${table} 替换为表名
+     * @return 执行过的分区
+     */
+    public List<Shard> create(Class<?> mapper, long from, long to, String ddl) {
+        val shards = ShardingRule.of(mapper).shards(from, to);
+        for (val shard : shards) {
+            execute(shard, ddl);
+        }
+        return shards;
+    }
+
+    /**
+     * 从当前时间所在的分区开始创建 count 个分区， 可以定时执行
+     *
+     * @param mapper 标记了 Sharding 的 mapper， 规则需要以 range: 开头并且按时间分区
+     * @param count  分区数， 包括当前分区
+     * @param ddl    建表语句， ${table} 替换为表名
+     * @return 执行过的分区
+     * @throws IllegalStateException 没有按范围分区的规则， 或者按数值分区(没有"当前"分区， 使用指定起点的方法)
+     */
+    public List<Shard> createAhead(Class<?> mapper, int count, String ddl) {
+        val range = rangeRule(mapper);
+        if (!range.isTime()) {
+            throw new IllegalStateException(String.format("range rule %s of %s is numeric, "
+                    + "use createAhead(mapper, from, count, ddl) with the current max key", range.expression(),
+                    mapper.getCanonicalName()));
+        }
+        return createAhead(mapper, System.currentTimeMillis(), count, ddl);
+    }
+
+    /**
+     * 从 from 所在的分区开始创建 count 个分区， 按数值分区的时候 from 一般为当前最大的分片键
+     *
+     * @param mapper 标记了 Sharding 的 mapper， 规则需要以 range: 开头
+     * @param from   起点所在的分片键
+     * @param count  分区数， 包括 from 所在的分区
+     * @param ddl    建表语句， ${table} 替换为表名
+     * @return 执行过的分区
+     */
+    public List<Shard> createAhead(Class<?> mapper, long from, int count, String ddl) {
+        val range = rangeRule(mapper);
+        long start = range.floor(from);
+        long to = start;
+        for (int i = 0; i < count; i++) {
+            to = range.next(to);
+        }
+        return create(mapper, start, to, ddl);
+    }
+
+    private static RangeRouteRule rangeRule(Class<?> mapper) {
+        val rule = ShardingRule.of(mapper);
+        if (!rule.isRange()) {
+            throw new IllegalStateException("no range rule in " + mapper.getCanonicalName());
+        }
+        return rule.getRangeRule();
+    }
+
+    private void execute(Shard shard, String ddl) {
+        val ds = datasourceManager.get(shard.getDatasource());
+        if (ds == null) {
+            throw new IllegalStateException("datasource not found: " + shard.getDatasource());
+        }
+        val sql = shard.getTable() == null ? ddl : ddl.replace(TABLE_PLACEHOLDER, shard.getTable());
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            st.execute(sql);
+            log.info("partition created on {}: {}", shard.getDatasource(), shard.getTable());
+        } catch (SQLException e) {
+            throw new IllegalStateException("failed to create partition " + shard.getTable() + " on "
+                    + shard.getDatasource(), e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.metrics.ResultCacheMXBean;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cached 方法的查询结果缓存， 结构与 RouteCache 相同
+ * 以分片键为 hash 的开放寻址表， 同一个分片键的所有结果都在从 hash 位置开始的 WAYS 个槽位中，
+ * 删除一个分片键只需要扫描这 WAYS 个槽位； 槽位满了以后按 CLOCK 淘汰
+ * <p>
+ * 每个 hash 位置有一个版本号， 删除的时候加一， 查询前记下版本号， 写入缓存时版本号变了就放弃，
+ * 避免查询期间发生的修改被旧结果覆盖
+ * 读写都不加锁， 槽位中的 Entry 不可变； 与 RouteCache 不同， 槽位是 volatile 的， 删除之后其他线程一定读不到旧结果
+ *
+ * @author winjeg
+ */
+public final class ResultCache implements ResultCacheMXBean {
+    /**
+     * 未命中
+     */
+    public static final Object MISS = new Object();
+    private static final int WAYS = 8;
+
+    private final String mapper;
+    private final AtomicReferenceArray<Entry> entries;
+    private final boolean[] referenced;
+    private final AtomicIntegerArray versions;
+    private final int mask;
+    private int hand;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param mapper   mapper 名称， 用于统计
+     * @param capacity 容量， 向上取整为 2 的幂
+     */
+    public ResultCache(String mapper, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("result cache capacity should be positive: " + capacity);
+        }
+        int size = Math.max(WAYS, Integer.highestOneBit(Math.min(capacity, 1 << 30) - 1) << 1);
+        this.mapper = mapper;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.referenced = new boolean[size];
+        this.versions = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * 查找缓存的结果
+     *
+     * @param key     分片键
+     * @param ordinal 方法序号
+     * @param args    参数
+     * @param now     System.nanoTime()
+     * @return 未命中或者已过期返回 MISS
+     */
+    public Object get(long key, int ordinal, Object[] args, long now) {
+        int base = index(key);
+        for (int i = 0; i < WAYS; i++) {
+            int slot = (base + i) & mask;
+            Entry e = entries.get(slot);
+            if (e != null && e.key == key && e.ordinal == ordinal && now - e.expiresAt < 0
+                    && Arrays.equals(e.args, args)) {
+                if (!referenced[slot]) {
+                    referenced[slot] = true;
+                }
+                hits.increment();
+                return e.value;
+            }
+        }
+        misses.increment();
+        return MISS;
+    }
+
+    /**
+     * 查询之前调用， 结果传给 put
+     */
+    public int version(long key) {
+        return versions.get(index(key));
+    }
+
+    /**
+     * 缓存查询结果， 版本号变了(查询期间有修改)则不缓存
+     *
+     * @param version   查询之前 version 的返回值
+     * @param expiresAt 过期时间， System.nanoTime()
+     */
+    public void put(long key, int ordinal, Object[] args, Object value, long expiresAt, int version) {
+        int base = index(key);
+        if (versions.get(base) != version) {
+            return;
+        }
+        int victim = -1;
+        for (int i = 0; i < WAYS; i++) {
+            int slot = (base + i) & mask;
+            Entry e = entries.get(slot);
+            if (e == null || e.key == key && e.ordinal == ordinal && Arrays.equals(e.args, args)) {
+                victim = slot;
+                break;
+            }
+        }
+        if (victim < 0) {
+            victim = evict(base);
+            evictions.increment();
+        }
+        Entry entry = new Entry(key, ordinal, args, value, expiresAt);
+        referenced[victim] = false;
+        entries.set(victim, entry);
+        // 写入的同时发生了删除， 撤销刚写入的
+        if (versions.get(base) != version) {
+            entries.compareAndSet(victim, entry, null);
+        }
+    }
+
+    /**
+     * 删除一个分片键的所有结果
+     */
+    public void invalidate(long key) {
+        int base = index(key);
+        versions.incrementAndGet(base);
+        for (int i = 0; i < WAYS; i++) {
+            int slot = (base + i) & mask;
+            Entry e = entries.get(slot);
+            if (e != null && e.key == key) {
+                entries.compareAndSet(slot, e, null);
+            }
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * 在 base 开始的 WAYS 个槽位中转动时钟指针， 最多两圈一定能找到访问位为 0 的槽位
+     */
+    private int evict(int base) {
+        int start = hand++;
+        for (int i = 0; i < WAYS * 2; i++) {
+            int slot = (base + ((start + i) & (WAYS - 1))) & mask;
+            if (!referenced[slot]) {
+                return slot;
+            }
+            referenced[slot] = false;
+        }
+        return (base + (start & (WAYS - 1))) & mask;
+    }
+
+    private int index(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    @Override
+    public String getMapper() {
+        return mapper;
+    }
+
+    @Override
+    public int getCapacity() {
+        return entries.length();
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (int i = 0; i < entries.length(); i++) {
+            if (entries.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * 清空所有结果， 广播或者范围写入之后调用
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            versions.incrementAndGet(i);
+            entries.set(i, null);
+        }
+        invalidations.increment();
+    }
+
+    @Override
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        invalidations.reset();
+    }
+
+    /**
+     * 一次查询的结果
+     */
+    private static final class Entry {
+        final long key;
+        final int ordinal;
+        final Object[] args;
+        final Object value;
+        final long expiresAt;
+
+        Entry(long key, int ordinal, Object[] args, Object value, long expiresAt) {
+            this.key = key;
+            this.ordinal = ordinal;
+            this.args = args;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
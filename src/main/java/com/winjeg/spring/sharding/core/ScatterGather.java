@@ -0,0 +1,162 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.exec.ShardExecutor;
+import lombok.val;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 多个分片并行执行， 然后合并结果
+ * 任务交给 ShardExecutor 执行， 最后一个任务在调用线程上执行， 整体耗时取决于最慢的分片
+ *
+ * @author winjeg
+ */
+final class ScatterGather {
+    private ScatterGather() {
+    }
+
+    /**
+     * 并行执行所有任务
+     *
+     * @param executor    执行器
+     * @param datasources 每个任务访问的数据源， 用于并发上限控制
+     * @param tasks       任务列表
+     * @return 与任务顺序一致的结果
+     * @throws Throwable 任意一个任务的异常
+     */
+    static List<Object> execute(ShardExecutor executor, List<String> datasources,
+                                List<Callable<Object>> tasks) throws Throwable {
+        int n = tasks.size();
+        if (n == 1) {
+            return Collections.singletonList(executor.call(datasources.get(0), tasks.get(0)));
+        }
+        List<Future<Object>> futures = new ArrayList<>(n - 1);
+        for (int i = 0; i < n - 1; i++) {
+            futures.add(executor.submit(datasources.get(i), tasks.get(i)));
+        }
+        Object last;
+        try {
+            last = executor.call(datasources.get(n - 1), tasks.get(n - 1));
+        } catch (Throwable t) {
+            cancel(futures);
+            throw t;
+        }
+        List<Object> result = new ArrayList<>(n);
+        try {
+            for (val f : futures) {
+                result.add(f.get());
+            }
+        } catch (ExecutionException e) {
+            cancel(futures);
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        result.add(last);
+        return result;
+    }
+
+    /**
+     * 反射调用 mapper 方法， 并去掉反射的异常包装
+     */
+    static Object invoke(Method method, Object target, Object[] args) throws Exception {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            val cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * merge 是否支持这个返回类型， 创建代理的时候检查， 不支持的类型无法合并多个分片的结果
+     *
+     * @param returnType 方法返回类型
+     * @return 是否支持
+     */
+    static boolean isMergeable(Class<?> returnType) {
+        if (returnType == Object.class) {
+            return false;
+        }
+        return returnType == void.class || returnType == Void.class
+                || returnType.isAssignableFrom(ArrayList.class) || returnType.isAssignableFrom(LinkedHashSet.class)
+                || returnType.isAssignableFrom(LinkedHashMap.class)
+                || returnType == int.class || returnType == Integer.class
+                || returnType == long.class || returnType == Long.class;
+    }
+
+    /**
+     * 合并结果： List/Set 拼接， Map(例如 MapKey)合并， key 相同的时候后面的分片覆盖前面的， int/long 类型求和
+     * 其他类型由 isMergeable 在创建代理的时候拒绝
+     *
+     * @param returnType 方法返回类型
+     * @param results    各个分片的结果
+     * @return 合并结果
+     */
+    static Object merge(Class<?> returnType, List<Object> results) {
+        if (returnType == void.class || returnType == Void.class) {
+            return null;
+        }
+        if (returnType.isAssignableFrom(ArrayList.class)) {
+            List<Object> list = new ArrayList<>();
+            for (val r : results) {
+                if (r != null) {
+                    list.addAll((Collection<?>) r);
+                }
+            }
+            return list;
+        }
+        if (returnType.isAssignableFrom(LinkedHashSet.class)) {
+            Set<Object> set = new LinkedHashSet<>();
+            for (val r : results) {
+                if (r != null) {
+                    set.addAll((Collection<?>) r);
+                }
+            }
+            return set;
+        }
+        if (returnType.isAssignableFrom(LinkedHashMap.class)) {
+            Map<Object, Object> map = new LinkedHashMap<>();
+            for (val r : results) {
+                if (r != null) {
+                    map.putAll((Map<?, ?>) r);
+                }
+            }
+            return map;
+        }
+        if (returnType == int.class || returnType == Integer.class) {
+            int sum = 0;
+            for (val r : results) {
+                sum += r == null ? 0 : ((Number) r).intValue();
+            }
+            return sum;
+        }
+        if (returnType == long.class || returnType == Long.class) {
+            long sum = 0;
+            for (val r : results) {
+                sum += r == null ? 0 : ((Number) r).longValue();
+            }
+            return sum;
+        }
+        throw new IllegalArgumentException("can not merge results of type " + returnType.getName());
+    }
+
+    private static void cancel(List<Future<Object>> futures) {
+        for (val f : futures) {
+            f.cancel(true);
+        }
+    }
+}
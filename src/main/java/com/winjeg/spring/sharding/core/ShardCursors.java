@@ -0,0 +1,165 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.exec.ShardExecutor;
+import com.winjeg.spring.sharding.factories.DispatchTable;
+import com.winjeg.spring.sharding.route.Shard;
+import lombok.val;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.reflection.ParamNameResolver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * 在多个分片上用 Cursor 执行同一个 mapper 方法， 供需要流式读取的合并方式(排序归并、聚合)使用
+ * 每个数据源打开一个 SqlSession， 在上面为每个表 selectCursor， 数据源之间并行
+ * 所以每个数据源只占用一个连接， 同一个连接上会同时有多个未读完的结果集，
+ * MySQL 需要在连接上设置 useCursorFetch=true 并且给语句设置 fetchSize 才能流式读取
+ * SqlSession 由 mybatis-spring 创建， 在 Spring 事务中会使用事务的连接
+ * <p>
+ * 直接按语句执行而不是通过 mapper， 因为 SqlSessionTemplate 会在方法返回的时候关闭 Cursor
+ *
+ * @author winjeg
+ */
+final class ShardCursors {
+    private final String method;
+    private final SqlSessionFactory[] factories;
+    private final String[] statements;
+    private final ParamNameResolver[] resolvers;
+
+    ShardCursors(Method m, DispatchTable dispatch, int ordinal, SqlSessionFactoryManager sm) {
+        this.method = m.getDeclaringClass().getCanonicalName() + "." + m.getName();
+        int n = dispatch.shardCount();
+        this.factories = new SqlSessionFactory[n];
+        this.statements = new String[n];
+        this.resolvers = new ParamNameResolver[n];
+        for (int i = 0; i < n; i++) {
+            val target = dispatch.getShardMethod(i, ordinal);
+            factories[i] = sm.getSessionFactory(dispatch.getShardClass(i));
+            // 与 MapperMethod 一致， 语句属于各数据源的接口， 方法可能声明在它们共同的父接口上
+            statements[i] = dispatch.getShardClass(i).getName() + "." + target.getName();
+            resolvers[i] = new ParamNameResolver(factories[i].getConfiguration(), target);
+        }
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    Configuration getConfiguration() {
+        return factories[0].getConfiguration();
+    }
+
+    /**
+     * 一个分片上 MyBatis 的参数对象， 与 mapper 调用的时候一致
+     */
+    Object param(int datasourceIndex, Object[] args) {
+        return resolvers[datasourceIndex].getNamedParams(args);
+    }
+
+    /**
+     * 在所有分片上打开 Cursor， 交给 consumer 处理， consumer 在执行器的线程上调用
+     *
+     * @param executor    执行器
+     * @param shards      分片， 按分片顺序
+     * @param datasources 每个分片的数据源
+     * @param args        每个分片的参数(已经加上了表名)
+     * @param consumer    处理一个分片的 Cursor， 同一个数据源的分片按顺序处理
+     * @param keepOpen    是否保持 SqlSession 打开， 否则处理完一个数据源的所有分片之后立即关闭
+     * @return 保持打开的 SqlSession， 需要调用方关闭
+     * @throws Throwable 任意一个分片的异常， 已经打开的 SqlSession 会被关闭
+     */
+    List<SqlSession> open(ShardExecutor executor, List<Shard> shards, List<String> datasources, List<Object[]> args,
+                          CursorConsumer consumer, boolean keepOpen) throws Throwable {
+        // 按数据源分组， 每组一个任务
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            groups.computeIfAbsent(shards.get(i).getDatasourceIndex(), k -> new ArrayList<>()).add(i);
+        }
+        val opened = new Opened();
+        List<Callable<Object>> tasks = new ArrayList<>(groups.size());
+        List<String> groupDatasources = new ArrayList<>(groups.size());
+        for (val g : groups.entrySet()) {
+            int ds = g.getKey();
+            val positions = g.getValue();
+            tasks.add(() -> {
+                SqlSession session = opened.add(factories[ds].openSession());
+                try {
+                    for (int p : positions) {
+                        consumer.accept(p, session.selectCursor(statements[ds], param(ds, args.get(p))));
+                    }
+                } finally {
+                    if (!keepOpen) {
+                        opened.close(session);
+                    }
+                }
+                return null;
+            });
+            groupDatasources.add(datasources.get(positions.get(0)));
+        }
+        if (tasks.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            ScatterGather.execute(executor, groupDatasources, tasks);
+        } catch (Throwable t) {
+            opened.fail();
+            throw t;
+        }
+        return opened.sessions;
+    }
+
+    /**
+     * 处理一个分片的 Cursor
+     */
+    @FunctionalInterface
+    interface CursorConsumer {
+        /**
+         * @param position 分片在 shards 中的下标
+         * @param cursor   打开的 Cursor
+         */
+        void accept(int position, Cursor<Object> cursor) throws Exception;
+    }
+
+    /**
+     * 已经打开的 SqlSession， 出错之后才打开的直接关闭， 保证不会泄漏连接
+     * 关闭 SqlSession 的时候会关闭它上面的所有 Cursor
+     */
+    private static final class Opened {
+        private final List<SqlSession> sessions = new ArrayList<>();
+        private boolean failed;
+
+        synchronized SqlSession add(SqlSession session) {
+            if (failed) {
+                session.close();
+                throw new IllegalStateException("shard cursors already failed");
+            }
+            sessions.add(session);
+            return session;
+        }
+
+        synchronized void close(SqlSession session) {
+            if (sessions.remove(session)) {
+                session.close();
+            }
+        }
+
+        synchronized void fail() {
+            failed = true;
+            for (val s : sessions) {
+                try {
+                    s.close();
+                } catch (RuntimeException ignored) {
+                }
+            }
+            sessions.clear();
+        }
+    }
+}
@@ -1,130 +1,612 @@
 package com.winjeg.spring.sharding.core;
 
+import com.winjeg.spring.sharding.annos.Aggregate;
+import com.winjeg.spring.sharding.annos.Broadcast;
+import com.winjeg.spring.sharding.annos.Cached;
+import com.winjeg.spring.sharding.annos.RangeFrom;
+import com.winjeg.spring.sharding.annos.RangeTo;
 import com.winjeg.spring.sharding.annos.Sharding;
-import com.winjeg.spring.sharding.annos.ShardingKey;
+import com.winjeg.spring.sharding.annos.SortedMerge;
+import com.winjeg.spring.sharding.exec.CallerRunsShardExecutor;
+import com.winjeg.spring.sharding.exec.DatasourceLimiter;
+import com.winjeg.spring.sharding.exec.ShardExecutor;
 import com.winjeg.spring.sharding.factories.ClassManager;
-import com.winjeg.spring.sharding.utils.ExpressionUtil;
-import com.winjeg.spring.sharding.utils.NameUtils;
+import com.winjeg.spring.sharding.factories.DispatchTable;
+import com.winjeg.spring.sharding.metrics.HotKeyStats;
+import com.winjeg.spring.sharding.metrics.RoutingStats;
+import com.winjeg.spring.sharding.metrics.ShardingMetrics;
+import com.winjeg.spring.sharding.route.Shard;
+import com.winjeg.spring.sharding.route.ShardingRule;
+import com.winjeg.spring.sharding.utils.ClassScanUtils;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * 核心逻辑, 动态代理调用的时候实际做分库分表逻辑的地方
+ * 核心逻辑, 分发类调用的时候实际做分库分表逻辑的地方
+ * 生成的分发类直接调用 key/mapper/table 三个方法， 然后直接调用路由到的 mapper
+ * 同时保留 InvocationHandler 的实现， 作为通用的(反射)调用路径， 广播/批量/异步/范围查询方法都走这里
  *
  * @author winjeg
  */
 @Slf4j
 public class ShardingCoreHandler implements InvocationHandler {
+    /**
+     * 分片事务内的多分片调用在调用线程上串行执行， 保证加入事务
+     */
+    private static final ShardExecutor IN_TRANSACTION = new CallerRunsShardExecutor(new DatasourceLimiter(null));
     private final SqlSessionFactoryManager sessionFactoryManager;
     private final Sharding sharding;
     private final Class<?> clz;
-    private final ClassManager classManager;
+    private final ShardExecutor executor;
+    private final ShardingRule rule;
+    /**
+     * 按 (分片序号， 方法序号) 找到生成接口上的方法， 生成的分发类按序号访问
+     */
+    private final DispatchTable dispatch;
+    /**
+     * 下标即为方法序号
+     */
+    private final Method[] methods;
+    private final ShardingKeyAccessor[] keyAccessors;
+    /**
+     * 范围查询的起点和终点， 不是范围查询的方法为空
+     */
+    private final ShardingKeyAccessor[] rangeFrom;
+    private final ShardingKeyAccessor[] rangeTo;
+    /**
+     * 路由表， 下标为数据源在 Sharding.datasource() 中的下标， 值为已经创建好的 mapper
+     */
+    private final Object[] mappers;
+    private final String[] dsNames;
+    /**
+     * 广播方法在哪些分片上执行， 只有存在广播方法的时候才会计算
+     */
+    private List<Shard> allShards;
+    private final boolean[] broadcast;
+    private final boolean[] range;
+    private final boolean[] async;
+    /**
+     * 跨分片排序分页的执行计划， 没有 SortedMerge 的方法为空
+     */
+    private final SortedMergePlan[] sortedMerges;
+    /**
+     * 跨分片聚合的执行计划， 没有 Aggregate 的方法为空
+     */
+    private final AggregatePlan[] aggregates;
+    /**
+     * 每个方法的路由耗时统计， 为空则不统计
+     */
+    private final RoutingStats[] routingStats;
+    /**
+     * 热点分片键和各数据源负载的统计， 为空则不统计
+     */
+    private final HotKeyStats hotKeys;
+    /**
+     * Cached 方法的结果缓存， 没有 Cached 方法为空
+     */
+    private final ResultCache resultCache;
+    /**
+     * 每个方法缓存的过期时间(纳秒)， 0 为不缓存
+     */
+    private final long[] cacheTtl;
+    /**
+     * 存在结果缓存的时候， 哪些方法是写操作， 执行之后需要删除缓存
+     */
+    private final boolean[] writes;
 
     public ShardingCoreHandler(Sharding s, SqlSessionFactoryManager sm, Class<?> clz, ClassManager classManager) {
+        this(s, sm, clz, classManager, new CallerRunsShardExecutor(new DatasourceLimiter(null)), null);
+    }
+
+    public ShardingCoreHandler(Sharding s, SqlSessionFactoryManager sm, Class<?> clz, ClassManager classManager,
+                               ShardExecutor executor, ShardingMetrics metrics) {
+        this.executor = executor;
         this.sessionFactoryManager = sm;
         this.sharding = s;
         this.clz = clz;
-        this.classManager = classManager;
+        this.rule = ShardingRule.of(clz);
+        this.dsNames = rule.getDatasource();
+        this.dispatch = classManager.getDispatchTable(clz);
+        this.methods = dispatch.getMethods();
+        this.keyAccessors = new ShardingKeyAccessor[methods.length];
+        this.rangeFrom = new ShardingKeyAccessor[methods.length];
+        this.rangeTo = new ShardingKeyAccessor[methods.length];
+        this.broadcast = new boolean[methods.length];
+        this.range = new boolean[methods.length];
+        this.async = new boolean[methods.length];
+        this.sortedMerges = new SortedMergePlan[methods.length];
+        this.aggregates = new AggregatePlan[methods.length];
+        this.cacheTtl = new long[methods.length];
+        this.writes = new boolean[methods.length];
+        this.mappers = buildMappers();
+        this.routingStats = metrics == null ? null : new RoutingStats[methods.length];
+        this.hotKeys = metrics == null ? null : metrics.hotKeys(clz, dsNames);
+        if (metrics != null && rule.getRouteCache() != null) {
+            metrics.getRegistry().registerRouteCache(rule.getRouteCache());
+        }
+        for (int i = 0; i < methods.length; i++) {
+            val m = methods[i];
+            keyAccessors[i] = ShardingKeyAccessor.of(m, s.keyHash());
+            rangeFrom[i] = ShardingKeyAccessor.ofRange(m, RangeFrom.class);
+            rangeTo[i] = ShardingKeyAccessor.ofRange(m, RangeTo.class);
+            range[i] = rangeFrom[i] != null || rangeTo[i] != null;
+            if (range[i] && (rangeFrom[i] == null || rangeTo[i] == null || !rule.isRange()
+                    || m.isAnnotationPresent(Broadcast.class))) {
+                throw new IllegalArgumentException(String.format("range method %s.%s should have both @RangeFrom and "
+                        + "@RangeTo, no @Broadcast, and a range: rule", clz.getCanonicalName(), m.getName()));
+            }
+            if (range[i]) {
+                // 范围查询按边界路由， 忽略 ShardingKey
+                keyAccessors[i] = null;
+            } else if (m.isAnnotationPresent(Broadcast.class)) {
+                broadcast[i] = true;
+                if (allShards == null) {
+                    allShards = rule.shards();
+                }
+            } else if (keyAccessors[i] == null) {
+                throw new IllegalArgumentException(String.format("sharding key not found on method %s.%s",
+                        clz.getCanonicalName(), m.getName()));
+            }
+            async[i] = ClassScanUtils.isAsync(m);
+            if (async[i] && (broadcast[i] || range[i] || keyAccessors[i].isCollection())) {
+                throw new IllegalArgumentException(String.format("async method %s.%s should have a single sharding key",
+                        clz.getCanonicalName(), m.getName()));
+            }
+            val sorted = m.getAnnotation(SortedMerge.class);
+            val aggregate = m.getAnnotation(Aggregate.class);
+            if ((sorted != null || aggregate != null) && (!broadcast[i] && !range[i] || sorted != null && aggregate != null)) {
+                throw new IllegalArgumentException(String.format("@SortedMerge/@Aggregate method %s.%s should be "
+                        + "@Broadcast or a range query, and can not have both", clz.getCanonicalName(), m.getName()));
+            }
+            if (!broadcast[i] && !range[i] && keyAccessors[i].isCollection()) {
+                // 拆分后的子集合是 ArrayList 或者 LinkedHashSet， 其他声明类型(例如 TreeSet)无法传给分片的 mapper
+                val paramType = m.getParameterTypes()[keyAccessors[i].getParamIndex()];
+                if (!paramType.isAssignableFrom(ArrayList.class) && !paramType.isAssignableFrom(LinkedHashSet.class)) {
+                    throw new IllegalArgumentException(String.format("sharding key collection of %s.%s should be "
+                                    + "declared as Collection, List or Set, %s is not supported",
+                            clz.getCanonicalName(), m.getName(), paramType.getName()));
+                }
+            }
+            boolean multiShard = broadcast[i] || range[i] || keyAccessors[i].isCollection();
+            if (multiShard && sorted == null && aggregate == null && !ScatterGather.isMergeable(m.getReturnType())) {
+                throw new IllegalArgumentException(String.format("method %s.%s runs on multiple shards, return type %s "
+                                + "can not be merged, should be void, int, long, List, Set or Map",
+                        clz.getCanonicalName(), m.getName(), m.getReturnType().getName()));
+            }
+            if (sorted != null) {
+                sortedMerges[i] = new SortedMergePlan(sorted, m, dispatch, i, sm);
+            }
+            if (aggregate != null) {
+                aggregates[i] = new AggregatePlan(aggregate, m, dispatch, i, sm);
+            }
+            if (routingStats != null) {
+                routingStats[i] = metrics.routing(clz, m);
+            }
+            val cached = m.getAnnotation(Cached.class);
+            if (cached != null) {
+                if (broadcast[i] || range[i] || async[i] || keyAccessors[i].isCollection() || cached.ttl() <= 0) {
+                    throw new IllegalArgumentException(String.format("@Cached method %s.%s should have a single "
+                            + "sharding key, a positive ttl, and not be async", clz.getCanonicalName(), m.getName()));
+                }
+                cacheTtl[i] = cached.unit().toNanos(cached.ttl());
+            }
+        }
+        this.resultCache = buildResultCache(sm);
+        if (metrics != null && resultCache != null) {
+            metrics.getRegistry().registerResultCache(resultCache);
+        }
     }
 
     /**
-     * 从参数列表中获取 ShardingKey
+     * 存在 Cached 方法的时候创建结果缓存， 并按 MappedStatement 的类型找出写方法
+     */
+    private ResultCache buildResultCache(SqlSessionFactoryManager sm) {
+        boolean any = false;
+        for (val ttl : cacheTtl) {
+            any |= ttl > 0;
+        }
+        if (!any) {
+            return null;
+        }
+        val configuration = sm.getSessionFactory(dispatch.getShardClass(0)).getConfiguration();
+        for (int i = 0; i < methods.length; i++) {
+            val id = dispatch.getShardClass(0).getName() + "." + methods[i].getName();
+            if (configuration.hasStatement(id)) {
+                val type = configuration.getMappedStatement(id).getSqlCommandType();
+                writes[i] = type == SqlCommandType.INSERT || type == SqlCommandType.UPDATE
+                        || type == SqlCommandType.DELETE;
+            }
+        }
+        return new ResultCache(clz.getCanonicalName(), sharding.resultCacheSize());
+    }
+
+    private Object[] buildMappers() {
+        Object[] result = new Object[dispatch.shardCount()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sessionFactoryManager.getMapper(dispatch.getShardClass(i));
+        }
+        return result;
+    }
+
+    public Class<?> getMapperClass() {
+        return clz;
+    }
+
+    public Method[] getMethods() {
+        return methods;
+    }
+
+    public ShardingKeyAccessor[] getKeyAccessors() {
+        return keyAccessors;
+    }
+
+    public boolean isShardingTable() {
+        return rule.isShardingTable();
+    }
+
+    public DispatchTable getDispatchTable() {
+        return dispatch;
+    }
+
+    /**
+     * 方法是否可以由分发类直接调用， 否则走 invoke 的通用路径
+     *
+     * @param ordinal 方法序号
+     * @return 是否直接调用
+     */
+    public boolean isDirect(int ordinal) {
+        return !broadcast[ordinal] && !range[ordinal] && !async[ordinal] && !keyAccessors[ordinal].isCollection()
+                && !keyAccessors[ordinal].isMultiParam() && cacheTtl[ordinal] == 0 && !writes[ordinal];
+    }
+
+    /**
+     * 从参数中读取分表键， 由生成的分发类调用
      *
-     * @param method 被调用方法
-     * @param args   参数别聊
+     * @param ordinal 方法序号
+     * @param arg     标记了 ShardingKey 的参数
      * @return 分表键值
-     * @throws IllegalAccessException 非法访问字段
-     */
-    private static long getShardingKeyFromArgs(Method method, Object[] args) throws IllegalAccessException {
-        val params = method.getParameters();
-        int i = 0;
-        Object shardingKey = null;
-        for (val p : params) {
-            val methodAnnos = p.getAnnotations();
-            // 先从这个参数本身拿注解
-            for (val a : methodAnnos) {
-                if (a instanceof ShardingKey) {
-                    shardingKey = args[i];
-                    break;
-                }
-            }
-            if (shardingKey != null) {
-                break;
-            }
-            // 如果参数自身没有， 从参数的成员拿注解
-            val fields = p.getType().getDeclaredFields();
-            int j = 0;
-            for (val f : fields) {
-                val fieldAnnos = f.getAnnotations();
-                for (val a : fieldAnnos) {
-                    if (a instanceof ShardingKey) {
-                        f.setAccessible(true);
-                        shardingKey = f.get(args[i]);
-                        break;
-                    }
-                }
-                if (shardingKey != null) {
-                    break;
-                }
-                j++;
+     */
+    public long key(int ordinal, Object arg) {
+        return keyAccessors[ordinal].readFrom(arg);
+    }
+
+    /**
+     * 根据分表键找到对应数据源的 mapper， 由生成的分发类调用
+     *
+     * @param ordinal 方法序号
+     * @param key     分表键值
+     * @return 对应数据源生成接口的 mapper
+     */
+    public Object mapper(int ordinal, long key) {
+        return mappers[datasourceIndex(ordinal, key)];
+    }
+
+    /**
+     * 根据分表键计算表名， 由生成的分发类调用
+     *
+     * @param ordinal 方法序号
+     * @param key     分表键值
+     * @return 表名， 不分表返回 null
+     */
+    public String table(int ordinal, long key) {
+        val bound = BoundShard.current();
+        if (bound != null) {
+            return bound.table(rule, key);
+        }
+        if (routingStats == null || !routingStats[ordinal].sample()) {
+            return rule.table(key);
+        }
+        long start = System.nanoTime();
+        String table = rule.table(key);
+        routingStats[ordinal].recordTable(System.nanoTime() - start);
+        return table;
+    }
+
+    /**
+     * 清空路由耗时、热点分片键以及路由缓存， 预热之后调用， 预热的调用不计入运行指标
+     */
+    public void resetStats() {
+        if (routingStats != null) {
+            for (val stats : routingStats) {
+                stats.resetLatency();
             }
-            i++;
         }
-        if (shardingKey == null) {
-            throw new RuntimeException("sharding key should not be null");
+        if (hotKeys != null) {
+            hotKeys.reset();
+        }
+        if (rule.getRouteCache() != null) {
+            rule.getRouteCache().clear();
+        }
+    }
+
+    private int datasourceIndex(int ordinal, long key) {
+        int idx = route(ordinal, key);
+        if (hotKeys != null) {
+            hotKeys.record(key, idx);
+        }
+        return idx;
+    }
+
+    private int route(int ordinal, long key) {
+        val bound = BoundShard.current();
+        if (bound != null) {
+            return bound.datasourceIndex(rule, key);
+        }
+        if (routingStats == null || !routingStats[ordinal].sample()) {
+            return rule.datasourceIndex(key);
         }
-        return (Long) shardingKey;
+        long start = System.nanoTime();
+        int idx = rule.datasourceIndex(key);
+        routingStats[ordinal].recordDatasource(System.nanoTime() - start);
+        return idx;
     }
 
     /**
-     * 核心调用逻辑， 计算数据源，分库分表逻辑等
-     * 根据规则计算出数据源，找到对应mapper， 然后调用对应mapper的对应方法
+     * 通用调用逻辑， 计算数据源，分库分表逻辑等
+     * 根据规则计算出数据源，找到对应mapper， 然后反射调用对应mapper的对应方法
      *
      * @param proxy  the proxy instance that the method was invoked on
      * @param method the {@code Method} instance corresponding to
-     *               the interface method invoked on the proxy instance.  The declaring
-     *               class of the {@code Method} object will be the interface that
-     *               the method was declared in, which may be a superinterface of the
-     *               proxy interface that the proxy class inherits the method through.
+     *               the interface method invoked on the proxy instance.
      * @param args   an array of objects containing the values of the
      *               arguments passed in the method invocation on the proxy instance,
      *               or {@code null} if interface method takes no arguments.
-     *               Arguments of primitive types are wrapped in instances of the
-     *               appropriate primitive wrapper class, such as
-     *               {@code java.lang.Integer} or {@code java.lang.Boolean}.
-     * @return
-     * @throws Throwable
+     * @return 调用结果
+     * @throws Throwable 调用异常
      */
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        long shardingKeyVal = getShardingKeyFromArgs(method, args);
-        String dsName = sharding.datasource()[0];
-        if (sharding.dbRule().length() > 0) {
-            dsName = ExpressionUtil.eval(sharding.dbRule(), sharding.shardingKey(), shardingKeyVal);
-        }
-        String className = NameUtils.buildClassName(dsName, clz.getCanonicalName());
-        val mapperClass = classManager.getClass(dsName, className);
-        val mapper = sessionFactoryManager.getMapper(mapperClass);
-        if (sharding.tableRule().length() > 0) {
-            String tableName = ExpressionUtil.eval(sharding.tableRule(), sharding.shardingKey(), shardingKeyVal);
-            val builtArgs = buildArgs(args, tableName);
-            Method targetMethod = classManager.getMethod(dsName, className, method.getName());
-            return targetMethod.invoke(mapper, builtArgs);
-        } else if (sharding.dbRule().length() > 0) {
-            Method targetMethod = classManager.getMethod(dsName, className, method.getName());
-            return targetMethod.invoke(mapper, args);
-        }
-        return null;
+        int ordinal = dispatch.ordinal(method);
+        if (ordinal < 0) {
+            throw new IllegalStateException(String.format("method %s is not dispatched by the sharding mapper %s",
+                    method, clz.getCanonicalName()));
+        }
+        if (broadcast[ordinal] || range[ordinal] || keyAccessors[ordinal].isCollection()) {
+            if (!writes[ordinal]) {
+                return multi(ordinal, args);
+            }
+            try {
+                return multi(ordinal, args);
+            } finally {
+                invalidateMulti(ordinal, args);
+            }
+        }
+        long shardingKeyVal = keyAccessors[ordinal].read(args);
+        if (async[ordinal]) {
+            val future = async(ordinal, shardingKeyVal, args);
+            return writes[ordinal] ? future.whenComplete((r, e) -> invalidate(shardingKeyVal)) : future;
+        }
+        if (cacheTtl[ordinal] > 0) {
+            return cached(ordinal, shardingKeyVal, args);
+        }
+        if (writes[ordinal]) {
+            try {
+                return call(ordinal, shardingKeyVal, args);
+            } finally {
+                invalidate(shardingKeyVal);
+            }
+        }
+        return call(ordinal, shardingKeyVal, args);
+    }
+
+    private Object call(int ordinal, long key, Object[] args) throws Throwable {
+        int dsIdx = datasourceIndex(ordinal, key);
+        val target = dispatch.getShardMethod(dsIdx, ordinal);
+        if (rule.isShardingTable()) {
+            return ScatterGather.invoke(target, mappers[dsIdx], buildArgs(args, table(ordinal, key)));
+        }
+        return ScatterGather.invoke(target, mappers[dsIdx], args);
+    }
+
+    /**
+     * 先查结果缓存， 没有命中再执行并缓存； 事务中可能读到未提交的数据， 不读也不写缓存
+     */
+    private Object cached(int ordinal, long key, Object[] args) throws Throwable {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return call(ordinal, key, args);
+        }
+        long now = System.nanoTime();
+        Object value = resultCache.get(key, ordinal, args, now);
+        if (value != ResultCache.MISS) {
+            return value;
+        }
+        int version = resultCache.version(key);
+        Object result = call(ordinal, key, args);
+        resultCache.put(key, ordinal, args == null ? null : args.clone(), result, now + cacheTtl[ordinal], version);
+        return result;
+    }
+
+    /**
+     * 写操作之后删除分片键的缓存， 在事务中的时候事务结束后再删除一次， 避免提交之前被其他线程读到旧数据并缓存
+     */
+    private void invalidate(long key) {
+        resultCache.invalidate(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    resultCache.invalidate(key);
+                }
+            });
+        }
+    }
+
+    private Object multi(int ordinal, Object[] args) throws Throwable {
+        if (broadcast[ordinal]) {
+            return broadcast(ordinal, args);
+        }
+        if (range[ordinal]) {
+            return range(ordinal, args);
+        }
+        return partition(ordinal, args);
+    }
+
+    /**
+     * 批量写入之后删除每个分片键的缓存， 广播或者范围写入之后清空缓存
+     */
+    private void invalidateMulti(int ordinal, Object[] args) {
+        if (broadcast[ordinal] || range[ordinal]) {
+            invalidateAll();
+            return;
+        }
+        val accessor = keyAccessors[ordinal];
+        val collection = (Collection<?>) args[accessor.getParamIndex()];
+        if (collection != null) {
+            for (val e : collection) {
+                invalidate(accessor.readFrom(e));
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        resultCache.clear();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    resultCache.clear();
+                }
+            });
+        }
+    }
+
+    /**
+     * 在调用线程上完成路由， 然后把数据库访问交给路由到的数据源的执行器
+     * 注意： 异步执行不会加入调用线程上的事务
+     */
+    private CompletableFuture<Object> async(int ordinal, long key, Object[] args) {
+        int dsIdx = datasourceIndex(ordinal, key);
+        val mapper = mappers[dsIdx];
+        val target = dispatch.getShardMethod(dsIdx, ordinal);
+        val builtArgs = rule.isShardingTable() ? buildArgs(args, table(ordinal, key)) : args;
+        return executor.async(dsNames[dsIdx], () -> ScatterGather.invoke(target, mapper, builtArgs));
+    }
+
+    /**
+     * 在所有分片上并行执行， 然后合并结果
+     */
+    private Object broadcast(int ordinal, Object[] args) throws Throwable {
+        if (sortedMerges[ordinal] != null || aggregates[ordinal] != null) {
+            return streamed(ordinal, allShards, args);
+        }
+        List<Callable<Object>> tasks = new ArrayList<>(allShards.size());
+        List<String> datasources = new ArrayList<>(allShards.size());
+        for (val shard : allShards) {
+            val mapper = mappers[shard.getDatasourceIndex()];
+            val target = dispatch.getShardMethod(shard.getDatasourceIndex(), ordinal);
+            val shardArgs = rule.isShardingTable() ? buildArgs(args, shard.getTable()) : args;
+            tasks.add(() -> ScatterGather.invoke(target, mapper, shardArgs));
+            datasources.add(shard.getDatasource());
+        }
+        return ScatterGather.merge(methods[ordinal].getReturnType(), ScatterGather.execute(executor(datasources), datasources, tasks));
+    }
+
+    /**
+     * 只在与 [from, to) 有交集的分区上并行执行， 结果按分区顺序合并
+     */
+    private Object range(int ordinal, Object[] args) throws Throwable {
+        val shards = rule.shards(rangeFrom[ordinal].read(args), rangeTo[ordinal].read(args));
+        if (sortedMerges[ordinal] != null || aggregates[ordinal] != null) {
+            return streamed(ordinal, shards, args);
+        }
+        if (shards.isEmpty()) {
+            return ScatterGather.merge(methods[ordinal].getReturnType(), Collections.emptyList());
+        }
+        List<Callable<Object>> tasks = new ArrayList<>(shards.size());
+        List<String> datasources = new ArrayList<>(shards.size());
+        for (val shard : shards) {
+            val mapper = mappers[shard.getDatasourceIndex()];
+            val target = dispatch.getShardMethod(shard.getDatasourceIndex(), ordinal);
+            val shardArgs = rule.isShardingTable() ? buildArgs(args, shard.getTable()) : args;
+            tasks.add(() -> ScatterGather.invoke(target, mapper, shardArgs));
+            datasources.add(shard.getDatasource());
+        }
+        return ScatterGather.merge(methods[ordinal].getReturnType(), ScatterGather.execute(executor(datasources), datasources, tasks));
+    }
+
+    /**
+     * 每个分片打开 Cursor， 按 SortedMerge 声明的顺序归并， 或者按 Aggregate 声明的方式聚合
+     */
+    private Object streamed(int ordinal, List<Shard> shards, Object[] args) throws Throwable {
+        List<Object[]> shardArgs = new ArrayList<>(shards.size());
+        List<String> datasources = new ArrayList<>(shards.size());
+        for (val shard : shards) {
+            shardArgs.add(rule.isShardingTable() ? buildArgs(args, shard.getTable()) : args);
+            datasources.add(shard.getDatasource());
+        }
+        val exec = executor(datasources);
+        if (aggregates[ordinal] != null) {
+            return aggregates[ordinal].execute(exec, shards, datasources, shardArgs);
+        }
+        return sortedMerges[ordinal].execute(exec, shards, datasources, shardArgs);
+    }
+
+    /**
+     * 集合参数按照每个元素路由到的分片拆分， 每个分片只收到属于自己的子集合， 并行执行后合并结果
+     * 批量写入时每个分片执行一次多行语句(由 xml 中的 foreach 决定)， 返回值为影响行数之和
+     * IN 查询时每个分片只查询属于自己的 key， 每个分片最多一次调用， 结果拼接为一个列表
+     */
+    private Object partition(int ordinal, Object[] args) throws Throwable {
+        val accessor = keyAccessors[ordinal];
+        val idx = accessor.getParamIndex();
+        val collection = (Collection<?>) args[idx];
+        val returnType = methods[ordinal].getReturnType();
+        if (collection == null || collection.isEmpty()) {
+            return ScatterGather.merge(returnType, Collections.emptyList());
+        }
+        Map<Shard, List<Object>> groups = new LinkedHashMap<>();
+        for (val e : collection) {
+            long key = accessor.readFrom(e);
+            int dsIdx = datasourceIndex(ordinal, key);
+            groups.computeIfAbsent(new Shard(dsIdx, null, table(ordinal, key)), k -> new ArrayList<>()).add(e);
+        }
+        val paramType = methods[ordinal].getParameterTypes()[idx];
+        List<Callable<Object>> tasks = new ArrayList<>(groups.size());
+        List<String> datasources = new ArrayList<>(groups.size());
+        for (val entry : groups.entrySet()) {
+            val shard = entry.getKey();
+            val mapper = mappers[shard.getDatasourceIndex()];
+            val target = dispatch.getShardMethod(shard.getDatasourceIndex(), ordinal);
+            Object[] shardArgs = args.clone();
+            shardArgs[idx] = paramType.isAssignableFrom(ArrayList.class)
+                    ? entry.getValue() : new LinkedHashSet<>(entry.getValue());
+            val builtArgs = rule.isShardingTable() ? buildArgs(shardArgs, shard.getTable()) : shardArgs;
+            tasks.add(() -> ScatterGather.invoke(target, mapper, builtArgs));
+            datasources.add(dsNames[shard.getDatasourceIndex()]);
+        }
+        return ScatterGather.merge(returnType, ScatterGather.execute(executor(datasources), datasources, tasks));
+    }
+
+    /**
+     * 分片事务内所有分片都需要在绑定的数据源上， 并且在调用线程上执行
+     */
+    private ShardExecutor executor(List<String> datasources) {
+        val bound = BoundShard.current();
+        if (bound == null) {
+            return executor;
+        }
+        for (val ds : datasources) {
+            bound.check(ds);
+        }
+        return IN_TRANSACTION;
     }
 
     private Object[] buildArgs(Object[] args, String tableName) {
-        Object[] result = new Object[args.length + 1];
+        int length = args == null ? 0 : args.length;
+        Object[] result = new Object[length + 1];
         result[0] = tableName;
-        System.arraycopy(args, 0, result, 1, args.length);
+        if (length > 0) {
+            System.arraycopy(args, 0, result, 1, length);
+        }
         return result;
     }
 }
-
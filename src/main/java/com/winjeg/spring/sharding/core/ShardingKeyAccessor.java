@@ -0,0 +1,464 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.annos.ShardingKey;
+import com.winjeg.spring.sharding.route.KeyHash;
+import lombok.val;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.UUID;
+
+/**
+ * 预编译的分表键读取计划， 每个 mapper 方法在创建代理的时候生成一次
+ * 运行时只需要一次数组读取，加上（可选的）MethodHandle 字段读取
+ * 支持 int/Integer/long/Long 类型的 shardingKey， 也支持嵌套对象里的属性， Date/Instant 按毫秒时间戳读取
+ * String/UUID 类型的 shardingKey 以及多个 ShardingKey 组成的组合键按 Sharding.keyHash 转换为非负的 long
+ * 集合参数则从每个元素上读取， 用于按分片拆分批量操作以及 IN 查询
+ *
+ * @author winjeg
+ */
+public final class ShardingKeyAccessor {
+    private static final int MAX_DEPTH = 4;
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType TO_OBJECT = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType TO_LONG = MethodType.methodType(long.class, Object.class);
+    private static final MethodHandle MILLIS;
+
+    static {
+        try {
+            MILLIS = LOOKUP.findStatic(ShardingKeyAccessor.class, "toLong", TO_LONG);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int paramIndex;
+    /**
+     * 中间层对象的读取， 为空则说明 key 在参数对象的直接成员上
+     */
+    private final MethodHandle[] path;
+    /**
+     * 最终 key 的读取， 为空则说明参数本身就是 key
+     */
+    private final MethodHandle reader;
+    /**
+     * key 不是整数的时候使用的 hash 算法， 整数 key 为空
+     */
+    private final KeyHash hash;
+    /**
+     * 组合键的各个成员， 单个 key 为空
+     */
+    private final ShardingKeyAccessor[] components;
+    private final String description;
+    /**
+     * 参数是集合， key 在集合的每个元素上
+     */
+    private final boolean collection;
+
+    private ShardingKeyAccessor(int paramIndex, MethodHandle[] path, MethodHandle reader, KeyHash hash,
+                                ShardingKeyAccessor[] components, String description, boolean collection) {
+        this.paramIndex = paramIndex;
+        this.path = path;
+        this.reader = reader;
+        this.hash = hash;
+        this.components = components;
+        this.description = description;
+        this.collection = collection;
+    }
+
+    public int getParamIndex() {
+        return paramIndex;
+    }
+
+    /**
+     * 参数本身是否就是 shardingKey
+     */
+    public boolean isDirect() {
+        return reader == null && components == null;
+    }
+
+    /**
+     * 参数是否为集合， 集合的时候需要用 readFrom 逐个读取元素的 shardingKey
+     */
+    public boolean isCollection() {
+        return collection;
+    }
+
+    /**
+     * 组合键的成员是否分布在多个参数上， 这时只能用 read 读取
+     */
+    public boolean isMultiParam() {
+        return components != null && components[0].paramIndex >= 0;
+    }
+
+    /**
+     * 从参数列表中读取 shardingKey
+     *
+     * @param args 方法参数
+     * @return 分表键值
+     */
+    public long read(Object[] args) {
+        if (isMultiParam()) {
+            long h = 0;
+            for (val c : components) {
+                h = KeyHash.combine(h, c.componentHash(args[c.paramIndex]));
+            }
+            return KeyHash.toKey(KeyHash.finish(h));
+        }
+        return readFrom(args[paramIndex]);
+    }
+
+    /**
+     * 从对应位置的参数(集合的时候为集合的元素)中读取 shardingKey
+     *
+     * @param arg 标记了(或者成员标记了) ShardingKey 的参数
+     * @return 分表键值
+     */
+    public long readFrom(Object arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("sharding key should not be null: " + description);
+        }
+        if (components != null) {
+            long h = 0;
+            for (val c : components) {
+                h = KeyHash.combine(h, c.componentHash(arg));
+            }
+            return KeyHash.toKey(KeyHash.finish(h));
+        }
+        if (reader == null) {
+            return hash == null ? toLong(arg) : KeyHash.toKey(hash.hashKey(arg));
+        }
+        try {
+            Object target = resolve(arg);
+            if (hash == null) {
+                return (long) reader.invokeExact(target);
+            }
+            return KeyHash.toKey(hash.hashKey(notNull((Object) reader.invokeExact(target))));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to read sharding key: " + description, t);
+        }
+    }
+
+    /**
+     * 组合键的一个成员的 hash， 整数成员同样按 hash 算法计算
+     */
+    private long componentHash(Object arg) {
+        try {
+            Object value = reader == null ? arg : (Object) reader.invokeExact(resolve(notNull(arg)));
+            return hash.hashKey(notNull(value));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("failed to read sharding key: " + description, t);
+        }
+    }
+
+    /**
+     * 单个分片键的值转换为路由用的 long， 与 ShardingKey 标记在参数上的时候结果一致
+     *
+     * @param key  int/long/Date/Instant/String/UUID
+     * @param hash 非整数使用的 hash 算法
+     * @return 分表键值
+     */
+    public static long keyOf(Object key, KeyHash hash) {
+        if (key == null) {
+            throw new IllegalArgumentException("sharding key should not be null");
+        }
+        if (key instanceof Number || key instanceof Date || key instanceof Instant) {
+            return toLong(key);
+        }
+        return KeyHash.toKey(hash.hashKey(key));
+    }
+
+    /**
+     * 整数或者时间(毫秒时间戳)转换为 long
+     */
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return ((Instant) value).toEpochMilli();
+    }
+
+    private Object resolve(Object arg) throws Throwable {
+        Object target = arg;
+        if (path != null) {
+            for (val h : path) {
+                target = notNull((Object) h.invokeExact(target));
+            }
+        }
+        return target;
+    }
+
+    private Object notNull(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("sharding key should not be null: " + description);
+        }
+        return value;
+    }
+
+    /**
+     * 为方法生成分表键的读取计划， 非整数的 key 使用 MURMUR3
+     *
+     * @param method mapper 方法
+     * @return 读取计划， 如果方法里没有 ShardingKey 返回 null
+     */
+    public static ShardingKeyAccessor of(Method method) {
+        return of(method, KeyHash.MURMUR3);
+    }
+
+    /**
+     * 为方法生成分表键的读取计划
+     * 多个参数标记了 ShardingKey， 或者参数对象的同一层有多个成员标记了 ShardingKey 的时候， 按声明顺序组成组合键
+     *
+     * @param method mapper 方法
+     * @param hash   String/UUID/组合键使用的 hash 算法
+     * @return 读取计划， 如果方法里没有 ShardingKey 返回 null
+     */
+    public static ShardingKeyAccessor of(Method method, KeyHash hash) {
+        return of(method, hash, ShardingKey.class);
+    }
+
+    /**
+     * 为方法生成范围查询边界的读取计划， 例如 RangeFrom/RangeTo
+     *
+     * @param method mapper 方法
+     * @param marker 标记边界的注解
+     * @return 读取计划， 如果方法里没有标记返回 null
+     * @throws IllegalArgumentException 边界不是单个的整数或者时间
+     */
+    public static ShardingKeyAccessor ofRange(Method method, Class<? extends Annotation> marker) {
+        val accessor = of(method, KeyHash.MURMUR3, marker);
+        if (accessor != null && (accessor.hash != null || accessor.components != null || accessor.collection)) {
+            throw new IllegalArgumentException(String.format("@%s should be a single int, long, Date or Instant: %s",
+                    marker.getSimpleName(), accessor.description));
+        }
+        return accessor;
+    }
+
+    private static ShardingKeyAccessor of(Method method, KeyHash hash, Class<? extends Annotation> marker) {
+        val params = method.getParameters();
+        List<Integer> annotated = new ArrayList<>();
+        for (int i = 0; i < params.length; i++) {
+            if (params[i].isAnnotationPresent(marker)) {
+                annotated.add(i);
+            }
+        }
+        if (annotated.size() > 1) {
+            val desc = method.getName() + "#" + annotated;
+            ShardingKeyAccessor[] components = new ShardingKeyAccessor[annotated.size()];
+            for (int k = 0; k < components.length; k++) {
+                val p = params[annotated.get(k)];
+                val d = method.getName() + "#" + p.getName();
+                if (Collection.class.isAssignableFrom(p.getType())) {
+                    throw new IllegalArgumentException("composite sharding key should not be a collection: " + d);
+                }
+                checkKeyType(p.getType(), d);
+                components[k] = new ShardingKeyAccessor(annotated.get(k), null, null, hash, null, d, false);
+            }
+            return new ShardingKeyAccessor(annotated.get(0), null, null, hash, components, desc, false);
+        }
+        if (annotated.size() == 1) {
+            int i = annotated.get(0);
+            val desc = method.getName() + "#" + params[i].getName();
+            // 标记在 key 的集合上， 例如 selectByIds(@ShardingKey List<Long> ids)
+            val collection = Collection.class.isAssignableFrom(params[i].getType());
+            Class<?> keyType = params[i].getType();
+            if (collection) {
+                keyType = elementType(params[i]);
+                if (keyType == null) {
+                    throw new IllegalArgumentException("element type of sharding key collection is unknown: " + desc);
+                }
+            }
+            checkKeyType(keyType, desc);
+            return new ShardingKeyAccessor(i, null, null, isLong(keyType) ? null : hash, null, desc, collection);
+        }
+        // 如果参数自身没有， 从参数的成员（包括嵌套成员）拿注解， 集合参数从元素类型上拿
+        for (int i = 0; i < params.length; i++) {
+            val chain = new ArrayList<Field>();
+            val keys = new ArrayList<Field>();
+            val elementType = elementType(params[i]);
+            val type = elementType != null ? elementType : params[i].getType();
+            if (findKeyFields(type, marker, chain, keys, 0)) {
+                return compile(i, chain, keys, method.getName() + "#" + params[i].getName(), elementType != null, hash);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 集合参数的元素类型
+     *
+     * @return 不是集合或者无法确定元素类型返回 null
+     */
+    private static Class<?> elementType(Parameter p) {
+        if (!Collection.class.isAssignableFrom(p.getType())) {
+            return null;
+        }
+        Type type = p.getParameterizedType();
+        if (!(type instanceof ParameterizedType)) {
+            return null;
+        }
+        Type arg = ((ParameterizedType) type).getActualTypeArguments()[0];
+        if (arg instanceof WildcardType) {
+            arg = ((WildcardType) arg).getUpperBounds()[0];
+        }
+        return arg instanceof Class ? (Class<?>) arg : null;
+    }
+
+    /**
+     * 找到第一层标记了 marker 的成员
+     *
+     * @param chain 到这一层经过的成员
+     * @param keys  这一层所有标记了 marker 的成员
+     */
+    private static boolean findKeyFields(Class<?> type, Class<? extends Annotation> marker, List<Field> chain,
+                                         List<Field> keys, int depth) {
+        if (depth >= MAX_DEPTH || !isPojo(type)) {
+            return false;
+        }
+        val fields = allFields(type);
+        for (val f : fields) {
+            if (f.isAnnotationPresent(marker)) {
+                keys.add(f);
+            }
+        }
+        if (!keys.isEmpty()) {
+            return true;
+        }
+        for (val f : fields) {
+            if (isPojo(f.getType()) && f.getType() != type) {
+                chain.add(f);
+                if (findKeyFields(f.getType(), marker, chain, keys, depth + 1)) {
+                    return true;
+                }
+                chain.remove(chain.size() - 1);
+            }
+        }
+        return false;
+    }
+
+    private static ShardingKeyAccessor compile(int paramIndex, List<Field> chain, List<Field> keys, String prefix,
+                                               boolean collection, KeyHash hash) {
+        StringBuilder desc = new StringBuilder(prefix);
+        MethodHandle[] path = new MethodHandle[chain.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = getter(chain.get(i)).asType(TO_OBJECT);
+            desc.append('.').append(chain.get(i).getName());
+        }
+        if (keys.size() > 1) {
+            ShardingKeyAccessor[] components = new ShardingKeyAccessor[keys.size()];
+            for (int k = 0; k < components.length; k++) {
+                val f = keys.get(k);
+                val d = desc + "." + f.getName();
+                checkKeyType(f.getType(), d);
+                // 成员的 path 相对于参数对象， 参数下标为 -1 表示从同一个对象读取
+                components[k] = new ShardingKeyAccessor(-1, path, getter(f).asType(TO_OBJECT), hash, null, d, false);
+            }
+            StringJoiner names = new StringJoiner(",", desc + ".[", "]");
+            keys.forEach(f -> names.add(f.getName()));
+            return new ShardingKeyAccessor(paramIndex, null, null, hash, components, names.toString(), collection);
+        }
+        val keyField = keys.get(0);
+        desc.append('.').append(keyField.getName());
+        checkKeyType(keyField.getType(), desc.toString());
+        MethodHandle reader = getter(keyField);
+        if (isTemporal(keyField.getType())) {
+            reader = MethodHandles.filterReturnValue(reader.asType(reader.type().changeReturnType(Object.class)), MILLIS);
+            return new ShardingKeyAccessor(paramIndex, path, reader.asType(TO_LONG), null, null, desc.toString(), collection);
+        }
+        if (!isNumeric(keyField.getType())) {
+            return new ShardingKeyAccessor(paramIndex, path, reader.asType(TO_OBJECT), hash, null, desc.toString(), collection);
+        }
+        if (!keyField.getType().isPrimitive()) {
+            // Integer/Long 先拆箱为自身对应的基本类型， 再统一放宽到 long
+            Class<?> primitive = keyField.getType() == Integer.class ? int.class : long.class;
+            reader = reader.asType(reader.type().changeReturnType(primitive));
+        }
+        return new ShardingKeyAccessor(paramIndex, path, reader.asType(TO_LONG), null, null, desc.toString(), collection);
+    }
+
+    /**
+     * 优先使用 public getter， 没有则直接读取字段
+     */
+    private static MethodHandle getter(Field f) {
+        val name = f.getName();
+        val suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (val prefix : new String[]{"get", "is"}) {
+            try {
+                Method m = f.getDeclaringClass().getMethod(prefix + suffix);
+                if (m.getReturnType() == f.getType() && !Modifier.isStatic(m.getModifiers())) {
+                    return LOOKUP.unreflect(m);
+                }
+            } catch (NoSuchMethodException | IllegalAccessException ignored) {
+            }
+        }
+        try {
+            f.setAccessible(true);
+            return LOOKUP.unreflectGetter(f);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("sharding key field is not accessible: " + f, e);
+        }
+    }
+
+    private static void checkKeyType(Class<?> type, String desc) {
+        if (!isLong(type) && type != String.class && type != UUID.class) {
+            throw new IllegalArgumentException("sharding key should be int, long, Date, Instant, String or UUID: " + desc);
+        }
+    }
+
+    /**
+     * 不需要 hash， 直接转换为 long 的类型
+     */
+    private static boolean isLong(Class<?> type) {
+        return isNumeric(type) || isTemporal(type);
+    }
+
+    private static boolean isTemporal(Class<?> type) {
+        return Date.class.isAssignableFrom(type) || type == Instant.class;
+    }
+
+    private static boolean isNumeric(Class<?> type) {
+        return type == long.class || type == Long.class || type == int.class || type == Integer.class;
+    }
+
+    private static boolean isPojo(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isEnum()) {
+            return false;
+        }
+        val name = type.getName();
+        return !name.startsWith("java.") && !name.startsWith("javax.");
+    }
+
+    private static List<Field> allFields(Class<?> type) {
+        List<Field> result = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (val f : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(f.getModifiers()) && !f.isSynthetic()) {
+                    result.add(f);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -1,23 +1,26 @@
 package com.winjeg.spring.sharding.core;
 
-import com.winjeg.spring.sharding.annos.Sharding;
-import com.winjeg.spring.sharding.utils.ExpressionUtil;
-import com.winjeg.spring.sharding.utils.ResourceUtil;
+import com.winjeg.spring.sharding.route.RouteRule;
+import com.winjeg.spring.sharding.route.ShardingRule;
+import lombok.val;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 分库分表情况下事务管理器
- * 有三种方法获取事务管理器
+ * 有三种方法获取事务管理器， 也可以用 execute 在一个分片上执行事务
  *
  * @author winjeg
  */
 public class ShardingTransactionManager {
 
-    private static final Map<String, DataSourceTransactionManager> TRANS_MAP = new HashMap<>();
+    private static final Map<String, DataSourceTransactionManager> TRANS_MAP = new ConcurrentHashMap<>();
 
     private final DatasourceManager datasourceManager;
 
@@ -37,25 +40,19 @@ public class ShardingTransactionManager {
      * 对于分库分表的情况， 不能明确计算是哪个数据源的，
      */
     public PlatformTransactionManager getTransactionManager(Class<?> mapperClz, long shardingVal) {
-        Sharding sharding = ResourceUtil.getShardingAnno(mapperClz);
-        if (sharding == null) {
+        ShardingRule rule = ShardingRule.of(mapperClz);
+        if (rule == null) {
             throw new IllegalArgumentException("this mapper is illegal");
         }
-        if (sharding.dbRule().length() == 0) {
-            return TRANS_MAP.get(sharding.datasource()[0]);
-        } else {
-            String dsName = ExpressionUtil.eval(sharding.dbRule(), sharding.shardingKey(), shardingVal);
-            return TRANS_MAP.get(dsName);
-        }
+        return TRANS_MAP.get(rule.datasource(shardingVal));
     }
 
     /**
      * 根据分库规则，以及key 计算出实际数据源，拿到对应的管理器
+     * 规则由 RouteRule.compile 缓存， 每个规则只编译一次
      */
     public PlatformTransactionManager getTransactionManager(String dbRule, String key, long shardingVal) {
-        String dsName = ExpressionUtil.eval(dbRule, key, shardingVal);
-        return TRANS_MAP.get(dsName);
-
+        return TRANS_MAP.get(RouteRule.compile(dbRule, key).route(shardingVal));
     }
 
     /**
@@ -67,4 +64,59 @@ public class ShardingTransactionManager {
     public PlatformTransactionManager getTransactionManager(String ds) {
         return TRANS_MAP.get(ds);
     }
+
+    /**
+     * 在分片键所在的数据源上执行事务， 使用默认的事务定义
+     *
+     * @see #execute(Class, long, TransactionDefinition, TransactionCallback)
+     */
+    public <T> T execute(Class<?> mapperClz, long shardingVal, TransactionCallback<T> action) {
+        return execute(mapperClz, shardingVal, null, action);
+    }
+
+    /**
+     * 分片键为 String/UUID/Date 等的时候使用， 按 mapper 的 Sharding.keyHash 转换
+     *
+     * @see #execute(Class, long, TransactionDefinition, TransactionCallback)
+     */
+    public <T> T execute(Class<?> mapperClz, Object shardingKey, TransactionCallback<T> action) {
+        val rule = ruleOf(mapperClz);
+        return execute(mapperClz, ShardingKeyAccessor.keyOf(shardingKey, rule.getSharding().keyHash()), null, action);
+    }
+
+    /**
+     * 在分片键所在的数据源上执行事务， 路由只计算一次并绑定到当前线程
+     * 事务内 mapper 的调用分片键相同的时候直接使用绑定的数据源和表名， 分片键不同但是在同一个数据源上的调用正常执行，
+     * 路由到其他数据源的调用(包括广播)直接抛出 IllegalStateException， 多分片的调用在当前线程上串行执行
+     * 注意： 返回 CompletableFuture 的异步方法不会加入事务
+     *
+     * @param mapperClz   标记了 Sharding 的 mapper
+     * @param shardingVal 分表键值
+     * @param definition  事务定义， 为空使用默认值
+     * @param action      事务内执行的逻辑
+     * @return action 的返回值
+     */
+    public <T> T execute(Class<?> mapperClz, long shardingVal, TransactionDefinition definition,
+                         TransactionCallback<T> action) {
+        val bound = new BoundShard(ruleOf(mapperClz), shardingVal);
+        val manager = TRANS_MAP.get(bound.getDatasource());
+        if (manager == null) {
+            throw new IllegalStateException("transaction manager not found for datasource: " + bound.getDatasource());
+        }
+        val template = definition == null ? new TransactionTemplate(manager) : new TransactionTemplate(manager, definition);
+        val previous = bound.bind();
+        try {
+            return template.execute(action);
+        } finally {
+            BoundShard.unbind(previous);
+        }
+    }
+
+    private static ShardingRule ruleOf(Class<?> mapperClz) {
+        ShardingRule rule = ShardingRule.of(mapperClz);
+        if (rule == null) {
+            throw new IllegalArgumentException("this mapper is illegal");
+        }
+        return rule;
+    }
 }
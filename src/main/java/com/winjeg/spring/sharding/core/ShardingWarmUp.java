@@ -0,0 +1,285 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.config.DataSourceProps;
+import com.winjeg.spring.sharding.route.Shard;
+import com.winjeg.spring.sharding.route.ShardingRule;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动时的预热， 在注册 mapper 之后、应用启动完成之前同步执行， 总耗时不超过 timeout
+ * 1. 每个连接池同时借出 minimumIdle 个连接再归还， 保证第一批请求不需要新建连接
+ * 2. 可选： 在借出的每个连接上把每个语句在每个分片表上预编译一次， 驱动的预编译语句缓存(例如 MySQL 的 cachePrepStmts)
+ * 是每个连接一份的， 之后的执行可以直接使用缓存的语句； 从库只预编译 select； 动态 SQL 在参数都为空时无法生成的语句会被跳过
+ * 3. 用合成的分片键调用 handler 的 key/mapper/table， 与分发类的调用路径相同， 让 JIT 在真实流量之前完成编译，
+ * 结束之后清空路由耗时、热点分片键以及路由缓存， 不影响运行指标
+ * 预热失败只记录日志， 不影响启动
+ *
+ * @author winjeg
+ */
+@Slf4j
+public class ShardingWarmUp {
+    private static final String TABLE_PARAM = "tableName";
+    /**
+     * 保存路由计算的结果， 避免被 JIT 当作无用代码消除
+     */
+    private static volatile long sink;
+
+    private final DatasourceManager datasourceManager;
+    private final SqlSessionFactoryManager sessionManager;
+    private final Collection<ShardingCoreHandler> handlers;
+    private final DataSourceProps.WarmUpProps props;
+
+    public ShardingWarmUp(DatasourceManager datasourceManager, SqlSessionFactoryManager sessionManager,
+                          Collection<ShardingCoreHandler> handlers, DataSourceProps.WarmUpProps props) {
+        this.datasourceManager = datasourceManager;
+        this.sessionManager = sessionManager;
+        this.handlers = handlers;
+        this.props = props;
+    }
+
+    /**
+     * 按配置执行预热
+     */
+    public void run() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(props.getTimeout());
+        val statements = props.isPrepareStatements() ? statements() : Collections.<String, List<Statement>>emptyMap();
+        int[] counts = fillPools(deadline, statements);
+        long routes = routing(deadline);
+        log.info("warm up - {} connections, {} statements prepared, {} routes in {}ms", counts[0], counts[1],
+                routes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 每个数据源的连接池同时借出 minimumIdle 个连接， 连接池会同步创建不足的连接， 并在每个借出的连接上预编译语句
+     * lazy 模式下还没有创建的连接池不预热
+     *
+     * @param statements 数据源名称到需要预编译的语句
+     * @return 借出的连接数以及预编译的语句数
+     */
+    private int[] fillPools(long deadline, Map<String, List<Statement>> statements) {
+        List<String> names = new ArrayList<>();
+        datasourceManager.foreach((name, ds) -> names.add(name));
+        int[] counts = new int[2];
+        for (val name : names) {
+            val toPrepare = statements.getOrDefault(name, Collections.emptyList());
+            boolean primary = true;
+            for (val entry : datasourceManager.getPools(name).entrySet()) {
+                val pool = entry.getValue();
+                int target = Math.min(pool.getMinimumIdle(), pool.getMaximumPoolSize());
+                if (!toPrepare.isEmpty()) {
+                    target = Math.max(1, target);
+                }
+                List<Connection> borrowed = new ArrayList<>(target);
+                try {
+                    while (borrowed.size() < target && System.nanoTime() < deadline) {
+                        Connection c = pool.getConnection();
+                        borrowed.add(c);
+                        counts[1] += prepare(c, toPrepare, primary, deadline);
+                    }
+                } catch (SQLException e) {
+                    log.warn("warm up - failed to fill pool {} ({} of {})", entry.getKey(), borrowed.size(), target,
+                            e);
+                } finally {
+                    counts[0] += borrowed.size();
+                    close(borrowed);
+                }
+                primary = false;
+            }
+        }
+        return counts;
+    }
+
+    private static void close(List<Connection> connections) {
+        for (val c : connections) {
+            try {
+                c.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 每个 mapper 的每个语句在所在数据源的每张分片表上生成的 SQL， 按数据源名称分组
+     *
+     * @return 数据源名称到语句
+     */
+    private Map<String, List<Statement>> statements() {
+        Map<String, List<Statement>> result = new HashMap<>();
+        for (val handler : handlers) {
+            val clz = handler.getMapperClass();
+            val dispatch = handler.getDispatchTable();
+            List<Shard> shards;
+            try {
+                shards = ShardingRule.of(clz).shards();
+            } catch (RuntimeException e) {
+                log.info("warm up - skip statements of {}, shards can not be enumerated", clz.getCanonicalName());
+                continue;
+            }
+            for (int ds = 0; ds < dispatch.shardCount(); ds++) {
+                val shardClass = dispatch.getShardClass(ds);
+                val configuration = sessionManager.getSessionFactory(shardClass).getConfiguration();
+                val list = result.computeIfAbsent(dispatch.getDatasource(ds), k -> new ArrayList<>());
+                for (val shard : shards) {
+                    if (shard.getDatasourceIndex() != ds) {
+                        continue;
+                    }
+                    for (val m : dispatch.getMethods()) {
+                        val id = shardClass.getName() + "." + m.getName();
+                        if (configuration.hasStatement(id)) {
+                            val statement = Statement.of(configuration.getMappedStatement(id), shard.getTable());
+                            if (statement != null) {
+                                list.add(statement);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在一个连接上预编译语句， 从库只预编译 select
+     *
+     * @return 预编译成功的语句数
+     */
+    private static int prepare(Connection c, List<Statement> statements, boolean primary, long deadline) {
+        int count = 0;
+        for (val statement : statements) {
+            if (System.nanoTime() >= deadline) {
+                log.warn("warm up - timeout when preparing statements");
+                return count;
+            }
+            if (!primary && !statement.select) {
+                continue;
+            }
+            try (PreparedStatement ignored = c.prepareStatement(statement.sql)) {
+                count++;
+            } catch (SQLException e) {
+                log.debug("warm up - failed to prepare {} on table {}", statement.id, statement.table, e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 用合成的分片键按分发类的路径调用 handler， 只有直接调用并且分片键参数是整数或者字符串的方法参与预热，
+     * 结束之后清空 handler 的运行指标和路由缓存
+     *
+     * @return 执行的次数
+     */
+    private long routing(long deadline) {
+        long count = 0;
+        long acc = 0;
+        try {
+            for (val handler : handlers) {
+                List<Integer> ordinals = new ArrayList<>();
+                List<Class<?>> keyTypes = new ArrayList<>();
+                for (int i = 0; i < handler.getMethods().length; i++) {
+                    val type = keyType(handler, i);
+                    if (type != null) {
+                        ordinals.add(i);
+                        keyTypes.add(type);
+                    }
+                }
+                if (ordinals.isEmpty()) {
+                    log.debug("warm up - skip routing of {}, no direct method",
+                            handler.getMapperClass().getCanonicalName());
+                    continue;
+                }
+                try {
+                    for (int i = 0; i < props.getRoutingIterations(); i++) {
+                        if ((i & 1023) == 0 && System.nanoTime() >= deadline) {
+                            return count;
+                        }
+                        int n = i % ordinals.size();
+                        int ordinal = ordinals.get(n);
+                        long key = handler.key(ordinal, syntheticKey(keyTypes.get(n), i));
+                        acc += handler.mapper(ordinal, key) == null ? 0 : 1;
+                        if (handler.isShardingTable()) {
+                            acc += handler.table(ordinal, key).length();
+                        }
+                        count++;
+                    }
+                } catch (RuntimeException e) {
+                    log.info("warm up - skip routing of {}: {}", handler.getMapperClass().getCanonicalName(),
+                            e.getMessage());
+                }
+            }
+        } finally {
+            sink = acc;
+            for (val handler : handlers) {
+                handler.resetStats();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 分发类直接调用、参数本身就是分片键的方法的分片键类型， 不支持的返回 null
+     */
+    private static Class<?> keyType(ShardingCoreHandler handler, int ordinal) {
+        val accessor = handler.getKeyAccessors()[ordinal];
+        if (!handler.isDirect(ordinal) || accessor == null || !accessor.isDirect()) {
+            return null;
+        }
+        val type = handler.getMethods()[ordinal].getParameterTypes()[accessor.getParamIndex()];
+        if (type == long.class || type == Long.class || type == int.class || type == Integer.class
+                || type == String.class) {
+            return type;
+        }
+        return null;
+    }
+
+    private static Object syntheticKey(Class<?> type, int i) {
+        if (type == long.class || type == Long.class) {
+            return (long) i;
+        }
+        if (type == int.class || type == Integer.class) {
+            return i;
+        }
+        return String.valueOf(i);
+    }
+
+    /**
+     * 一个语句在一张分片表上生成的 SQL
+     */
+    private static final class Statement {
+        private final String id;
+        private final String table;
+        private final String sql;
+        private final boolean select;
+
+        private Statement(String id, String table, String sql, boolean select) {
+            this.id = id;
+            this.table = table;
+            this.sql = sql;
+            this.select = select;
+        }
+
+        /**
+         * @return SQL 在参数都为空时无法生成的返回 null
+         */
+        static Statement of(MappedStatement ms, String table) {
+            Map<String, Object> param = new HashMap<>();
+            param.put(TABLE_PARAM, table);
+            try {
+                return new Statement(ms.getId(), table, ms.getBoundSql(param).getSql(),
+                        ms.getSqlCommandType() == SqlCommandType.SELECT);
+            } catch (RuntimeException e) {
+                log.debug("warm up - skip {}, sql can not be built without parameters", ms.getId());
+                return null;
+            }
+        }
+    }
+}
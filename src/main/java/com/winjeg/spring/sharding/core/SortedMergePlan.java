@@ -0,0 +1,101 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.annos.SortedMerge;
+import com.winjeg.spring.sharding.exec.ShardExecutor;
+import com.winjeg.spring.sharding.factories.DispatchTable;
+import com.winjeg.spring.sharding.route.Shard;
+import lombok.val;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 一个 SortedMerge 方法的执行计划， 创建代理的时候生成一次
+ * 通过 ShardCursors 在每个分片上打开 Cursor， 然后在调用线程上归并
+ *
+ * @author winjeg
+ */
+final class SortedMergePlan {
+    private final ShardCursors cursors;
+    private final Configuration configuration;
+    private final Function<Object, Object> sortKey;
+    private final Comparator<Object> order;
+    private final String limit;
+    private final String offset;
+    /**
+     * 返回 Cursor， 否则返回 List
+     */
+    private final boolean streaming;
+
+    SortedMergePlan(SortedMerge anno, Method m, DispatchTable dispatch, int ordinal, SqlSessionFactoryManager sm) {
+        this.cursors = new ShardCursors(m, dispatch, ordinal, sm);
+        val rt = m.getReturnType();
+        if (Cursor.class.isAssignableFrom(rt) || rt == Iterable.class) {
+            streaming = true;
+        } else if (rt.isAssignableFrom(ArrayList.class)) {
+            streaming = false;
+        } else {
+            throw new IllegalArgumentException("@SortedMerge method should return Cursor, Iterable or List: "
+                    + cursors.getMethod());
+        }
+        this.configuration = cursors.getConfiguration();
+        val property = anno.value();
+        this.sortKey = property.isEmpty() ? row -> row
+                : row -> row == null ? null : configuration.newMetaObject(row).getValue(property);
+        @SuppressWarnings("unchecked")
+        Comparator<Object> natural = (a, b) -> ((Comparable<Object>) a).compareTo(b);
+        // null 最小， 与 MySQL 的排序一致
+        Comparator<Object> asc = Comparator.nullsFirst(natural);
+        this.order = anno.desc() ? asc.reversed() : asc;
+        this.limit = anno.limit();
+        this.offset = anno.offset();
+    }
+
+    /**
+     * 在所有分片上打开 Cursor 并归并
+     *
+     * @param executor    执行器
+     * @param shards      分片， 按分片顺序
+     * @param datasources 每个分片的数据源
+     * @param args        每个分片的参数(已经加上了表名)
+     * @return Cursor 或者 List
+     * @throws Throwable 任意一个分片的异常， 已经打开的 Cursor 会被关闭
+     */
+    Object execute(ShardExecutor executor, List<Shard> shards, List<String> datasources,
+                   List<Object[]> args) throws Throwable {
+        long skip = 0;
+        long max = -1;
+        if (!shards.isEmpty()) {
+            Object param = cursors.param(shards.get(0).getDatasourceIndex(), args.get(0));
+            skip = number(param, offset, 0);
+            max = number(param, limit, -1);
+        }
+        MergedCursor.Source[] sources = new MergedCursor.Source[max == 0 ? 0 : shards.size()];
+        List<SqlSession> sessions = sources.length == 0 ? new ArrayList<>()
+                : cursors.open(executor, shards, datasources, args, (p, c) -> sources[p] = new MergedCursor.Source(c), true);
+        val cursor = new MergedCursor<Object>(Arrays.asList(sources), sessions, sortKey, order, skip, max);
+        return streaming ? cursor : cursor.toList();
+    }
+
+    private long number(Object param, String name, long defaultValue) {
+        if (name.isEmpty()) {
+            return defaultValue;
+        }
+        Object value = param == null ? null : configuration.newMetaObject(param).getValue(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(String.format("%s of %s should be a number: %s", name,
+                    cursors.getMethod(), value));
+        }
+        return ((Number) value).longValue();
+    }
+}
@@ -1,20 +1,31 @@
 package com.winjeg.spring.sharding.core;
 
 import com.winjeg.spring.sharding.annos.Sharding;
+import com.winjeg.spring.sharding.factories.LazyDataSource;
+import com.winjeg.spring.sharding.metrics.ShardingMetrics;
+import com.winjeg.spring.sharding.processor.ShardingProcessor;
+import com.winjeg.spring.sharding.rw.ReadWriteDataSource;
+import com.winjeg.spring.sharding.rw.ReadWriteInterceptor;
+import com.winjeg.spring.sharding.utils.NameUtils;
 import com.winjeg.spring.sharding.utils.ResourceUtil;
 import com.winjeg.spring.sharding.utils.XmlUtils;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.mybatis.spring.SqlSessionFactoryBean;
 import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.util.StreamUtils;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
@@ -29,15 +40,33 @@ public class SqlSessionFactoryManager {
     private static final Map<String, SqlSessionFactoryBean> SESSION_FACTORY_MAP = new ConcurrentHashMap<>();
     private static final Map<String, SqlSessionTemplate> TEMPLATE_MAP = new ConcurrentHashMap<>();
     private static final Map<String, String> RES_MAP = new ConcurrentHashMap<>();
+    /**
+     * mapper 对象是线程安全的， 每个接口只创建一次
+     */
+    private static final Map<Class<?>, Object> MAPPER_MAP = new ConcurrentHashMap<>();
     private static final ResourcePatternResolver RESOLVER = new PathMatchingResourcePatternResolver();
     private final List<Class<?>> classes;
     private final DatasourceManager datasourceManager;
+    /**
+     * 为空则不统计执行指标
+     */
+    private final ShardingMetrics metrics;
 
     private Interceptor interceptor;
 
+    /**
+     * mapper 文件按 namespace 索引， 所有数据源共用， 全部使用编译期生成的 mapper 文件时不需要
+     */
+    private Map<String, XmlUtils.MapperXml> mapperIndex;
+
     public SqlSessionFactoryManager(List<Class<?>> cs, DatasourceManager dsManager) {
+        this(cs, dsManager, null);
+    }
+
+    public SqlSessionFactoryManager(List<Class<?>> cs, DatasourceManager dsManager, ShardingMetrics metrics) {
         this.classes = cs;
         this.datasourceManager = dsManager;
+        this.metrics = metrics;
         init();
     }
 
@@ -55,6 +84,14 @@ public class SqlSessionFactoryManager {
         if (interceptor != null) {
             configuration.addInterceptor(interceptor);
         }
+        if (dataSource instanceof ReadWriteDataSource
+                || dataSource instanceof LazyDataSource && ((LazyDataSource) dataSource).isReadWrite()) {
+            // 标记读写， 让读写分离的数据源选择主库或从库
+            configuration.addInterceptor(new ReadWriteInterceptor());
+        }
+        if (metrics != null) {
+            configuration.addInterceptor(metrics.interceptor(name));
+        }
         SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
         factoryBean.setMapperLocations(locations);
         factoryBean.setDataSource(dataSource);
@@ -88,18 +125,36 @@ public class SqlSessionFactoryManager {
     }
 
     /**
-     * 利用MyBatis的方法获取Mapper
+     * 利用MyBatis的方法获取Mapper， 同一个接口只创建一次
      *
      * @param clz 类型
      * @param <T> 参数类型
      * @return mapper对象
      */
     public <T> T getMapper(Class<?> clz) {
+        return (T) MAPPER_MAP.computeIfAbsent(clz, this::createMapper);
+    }
+
+    /**
+     * mapper 所在数据源的 SqlSessionFactory， 用于需要自己管理 SqlSession 生命周期的场景， 例如流式读取
+     *
+     * @param clz mapper 接口
+     * @return SqlSessionFactory
+     */
+    public SqlSessionFactory getSessionFactory(Class<?> clz) {
         val template = TEMPLATE_MAP.get(RES_MAP.get(clz.getCanonicalName()));
         if (template == null) {
             throw new RuntimeException("datasource init failed, template null!");
         }
-        return (T) template.getMapper(clz);
+        return template.getSqlSessionFactory();
+    }
+
+    private Object createMapper(Class<?> clz) {
+        val template = TEMPLATE_MAP.get(RES_MAP.get(clz.getCanonicalName()));
+        if (template == null) {
+            throw new RuntimeException("datasource init failed, template null!");
+        }
+        return template.getMapper(clz);
     }
 
     /**
@@ -116,27 +171,92 @@ public class SqlSessionFactoryManager {
                 continue;
             }
             boolean isSharding = sharding.dbRule().length() > 0 || sharding.tableRule().length() > 0;
+            if (isSharding) {
+                val name = NameUtils.buildClassName(dsName, clz.getCanonicalName());
+                val prebuilt = prebuiltMapper(clz, name);
+                if (prebuilt != null) {
+                    result.putIfAbsent(name, prebuilt);
+                    continue;
+                }
+            }
+            val xml = mapperIndex().get(clz.getCanonicalName());
+            if (xml == null) {
+                continue;
+            }
+            if (isSharding) {
+                val name = NameUtils.buildClassName(dsName, xml.getNamespace());
+                result.putIfAbsent(name, xml.withNamespace(name));
+            } else {
+                result.putIfAbsent(xml.getNamespace(), xml.getResource());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 编译期(ShardingProcessor)生成的 mapper 文件， 原文件比它新的时候视为过时
+     *
+     * @return 没有或者已过时返回 null
+     */
+    private static Resource prebuiltMapper(Class<?> clz, String name) {
+        val xml = new ClassPathResource(ShardingProcessor.XML_DIR + name + ShardingProcessor.XML_SUFFIX, clz.getClassLoader());
+        if (!xml.exists()) {
+            return null;
+        }
+        val source = new ClassPathResource(ShardingProcessor.XML_DIR + name + ShardingProcessor.SOURCE_SUFFIX, clz.getClassLoader());
+        try (InputStream in = source.getInputStream()) {
+            val original = new ClassPathResource(StreamUtils.copyToString(in, StandardCharsets.UTF_8), clz.getClassLoader());
+            if (original.exists() && original.lastModified() > xml.lastModified()) {
+                log.info("prebuiltMapper - {} is older than {}, rewrite at runtime", xml.getPath(), original.getPath());
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return xml;
+    }
+
+    private Map<String, XmlUtils.MapperXml> mapperIndex() {
+        if (mapperIndex == null) {
+            mapperIndex = buildMapperIndex();
+        }
+        return mapperIndex;
+    }
+
+    /**
+     * 扫描所有 mapperLocation， 每个位置只解析一次， 每个文件只读取一次
+     *
+     * @return namespace 到 mapper 文件的索引
+     */
+    private Map<String, XmlUtils.MapperXml> buildMapperIndex() {
+        Set<String> locations = new LinkedHashSet<>();
+        for (val clz : classes) {
+            Sharding sharding = ResourceUtil.getShardingAnno(clz);
+            if (sharding != null) {
+                locations.add(sharding.mapperLocation());
+            }
+        }
+        Set<Resource> seen = new HashSet<>();
+        Map<String, XmlUtils.MapperXml> index = new HashMap<>();
+        for (val location : locations) {
             Resource[] resources;
             try {
-                resources = RESOLVER.getResources(sharding.mapperLocation());
+                resources = RESOLVER.getResources(location);
             } catch (IOException e) {
-                log.warn("extractShardingResources - mapper location error", e);
+                log.warn("buildMapperIndex - mapper location error", e);
                 continue;
             }
             for (val r : resources) {
-                if (XmlUtils.extractNamespace(r).equals(clz.getCanonicalName())) {
-                    if (isSharding) {
-                        val resourcePair = XmlUtils.changeMapperNameSpace(dsName, r);
-                        if (resourcePair != null) {
-                            result.putIfAbsent(resourcePair.left(), resourcePair.right());
-                        }
-                    } else {
-                        result.putIfAbsent(XmlUtils.extractNamespace(r), r);
-                    }
+                if (!seen.add(r)) {
+                    continue;
+                }
+                val xml = XmlUtils.parse(r);
+                if (xml != null && index.putIfAbsent(xml.getNamespace(), xml) != null) {
+                    log.warn("buildMapperIndex - duplicated namespace:{} in {}", xml.getNamespace(), r);
                 }
             }
         }
-        return result;
+        return index;
     }
 
     private static boolean contains(String[] arr, String element) {
@@ -0,0 +1,60 @@
+package com.winjeg.spring.sharding.exec;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 公共逻辑： 任务外面包一层数据源并发上限， 然后交给具体的 Executor
+ *
+ * @author winjeg
+ */
+public abstract class AbstractShardExecutor implements ShardExecutor {
+    private final DatasourceLimiter limiter;
+
+    protected AbstractShardExecutor(DatasourceLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * 实际执行任务的 Executor
+     */
+    protected abstract Executor executor();
+
+    @Override
+    public Executor executor(String datasource) {
+        return task -> limiter.execute(datasource, task, executor());
+    }
+
+    @Override
+    public <T> Future<T> submit(String datasource, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        executor(datasource).execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> async(String datasource, Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor(datasource));
+    }
+
+    @Override
+    public <T> T call(String datasource, Callable<T> task) throws Exception {
+        return limiter.call(datasource, task);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,20 @@
+package com.winjeg.spring.sharding.exec;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 所有任务都在调用线程上串行执行， 不额外创建线程
+ *
+ * @author winjeg
+ */
+public class CallerRunsShardExecutor extends AbstractShardExecutor {
+
+    public CallerRunsShardExecutor(DatasourceLimiter limiter) {
+        super(limiter);
+    }
+
+    @Override
+    protected Executor executor() {
+        return Runnable::run;
+    }
+}
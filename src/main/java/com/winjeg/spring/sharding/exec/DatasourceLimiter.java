@@ -0,0 +1,91 @@
+package com.winjeg.spring.sharding.exec;
+
+import com.winjeg.spring.sharding.config.DataSourceProps;
+import com.winjeg.spring.sharding.factories.HikariCPFactory;
+import lombok.val;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 每个数据源的并发上限， 防止并行分发占满连接池
+ * 上限取连接池的 maximumPoolSize， 没有配置的数据源不做限制
+ * 任务总是在执行它的线程上阻塞等待许可(公平， 先到先得)， 许可不足的时候会占用执行器的线程
+ *
+ * @author winjeg
+ */
+public class DatasourceLimiter {
+    private final Map<String, Gate> gates;
+
+    public DatasourceLimiter(DataSourceProps props) {
+        Map<String, Gate> map = new HashMap<>();
+        if (props != null && props.getList() != null) {
+            for (val p : props.getList()) {
+                map.put(p.getName(), new Gate(Math.max(1, HikariCPFactory.maximumPoolSize(p))));
+            }
+        }
+        this.gates = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * 在调用线程上获得许可之后再执行任务
+     */
+    public <T> T call(String datasource, Callable<T> task) throws Exception {
+        val gate = datasource == null ? null : gates.get(datasource);
+        if (gate == null) {
+            return task.call();
+        }
+        gate.permits.acquire();
+        try {
+            return task.call();
+        } finally {
+            gate.release();
+        }
+    }
+
+    /**
+     * 交给 delegate 执行， 任务在执行它的线程上阻塞等待许可
+     * 释放许可的线程不会替其他任务执行， 排队的任务不会跑到别的调用方的线程(和它绑定的事务、连接)上
+     */
+    public void execute(String datasource, Runnable task, Executor delegate) {
+        val gate = datasource == null ? null : gates.get(datasource);
+        if (gate == null) {
+            delegate.execute(task);
+            return;
+        }
+        delegate.execute(() -> {
+            gate.permits.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                gate.release();
+            }
+        });
+    }
+
+    /**
+     * 当前可用的许可数
+     *
+     * @return 没有限制返回 -1
+     */
+    public int available(String datasource) {
+        val gate = gates.get(datasource);
+        return gate == null ? -1 : gate.permits.availablePermits();
+    }
+
+    private static class Gate {
+        private final Semaphore permits;
+
+        Gate(int limit) {
+            this.permits = new Semaphore(limit, true);
+        }
+
+        void release() {
+            permits.release();
+        }
+    }
+}
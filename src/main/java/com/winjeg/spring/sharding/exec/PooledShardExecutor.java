@@ -0,0 +1,35 @@
+package com.winjeg.spring.sharding.exec;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 有界线程池， 队列满了之后由调用线程执行
+ *
+ * @author winjeg
+ */
+public class PooledShardExecutor extends AbstractShardExecutor {
+    private final ThreadPoolExecutor pool;
+
+    public PooledShardExecutor(DatasourceLimiter limiter, int threads, int queueSize) {
+        super(limiter);
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread t = new Thread(r, "sharding-fanout-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    protected Executor executor() {
+        return pool;
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,60 @@
+package com.winjeg.spring.sharding.exec;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * 多分片任务的执行模型， 由 ShardingStarter 根据配置创建并注册
+ * 每个数据源上同时执行的任务数不会超过该数据源连接池的 maximumPoolSize
+ * 内置三种实现： 调用线程执行， 有界线程池， 虚拟线程(JDK 21+)
+ *
+ * @author winjeg
+ */
+public interface ShardExecutor {
+
+    /**
+     * 提交一个需要访问数据源的任务
+     *
+     * @param datasource 数据源名称， 用于并发上限控制
+     * @param task       任务
+     * @param <T>        结果类型
+     * @return 任务结果
+     */
+    <T> Future<T> submit(String datasource, Callable<T> task);
+
+    /**
+     * 异步执行一个需要访问数据源的任务， 用于返回 CompletableFuture 的 mapper 方法
+     *
+     * @param datasource 数据源名称， 用于并发上限控制
+     * @param task       任务
+     * @param <T>        结果类型
+     * @return 任务结果， 任务的受检异常会包装为 CompletionException
+     */
+    <T> CompletableFuture<T> async(String datasource, Callable<T> task);
+
+    /**
+     * 数据源对应的执行器， 同时执行的任务不会超过数据源的并发上限， 超出的任务排队
+     *
+     * @param datasource 数据源名称
+     * @return 执行器
+     */
+    Executor executor(String datasource);
+
+    /**
+     * 在调用线程上执行任务， 同样受数据源并发上限的约束
+     *
+     * @param datasource 数据源名称
+     * @param task       任务
+     * @param <T>        结果类型
+     * @return 任务结果
+     * @throws Exception 任务异常
+     */
+    <T> T call(String datasource, Callable<T> task) throws Exception;
+
+    /**
+     * 关闭执行器
+     */
+    void shutdown();
+}
@@ -0,0 +1,47 @@
+package com.winjeg.spring.sharding.exec;
+
+import com.winjeg.spring.sharding.config.DataSourceProps;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+/**
+ * 根据配置创建 ShardExecutor
+ * <pre>
+ * datasource:
+ *   executor:
+ *     type: auto    # caller / pool / virtual / auto
+ *     threads: 16
+ *     queue-size: 1024
+ * </pre>
+ * auto 在 JDK 21+ 上使用虚拟线程， 否则使用有界线程池
+ *
+ * @author winjeg
+ */
+@Slf4j
+public class ShardExecutors {
+    public static final String CALLER = "caller";
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+    public static final String AUTO = "auto";
+
+    public static ShardExecutor create(DataSourceProps props) {
+        val limiter = new DatasourceLimiter(props);
+        val cfg = props == null || props.getExecutor() == null ? new DataSourceProps.ExecutorProps() : props.getExecutor();
+        String type = cfg.getType() == null ? AUTO : cfg.getType().toLowerCase();
+        if (AUTO.equals(type)) {
+            type = VirtualThreadShardExecutor.isSupported() ? VIRTUAL : POOL;
+        }
+        log.info("create ----  shard executor of type:{} created...", type);
+        switch (type) {
+            case CALLER:
+                return new CallerRunsShardExecutor(limiter);
+            case VIRTUAL:
+                return new VirtualThreadShardExecutor(limiter);
+            case POOL:
+                int threads = cfg.getThreads() > 0 ? cfg.getThreads() : Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+                return new PooledShardExecutor(limiter, threads, Math.max(1, cfg.getQueueSize()));
+            default:
+                throw new IllegalArgumentException("unknown shard executor type: " + cfg.getType());
+        }
+    }
+}
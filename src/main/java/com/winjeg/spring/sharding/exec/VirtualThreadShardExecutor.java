@@ -0,0 +1,46 @@
+package com.winjeg.spring.sharding.exec;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 每个任务一个虚拟线程， 仅在 JDK 21+ 上可用
+ * 为了保持 Java 8 的编译基线， 通过反射创建
+ *
+ * @author winjeg
+ */
+public class VirtualThreadShardExecutor extends AbstractShardExecutor {
+    private final ExecutorService executor;
+
+    public VirtualThreadShardExecutor(DatasourceLimiter limiter) {
+        super(limiter);
+        try {
+            this.executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual threads require JDK 21+", e);
+        }
+    }
+
+    /**
+     * 当前 JVM 是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected Executor executor() {
+        return executor;
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -5,7 +5,7 @@ import com.winjeg.spring.sharding.utils.NameUtils;
 import com.winjeg.spring.sharding.utils.ResourceUtil;
 import lombok.val;
 
-import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,80 +17,80 @@ import java.util.Map;
  * @author winjeg
  */
 public class ClassManager {
-    private static final Map<String, Map<String, Class<?>>> CLASS_MAP = new HashMap<>();
     /**
-     * KEY1： dsName， Key2: Interface.class  Key3 方法名
+     * KEY: 原接口， VALUE: 分发表， 构造完成之后不再修改
      */
-    private static final Map<String, Map<String, Map<String, Method>>> METHOD_CACHE = new HashMap<>();
-
-    private final List<Class<?>> classes;
+    private final Map<Class<?>, DispatchTable> tables;
 
     public ClassManager(List<Class<?>> cs) {
-        classes = cs;
-        init();
+        tables = Collections.unmodifiableMap(init(cs));
     }
 
-    private void init() {
+    /**
+     * 优先使用编译期(ShardingProcessor)生成的接口， 没有的时候才在运行时生成
+     */
+    private static Map<Class<?>, DispatchTable> init(List<Class<?>> classes) {
+        Map<Class<?>, DispatchTable> result = new HashMap<>(classes.size() * 2);
         for (val clz : classes) {
             val sharding = ResourceUtil.getShardingAnno(clz);
-            if (sharding.tableRule().length() > 0) {
-                for (val dsName : sharding.datasource()) {
-                    generate(dsName, clz, true);
+            if (sharding.tableRule().length() > 0 || sharding.dbRule().length() > 0) {
+                boolean isShardingTable = sharding.tableRule().length() > 0;
+                Class<?> target = precompiled(clz, NameUtils.buildTargetName(clz.getCanonicalName()));
+                if (target == null) {
+                    target = ClassScanUtils.generateTargetInterface(clz, isShardingTable);
                 }
-            } else if (sharding.dbRule().length() > 0) {
-                for (val dsName : sharding.datasource()) {
-                    generate(dsName, clz, false);
+                val dsNames = sharding.datasource();
+                Class<?>[] shardClasses = new Class<?>[dsNames.length];
+                for (int i = 0; i < dsNames.length; i++) {
+                    shardClasses[i] = generate(dsNames[i], clz, target);
                 }
+                result.put(clz, new DispatchTable(clz, target, dsNames, shardClasses, isShardingTable));
             }
         }
+        return result;
     }
 
-    private void generate(String dsName, Class<?> clz, boolean sharding) {
-        Map<String, Class<?>> dsMap = CLASS_MAP.get(dsName);
-        if (dsMap == null) {
-            dsMap = new HashMap<>();
+    private static Class<?> precompiled(Class<?> clz, String name) {
+        try {
+            return Class.forName(name, false, clz.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
         }
-        val genClz = ClassScanUtils.generateMapperViaMapper(clz, dsName, sharding);
-        String name = NameUtils.buildClassName(dsName, clz.getCanonicalName());
-        dsMap.put(name, genClz);
-        CLASS_MAP.put(dsName, dsMap);
-
+    }
 
-        Map<String, Map<String, Method>> dsMethodMap = METHOD_CACHE.get(dsName);
-        if (dsMethodMap == null) {
-            dsMethodMap = new HashMap<>();
-        }
-        Map<String, Method> methodMap = dsMethodMap.get(name);
-        if (methodMap == null) {
-            methodMap = new HashMap<>();
+    /**
+     * 同名的类已经存在就不能再生成， 不是继承自 target 的说明编译期生成的类过期了(例如只编译了一部分)
+     */
+    private static Class<?> generate(String dsName, Class<?> clz, Class<?> target) {
+        Class<?> genClz = precompiled(clz, NameUtils.buildClassName(dsName, clz.getCanonicalName()));
+        if (genClz == null) {
+            return ClassScanUtils.generateMapperViaMapper(clz, dsName, target);
         }
-        for (val m : genClz.getDeclaredMethods()) {
-            methodMap.put(m.getName(), m);
+        if (!target.isAssignableFrom(genClz)) {
+            throw new IllegalStateException(String.format("generated %s is out of date (not a %s), "
+                    + "precompiled sharding classes are stale, please rebuild", genClz.getName(), target.getName()));
         }
-        dsMethodMap.put(name, methodMap);
-        METHOD_CACHE.put(dsName, dsMethodMap);
+        return genClz;
     }
 
     /**
-     * 根据数据源和类名获取对应的类
+     * 获取原接口的分发表
      *
-     * @param dsName    数据源
-     * @param className 类名
-     * @return 类
+     * @param clz 原接口
+     * @return 分发表， 不分库分表的接口返回 null
      */
-    public Class<?> getClass(String dsName, String className) {
-        return CLASS_MAP.get(dsName).get(className);
+    public DispatchTable getDispatchTable(Class<?> clz) {
+        return tables.get(clz);
     }
 
     /**
-     * 根据数据源和类名方法名获取对应的方法
+     * 获取原接口对应的公共父接口， 生成的各数据源接口都继承自它
      *
-     * @param dsName    数据源
-     * @param className 类名
-     * @param name      方法名
-     * @return 类
+     * @param clz 原接口
+     * @return 公共父接口
      */
-    public Method getMethod(String dsName, String className, String name) {
-        return METHOD_CACHE.get(dsName).get(className).get(name);
+    public Class<?> getTarget(Class<?> clz) {
+        val table = tables.get(clz);
+        return table == null ? null : table.getTarget();
     }
 }
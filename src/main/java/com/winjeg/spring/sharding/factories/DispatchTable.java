@@ -0,0 +1,164 @@
+package com.winjeg.spring.sharding.factories;
+
+import lombok.val;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个分库分表接口的分发表， 启动时构建， 之后不再修改
+ * 按 (分片序号， 方法序号) 下标访问， 分片序号为数据源在 Sharding.datasource() 中的下标
+ * 原接口的方法按完整签名对应到生成接口的方法， 重载的方法各自独立
+ *
+ * @author winjeg
+ */
+public final class DispatchTable {
+    private final Class<?> mapperClass;
+    private final Class<?> target;
+    private final String[] datasources;
+    private final Class<?>[] shardClasses;
+    /**
+     * 下标即为方法序号
+     */
+    private final Method[] methods;
+    /**
+     * 公共父接口上的方法， 下标为方法序号
+     */
+    private final Method[] targetMethods;
+    /**
+     * 第一维为分片序号， 第二维为方法序号
+     */
+    private final Method[][] shardMethods;
+    private final Map<Method, Integer> ordinals;
+
+    DispatchTable(Class<?> mapperClass, Class<?> target, String[] datasources, Class<?>[] shardClasses,
+                  boolean isShardingTable) {
+        this.mapperClass = mapperClass;
+        this.target = target;
+        this.datasources = datasources.clone();
+        this.shardClasses = shardClasses.clone();
+        this.methods = shardingMethods(mapperClass);
+        this.targetMethods = new Method[methods.length];
+        this.shardMethods = new Method[shardClasses.length][methods.length];
+        Map<Method, Integer> map = new HashMap<>(methods.length * 2);
+        for (int i = 0; i < methods.length; i++) {
+            val types = targetTypes(methods[i], isShardingTable);
+            targetMethods[i] = find(target, methods[i], types);
+            for (int s = 0; s < shardClasses.length; s++) {
+                shardMethods[s][i] = find(shardClasses[s], methods[i], types);
+            }
+            map.put(methods[i], i);
+        }
+        this.ordinals = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * 需要分发的方法， default 和 static 方法不分发
+     */
+    static Method[] shardingMethods(Class<?> clz) {
+        List<Method> result = new ArrayList<>();
+        for (val m : clz.getMethods()) {
+            if (m.isDefault() || Modifier.isStatic(m.getModifiers())) {
+                continue;
+            }
+            result.add(m);
+        }
+        return result.toArray(new Method[0]);
+    }
+
+    /**
+     * 生成接口上对应方法的参数类型， 分表的时候第一个参数为表名
+     */
+    static Class<?>[] targetTypes(Method m, boolean isShardingTable) {
+        Class<?>[] types = m.getParameterTypes();
+        if (!isShardingTable) {
+            return types;
+        }
+        Class<?>[] result = new Class<?>[types.length + 1];
+        result[0] = String.class;
+        System.arraycopy(types, 0, result, 1, types.length);
+        return result;
+    }
+
+    private static Method find(Class<?> clz, Method m, Class<?>[] types) {
+        try {
+            return clz.getMethod(m.getName(), types);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(String.format("generated %s is out of date (missing %s), please rebuild",
+                    clz.getName(), m), e);
+        }
+    }
+
+    public Class<?> getMapperClass() {
+        return mapperClass;
+    }
+
+    /**
+     * @return 各数据源生成接口的公共父接口
+     */
+    public Class<?> getTarget() {
+        return target;
+    }
+
+    public int shardCount() {
+        return shardClasses.length;
+    }
+
+    public int methodCount() {
+        return methods.length;
+    }
+
+    public String getDatasource(int shard) {
+        return datasources[shard];
+    }
+
+    /**
+     * @param shard 分片序号
+     * @return 该数据源生成的接口
+     */
+    public Class<?> getShardClass(int shard) {
+        return shardClasses[shard];
+    }
+
+    public Method getMethod(int ordinal) {
+        return methods[ordinal];
+    }
+
+    /**
+     * @param ordinal 方法序号
+     * @return 公共父接口上的方法， 对所有分片都可以调用
+     */
+    public Method getTargetMethod(int ordinal) {
+        return targetMethods[ordinal];
+    }
+
+    /**
+     * @param shard   分片序号
+     * @param ordinal 方法序号
+     * @return 该数据源生成接口上的方法
+     */
+    public Method getShardMethod(int shard, int ordinal) {
+        return shardMethods[shard][ordinal];
+    }
+
+    /**
+     * @param m 原接口的方法
+     * @return 方法序号， 不需要分发的方法返回 -1
+     */
+    public int ordinal(Method m) {
+        Integer ordinal = ordinals.get(m);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * 返回的数组是副本， 下标即为方法序号
+     */
+    public Method[] getMethods() {
+        return methods.clone();
+    }
+}
@@ -1,6 +1,8 @@
 package com.winjeg.spring.sharding.factories;
 
 import com.winjeg.spring.sharding.config.DataSourceProps;
+import com.winjeg.spring.sharding.rw.ReadWriteDataSource;
+import com.winjeg.spring.sharding.rw.ReplicaSelector;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import lombok.extern.slf4j.Slf4j;
@@ -8,6 +10,8 @@ import lombok.val;
 
 import javax.sql.DataSource;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 创建hikaricp的统一工厂
@@ -16,52 +20,243 @@ import java.util.*;
  */
 @Slf4j
 public class HikariCPFactory {
+    private static final int MAX_INIT_THREADS = 32;
+    /**
+     * MySQL 没有配置 dataSourceProperties 时使用的预编译语句缓存配置
+     */
+    public static final Map<String, String> MYSQL_DEFAULTS;
+
+    static {
+        Map<String, String> m = new LinkedHashMap<>();
+        m.put("cachePrepStmts", "true");
+        m.put("prepStmtCacheSize", "250");
+        m.put("prepStmtCacheSqlLimit", "2048");
+        m.put("useServerPrepStmts", "true");
+        MYSQL_DEFAULTS = Collections.unmodifiableMap(m);
+    }
 
+    /**
+     * 创建一个逻辑数据源， 配置了从库的时候为每个从库创建连接池， 返回读写分离的数据源
+     */
     public static DataSource createOne(DataSourceProps.HikariProps props) {
+        if (props.getReplicas() == null || props.getReplicas().length == 0) {
+            return createPool(props);
+        }
+        val primary = createPool(props);
+        List<DataSource> replicas = new ArrayList<>(props.getReplicas().length);
+        try {
+            for (int i = 0; i < props.getReplicas().length; i++) {
+                replicas.add(createPool(inherit(props, props.getReplicas()[i], i)));
+            }
+        } catch (RuntimeException e) {
+            close(primary);
+            replicas.forEach(HikariCPFactory::close);
+            throw e;
+        }
+        return new ReadWriteDataSource(props.getName(), primary, replicas, ReplicaSelector.of(props.getLoadBalance()));
+    }
+
+    /**
+     * 从库未配置的属性继承主库
+     */
+    private static DataSourceProps.HikariProps inherit(DataSourceProps.HikariProps primary,
+                                                       DataSourceProps.HikariProps replica, int idx) {
+        val result = new DataSourceProps.HikariProps();
+        result.setName(replica.getName() != null ? replica.getName() : primary.getName() + "-replica-" + idx);
+        result.setConnectionTimeout(or(replica.getConnectionTimeout(), primary.getConnectionTimeout()));
+        result.setIdleTimeout(or(replica.getIdleTimeout(), primary.getIdleTimeout()));
+        result.setConnectionTestQuery(or(replica.getConnectionTestQuery(), primary.getConnectionTestQuery()));
+        result.setMaximumPoolSize(or(replica.getMaximumPoolSize(), primary.getMaximumPoolSize()));
+        result.setDriverClassName(replica.getDriverClassName() != null ? replica.getDriverClassName() : primary.getDriverClassName());
+        result.setJdbcUrl(replica.getJdbcUrl());
+        result.setUsername(replica.getUsername() != null ? replica.getUsername() : primary.getUsername());
+        result.setPassword(replica.getPassword() != null ? replica.getPassword() : primary.getPassword());
+        result.setMinimumIdle(or(replica.getMinimumIdle(), primary.getMinimumIdle()));
+        result.setMaxLifetime(or(replica.getMaxLifetime(), primary.getMaxLifetime()));
+        result.setKeepaliveTime(or(replica.getKeepaliveTime(), primary.getKeepaliveTime()));
+        result.setValidationTimeout(or(replica.getValidationTimeout(), primary.getValidationTimeout()));
+        result.setLeakDetectionThreshold(or(replica.getLeakDetectionThreshold(), primary.getLeakDetectionThreshold()));
+        result.setInitializationFailTimeout(or(replica.getInitializationFailTimeout(), primary.getInitializationFailTimeout()));
+        result.setAutoCommit(or(replica.getAutoCommit(), primary.getAutoCommit()));
+        result.setReadOnly(or(replica.getReadOnly(), primary.getReadOnly()));
+        result.setTransactionIsolation(or(replica.getTransactionIsolation(), primary.getTransactionIsolation()));
+        result.setCatalog(or(replica.getCatalog(), primary.getCatalog()));
+        result.setSchema(or(replica.getSchema(), primary.getSchema()));
+        result.setConnectionInitSql(or(replica.getConnectionInitSql(), primary.getConnectionInitSql()));
+        result.setDataSourceProperties(or(replica.getDataSourceProperties(), primary.getDataSourceProperties()));
+        return result;
+    }
+
+    private static <T> T or(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+
+    private static DataSource createPool(DataSourceProps.HikariProps props) {
         HikariConfig config = new HikariConfig();
-        config.setConnectionTestQuery(props.getConnectionTestQuery());
-        config.setConnectionTimeout(props.getConnectionTimeout());
-        // config.setIdleTimeout(props.getIdleTimeout());
+        config.setConnectionTestQuery(or(props.getConnectionTestQuery(), DataSourceProps.HikariProps.DEFAULT_CONNECTION_TEST_QUERY));
+        config.setConnectionTimeout(or(props.getConnectionTimeout(), DataSourceProps.HikariProps.DEFAULT_CONNECTION_TIMEOUT));
+        config.setIdleTimeout(or(props.getIdleTimeout(), DataSourceProps.HikariProps.DEFAULT_IDLE_TIMEOUT));
         config.setDriverClassName(props.getDriverClassName());
         config.setPoolName(props.getName());
         config.setJdbcUrl(props.getJdbcUrl());
         config.setUsername(props.getUsername());
         config.setPassword(props.getPassword());
-        config.setMaximumPoolSize(props.getMaximumPoolSize());
-        config.addDataSourceProperty("dataSource.cachePrepStmts", "true");
-        config.addDataSourceProperty("dataSource.prepStmtCacheSize", "250");
-        config.addDataSourceProperty("dataSource.prepStmtCacheSqlLimit", "2048");
-        config.addDataSourceProperty("dataSource.useServerPrepStmts", "true");
+        config.setMaximumPoolSize(maximumPoolSize(props));
+        if (props.getMinimumIdle() != null) {
+            config.setMinimumIdle(props.getMinimumIdle());
+        }
+        if (props.getMaxLifetime() != null) {
+            config.setMaxLifetime(props.getMaxLifetime());
+        }
+        if (props.getKeepaliveTime() != null) {
+            config.setKeepaliveTime(props.getKeepaliveTime());
+        }
+        if (props.getValidationTimeout() != null) {
+            config.setValidationTimeout(props.getValidationTimeout());
+        }
+        if (props.getLeakDetectionThreshold() != null) {
+            config.setLeakDetectionThreshold(props.getLeakDetectionThreshold());
+        }
+        if (props.getInitializationFailTimeout() != null) {
+            config.setInitializationFailTimeout(props.getInitializationFailTimeout());
+        }
+        if (props.getAutoCommit() != null) {
+            config.setAutoCommit(props.getAutoCommit());
+        }
+        if (props.getReadOnly() != null) {
+            config.setReadOnly(props.getReadOnly());
+        }
+        config.setTransactionIsolation(props.getTransactionIsolation());
+        config.setCatalog(props.getCatalog());
+        config.setSchema(props.getSchema());
+        config.setConnectionInitSql(props.getConnectionInitSql());
+        val dsProps = props.getDataSourceProperties() != null ? props.getDataSourceProperties()
+                : isMysql(props) ? MYSQL_DEFAULTS : Collections.<String, String>emptyMap();
+        dsProps.forEach(config::addDataSourceProperty);
         log.info("createOne ----  datasource:{} of type:{} created...", props.getName(), props.getDriverClassName());
         return new HikariDataSource(config);
     }
 
 
+    /**
+     * 连接池的最大连接数， 未配置的时候为默认值
+     */
+    public static int maximumPoolSize(DataSourceProps.HikariProps props) {
+        return or(props.getMaximumPoolSize(), DataSourceProps.HikariProps.DEFAULT_MAXIMUM_POOL_SIZE);
+    }
+
+    private static boolean isMysql(DataSourceProps.HikariProps props) {
+        return props.getJdbcUrl() != null && props.getJdbcUrl().startsWith("jdbc:mysql:");
+    }
+
     /**
      * 创建结果为list
      */
     public static List<DataSource> createAll(DataSourceProps props) {
-        if (props.getList() == null || props.getList().length == 0) {
-            return Collections.emptyList();
-        }
-        List<DataSource> result = new ArrayList<>(props.getList().length);
-        for (val prop : props.getList()) {
-            result.add(createOne(prop));
-        }
-        return result;
+        return new ArrayList<>(createAllMap(props).values());
     }
 
     /**
-     * 创建结果为map
+     * 创建结果为map， 顺序与配置一致
+     * 各个连接池并行创建(每个连接池都会阻塞到拿到第一个连接)， 整体不超过配置的超时时间
+     * 任何一个失败都会关闭已经创建的连接池， 并在异常中列出所有失败的数据源
+     * lazy 模式下只创建 LazyDataSource， 第一次使用的时候再创建连接池
      */
     public static Map<String, DataSource> createAllMap(DataSourceProps props) {
         if (props.getList() == null || props.getList().length == 0) {
             return Collections.emptyMap();
         }
-        Map<String, DataSource> result = new HashMap<>(props.getList().length, 1);
-        for (val prop : props.getList()) {
+        val init = props.getInit() != null ? props.getInit() : new DataSourceProps.InitProps();
+        Map<String, DataSource> result = new LinkedHashMap<>(props.getList().length * 2);
+        if (init.isLazy()) {
+            for (val prop : props.getList()) {
+                result.put(prop.getName(), new LazyDataSource(prop.getName(), () -> createOne(prop),
+                        prop.getReplicas() != null && prop.getReplicas().length > 0));
+            }
+            return result;
+        }
+        if (props.getList().length == 1) {
+            val prop = props.getList()[0];
             result.put(prop.getName(), createOne(prop));
+            return result;
+        }
+        return createInParallel(props.getList(), init);
+    }
+
+    private static Map<String, DataSource> createInParallel(DataSourceProps.HikariProps[] list,
+                                                            DataSourceProps.InitProps init) {
+        int threads = init.getParallelism() > 0 ? init.getParallelism() : Math.min(list.length, MAX_INIT_THREADS);
+        val counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "sharding-pool-init-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // 所有创建成功的连接池， 失败的时候统一关闭； 超时之后才完成的由任务自己关闭
+        val created = new ArrayList<DataSource>(list.length);
+        val abandoned = new boolean[1];
+        Map<String, Future<DataSource>> futures = new LinkedHashMap<>(list.length * 2);
+        Map<String, DataSource> result = new LinkedHashMap<>(list.length * 2);
+        Map<String, Throwable> errors = new LinkedHashMap<>();
+        try {
+            for (val prop : list) {
+                futures.put(prop.getName(), executor.submit(() -> {
+                    val ds = createOne(prop);
+                    synchronized (created) {
+                        if (abandoned[0]) {
+                            close(ds);
+                        } else {
+                            created.add(ds);
+                        }
+                    }
+                    return ds;
+                }));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(init.getTimeout());
+            for (val entry : futures.entrySet()) {
+                try {
+                    long remaining = Math.max(0, deadline - System.nanoTime());
+                    result.put(entry.getKey(), entry.getValue().get(remaining, TimeUnit.NANOSECONDS));
+                } catch (ExecutionException e) {
+                    errors.put(entry.getKey(), e.getCause());
+                } catch (TimeoutException e) {
+                    errors.put(entry.getKey(), new TimeoutException("not ready in " + init.getTimeout() + "ms"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    errors.put(entry.getKey(), e);
+                }
+            }
+            if (errors.isEmpty()) {
+                return result;
+            }
+            synchronized (created) {
+                abandoned[0] = true;
+                created.forEach(HikariCPFactory::close);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        StringBuilder msg = new StringBuilder("failed to create ").append(errors.size()).append(" of ")
+                .append(list.length).append(" datasource(s):");
+        for (val entry : errors.entrySet()) {
+            msg.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        IllegalStateException ex = new IllegalStateException(msg.toString());
+        errors.values().forEach(ex::addSuppressed);
+        throw ex;
+    }
+
+    /**
+     * 关闭数据源， 包括读写分离数据源的主库和从库
+     */
+    public static void close(DataSource ds) {
+        if (ds instanceof HikariDataSource) {
+            ((HikariDataSource) ds).close();
+        } else if (ds instanceof ReadWriteDataSource) {
+            close(((ReadWriteDataSource) ds).getPrimary());
+            ((ReadWriteDataSource) ds).getReplicas().forEach(HikariCPFactory::close);
+        } else if (ds instanceof LazyDataSource && ((LazyDataSource) ds).getTarget() != null) {
+            close(((LazyDataSource) ds).getTarget());
         }
-        return result;
     }
 }
@@ -0,0 +1,108 @@
+package com.winjeg.spring.sharding.factories;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 延迟创建的数据源， 第一次获取连接(即第一次路由到该分片并执行语句)的时候才创建连接池
+ * 只访问少数分片的服务不会和所有分片建立连接
+ * 创建失败不会缓存， 下一次获取连接的时候重试
+ * 是否读写分离由配置决定， 不需要等到连接池创建之后才知道
+ *
+ * @author winjeg
+ */
+@Slf4j
+public class LazyDataSource extends AbstractDataSource {
+    private final String name;
+    private final Supplier<DataSource> factory;
+    private final boolean readWrite;
+    private final List<Consumer<DataSource>> listeners = new CopyOnWriteArrayList<>();
+    private volatile DataSource target;
+
+    /**
+     * @param name      数据源名称
+     * @param factory   创建数据源
+     * @param readWrite 创建的是否为读写分离的数据源
+     */
+    public LazyDataSource(String name, Supplier<DataSource> factory, boolean readWrite) {
+        this.name = name;
+        this.factory = factory;
+        this.readWrite = readWrite;
+    }
+
+    /**
+     * @return 创建的是否为读写分离的数据源(配置了从库)
+     */
+    public boolean isReadWrite() {
+        return readWrite;
+    }
+
+    /**
+     * 数据源创建之后回调， 已经创建的立即回调
+     *
+     * @param listener 参数为创建的数据源
+     */
+    public void onCreated(Consumer<DataSource> listener) {
+        synchronized (this) {
+            if (target == null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.accept(target);
+    }
+
+    /**
+     * 已经创建的数据源
+     *
+     * @return 还没有创建返回 null
+     */
+    public DataSource getTarget() {
+        return target;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return resolve().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return resolve().getConnection(username, password);
+    }
+
+    private DataSource resolve() throws SQLException {
+        DataSource ds = target;
+        if (ds != null) {
+            return ds;
+        }
+        synchronized (this) {
+            if (target == null) {
+                try {
+                    target = factory.get();
+                } catch (RuntimeException e) {
+                    throw new SQLException("failed to create datasource: " + name, e);
+                }
+                log.info("resolve - lazy datasource:{} created", name);
+                for (val listener : listeners) {
+                    try {
+                        listener.accept(target);
+                    } catch (RuntimeException e) {
+                        log.warn("resolve - listener of lazy datasource:{} failed", name, e);
+                    }
+                }
+                listeners.clear();
+            }
+            return target;
+        }
+    }
+}
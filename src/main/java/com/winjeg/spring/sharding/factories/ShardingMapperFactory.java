@@ -2,9 +2,14 @@ package com.winjeg.spring.sharding.factories;
 
 import com.winjeg.spring.sharding.core.ShardingCoreHandler;
 import com.winjeg.spring.sharding.core.SqlSessionFactoryManager;
+import com.winjeg.spring.sharding.exec.CallerRunsShardExecutor;
+import com.winjeg.spring.sharding.exec.DatasourceLimiter;
+import com.winjeg.spring.sharding.exec.ShardExecutor;
+import com.winjeg.spring.sharding.metrics.ShardingMetrics;
+import com.winjeg.spring.sharding.utils.ClassScanUtils;
 import lombok.val;
 
-import java.lang.reflect.Proxy;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -12,25 +17,45 @@ import static com.winjeg.spring.sharding.utils.ResourceUtil.getShardingAnno;
 
 
 /**
- * 核心逻辑之二， 分库分表动态代理的实现处
+ * 核心逻辑之二， 分库分表分发类的创建处
  *
  * @author winjeg
  */
 public class ShardingMapperFactory {
 
-    private static final Map<Class<?>, ShardingCoreHandler> HANDLER_MAP = new ConcurrentHashMap<>();
+    /**
+     * 生成的分发类， 类名是固定的， 同一个 mapper 只能生成一次， 之后的 createProxy 复用
+     * 分发类只持有 handler 的引用， 不同的工厂(容器)之间可以共用
+     */
+    private static final Map<Class<?>, Class<?>> DISPATCHER_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 每个工厂自己的 handler， handler 持有本工厂的执行器和运行指标， 容器关闭之后随工厂一起回收
+     */
+    private final Map<Class<?>, ShardingCoreHandler> handlers = new ConcurrentHashMap<>();
 
     private final SqlSessionFactoryManager sessionFactoryManager;
 
     private final ClassManager classManager;
 
+    private final ShardExecutor executor;
+
+    private final ShardingMetrics metrics;
+
     public ShardingMapperFactory(SqlSessionFactoryManager sessionFactoryManager, ClassManager classManager) {
+        this(sessionFactoryManager, classManager, new CallerRunsShardExecutor(new DatasourceLimiter(null)), null);
+    }
+
+    public ShardingMapperFactory(SqlSessionFactoryManager sessionFactoryManager, ClassManager classManager,
+                                 ShardExecutor executor, ShardingMetrics metrics) {
         this.sessionFactoryManager = sessionFactoryManager;
         this.classManager = classManager;
+        this.executor = executor;
+        this.metrics = metrics;
     }
 
     /**
-     * 创建动态代理， 基于jdk
+     * 创建分发对象， 基于 ByteBuddy 生成的实现类， 直接调用路由到的 mapper
      *
      * @param clz 代理接口类型
      */
@@ -38,14 +63,30 @@ public class ShardingMapperFactory {
         val sharding = getShardingAnno(clz);
         boolean isSharding = sharding.dbRule().length() != 0 || sharding.tableRule().length() != 0;
         if (isSharding) {
-            ShardingCoreHandler handler = HANDLER_MAP.get(clz);
+            ShardingCoreHandler handler = handlers.get(clz);
             if (handler == null) {
-                handler = new ShardingCoreHandler(sharding, sessionFactoryManager, clz, classManager);
-                HANDLER_MAP.putIfAbsent(clz, handler);
+                handler = new ShardingCoreHandler(sharding, sessionFactoryManager, clz, classManager, executor, metrics);
+                val existing = handlers.putIfAbsent(clz, handler);
+                if (existing != null) {
+                    handler = existing;
+                }
+            }
+            val h = handler;
+            val dispatcher = DISPATCHER_MAP.computeIfAbsent(clz, c -> ClassScanUtils.generateDispatcher(c, h));
+            try {
+                return (T) dispatcher.getConstructor(ShardingCoreHandler.class).newInstance(handler);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("failed to create dispatcher for " + clz.getCanonicalName(), e);
             }
-            return (T) Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[]{clz}, handler);
         } else {
             return null;
         }
     }
+
+    /**
+     * @return 已经创建的所有 handler
+     */
+    public Collection<ShardingCoreHandler> getHandlers() {
+        return handlers.values();
+    }
 }
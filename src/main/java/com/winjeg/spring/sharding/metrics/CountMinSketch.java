@@ -0,0 +1,103 @@
+package com.winjeg.spring.sharding.metrics;
+
+import com.winjeg.spring.sharding.route.KeyHash;
+
+import java.util.Arrays;
+
+/**
+ * 固定内存的 Count-Min 频率估计， 单线程记录的时候估计值只会偏大， 不会偏小
+ * 每一行用双重 hash 取一个位置， 记录只有 depth 次数组自增， 没有锁也不分配对象
+ * 计数不使用原子操作， 并发记录的时候可能丢失一部分， 估计值也可能偏小；
+ * 多线程频繁记录同一个键会争用同一个缓存行， 调用方应当抽样记录(见 HotKeyStats)
+ * decay 把所有计数减半， 使估计值成为按时间衰减的频率
+ *
+ * @author winjeg
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int mask;
+    private final long[] cells;
+
+    /**
+     * @param depth 行数， 越多估计越准确
+     * @param width 每行的宽度， 向上取 2 的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("depth and width should be positive");
+        }
+        int w = Integer.highestOneBit(width);
+        if (w < width) {
+            w <<= 1;
+        }
+        this.depth = depth;
+        this.mask = w - 1;
+        this.cells = new long[depth * w];
+    }
+
+    /**
+     * 记录一次
+     *
+     * @param key 键
+     * @return 记录之后的估计值
+     */
+    public long add(long key) {
+        long h = KeyHash.finish(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            long v = ++cells[i * (mask + 1) + ((h1 + i * h2) & mask)];
+            if (v < min) {
+                min = v;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @param key 键
+     * @return 估计值
+     */
+    public long estimate(long key) {
+        long h = KeyHash.finish(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            long v = cells[i * (mask + 1) + ((h1 + i * h2) & mask)];
+            if (v < min) {
+                min = v;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * 所有计数减半
+     */
+    public void decay() {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] >>= 1;
+        }
+    }
+
+    /**
+     * @return 记录的总次数(第一行计数之和)， 与 add 并发的时候是近似值
+     */
+    public long total() {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += cells[i];
+        }
+        return sum;
+    }
+
+    public int width() {
+        return mask + 1;
+    }
+
+    public void clear() {
+        Arrays.fill(cells, 0);
+    }
+}
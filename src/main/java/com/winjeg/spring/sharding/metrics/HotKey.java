@@ -0,0 +1,47 @@
+package com.winjeg.spring.sharding.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * 一个热点分片键
+ *
+ * @author winjeg
+ */
+public class HotKey {
+    private final long key;
+    private final long count;
+    private final String datasource;
+
+    @ConstructorProperties({"key", "count", "datasource"})
+    public HotKey(long key, long count, String datasource) {
+        this.key = key;
+        this.count = count;
+        this.datasource = datasource;
+    }
+
+    /**
+     * 分片键， String/UUID 等为按 Sharding.keyHash 转换之后的值
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * 按时间衰减的调用次数估计值
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 路由到的数据源
+     */
+    public String getDatasource() {
+        return datasource;
+    }
+
+    @Override
+    public String toString() {
+        return key + "@" + datasource + "=" + count;
+    }
+}
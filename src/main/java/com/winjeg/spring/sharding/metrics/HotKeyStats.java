@@ -0,0 +1,282 @@
+package com.winjeg.spring.sharding.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个 mapper 的热点分片键和各数据源的负载
+ * 按分片键路由的调用按 1/sampling 的概率抽样记录到 Count-Min 中， 热点键的调用很多， 抽样之后仍然能找出来，
+ * 而多个线程同时写同一个热点键的计数(同一个缓存行)的争用减少为 1/sampling， 报告的次数乘以 sampling
+ * 估计值超过当前 top-K 最小值以及 2 * 总次数 / 宽度(Count-Min 的平均误差)
+ * 的键才会尝试进入 top-K， 只是偶尔出现的键不会反复比较，
+ * 已经在 top-K 中的键只是一次数组扫描， 记录的过程没有锁也不分配对象
+ * 后台线程每秒计算一次各数据源的速率(1 分钟衰减平均)， 每 halfLife 秒把 Count-Min 的计数减半，
+ * 不再使用的时候需要 close， 所有统计都关闭之后后台线程退出
+ *
+ * @author winjeg
+ */
+@Slf4j
+public class HotKeyStats implements HotKeyStatsMXBean {
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048;
+    private static final double ALPHA = 1 - Math.exp(-1d / 60);
+    private static final Entry[] EMPTY = new Entry[0];
+    private static final List<HotKeyStats> TRACKED = new CopyOnWriteArrayList<>();
+    private static ScheduledExecutorService ticker;
+
+    private final String mapper;
+    private final String[] datasources;
+    private final Map<String, PoolStats> pools;
+    private final int topK;
+    private final int halfLife;
+    private final int sampling;
+    private final CountMinSketch sketch = new CountMinSketch(DEPTH, WIDTH);
+    private final LongAdder[] calls;
+    private final AtomicReference<Entry[]> entries = new AtomicReference<>(EMPTY);
+    /**
+     * top-K 已满时其中最小的估计值， 没满为 0
+     */
+    private volatile long threshold;
+    /**
+     * 进入 top-K 的最小估计值， 每秒按总次数计算
+     */
+    private volatile long floor;
+    private volatile double[] rates;
+    private int ticks;
+
+    /**
+     * @param mapper      mapper 名称
+     * @param datasources 数据源， 下标与路由结果一致
+     * @param pools       按名称查找连接池统计
+     * @param topK        热点键的数量
+     * @param halfLife    计数减半的间隔(秒)
+     * @param sampling    每 sampling 次调用记录一次(随机抽样)， 1 为全部记录
+     */
+    public HotKeyStats(String mapper, String[] datasources, Map<String, PoolStats> pools, int topK, int halfLife,
+                       int sampling) {
+        this.mapper = mapper;
+        this.datasources = datasources;
+        this.pools = pools;
+        this.topK = topK;
+        this.halfLife = Math.max(1, halfLife);
+        this.sampling = Math.max(1, sampling);
+        this.calls = new LongAdder[datasources.length];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new LongAdder();
+        }
+        this.rates = new double[datasources.length];
+        track(this);
+    }
+
+    /**
+     * 记录一次按分片键的路由
+     *
+     * @param key             分片键
+     * @param datasourceIndex 路由到的数据源下标
+     */
+    public void record(long key, int datasourceIndex) {
+        calls[datasourceIndex].increment();
+        if (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return;
+        }
+        long estimate = sketch.add(key);
+        if (estimate > threshold && estimate > floor) {
+            offer(key, datasourceIndex, estimate);
+        }
+    }
+
+    private void offer(long key, int datasourceIndex, long estimate) {
+        while (true) {
+            val current = entries.get();
+            for (val e : current) {
+                if (e.key == key) {
+                    return;
+                }
+            }
+            Entry[] next;
+            if (current.length < topK) {
+                next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = new Entry(key, datasourceIndex);
+            } else {
+                int min = 0;
+                long minCount = Long.MAX_VALUE;
+                for (int i = 0; i < current.length; i++) {
+                    long c = sketch.estimate(current[i].key);
+                    if (c < minCount) {
+                        minCount = c;
+                        min = i;
+                    }
+                }
+                if (estimate <= minCount) {
+                    threshold = minCount;
+                    return;
+                }
+                next = current.clone();
+                next[min] = new Entry(key, datasourceIndex);
+            }
+            if (entries.compareAndSet(current, next)) {
+                threshold = next.length < topK ? 0 : minEstimate(next);
+                return;
+            }
+        }
+    }
+
+    private long minEstimate(Entry[] list) {
+        long min = Long.MAX_VALUE;
+        for (val e : list) {
+            min = Math.min(min, sketch.estimate(e.key));
+        }
+        return min;
+    }
+
+    /**
+     * 每秒调用一次
+     */
+    private void tick() {
+        val previous = rates;
+        double[] next = new double[calls.length];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = previous[i] + ALPHA * (calls[i].sumThenReset() - previous[i]);
+        }
+        rates = next;
+        if (++ticks % halfLife == 0) {
+            sketch.decay();
+            threshold = threshold >> 1;
+        }
+        floor = sketch.total() * 2 / sketch.width();
+    }
+
+    private static synchronized void track(HotKeyStats stats) {
+        TRACKED.add(stats);
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sharding-hot-keys");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(() -> {
+            for (val s : TRACKED) {
+                try {
+                    s.tick();
+                } catch (RuntimeException e) {
+                    log.warn("tick - failed to update hot keys of {}", s.mapper, e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止后台的更新， 关闭之后的记录不再计算速率和衰减
+     */
+    public void close() {
+        untrack(this);
+    }
+
+    private static synchronized void untrack(HotKeyStats stats) {
+        TRACKED.remove(stats);
+        if (TRACKED.isEmpty() && ticker != null) {
+            ticker.shutdown();
+            ticker = null;
+        }
+    }
+
+    @Override
+    public String getMapper() {
+        return mapper;
+    }
+
+    @Override
+    public List<HotKey> getTopKeys() {
+        List<HotKey> result = new ArrayList<>();
+        for (val e : entries.get()) {
+            long count = sketch.estimate(e.key);
+            if (count > 0) {
+                result.add(new HotKey(e.key, count * sampling, datasources[e.datasourceIndex]));
+            }
+        }
+        result.sort(Comparator.comparingLong(HotKey::getCount).reversed());
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getDatasourceRates() {
+        val current = rates;
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < datasources.length; i++) {
+            result.put(datasources[i], current[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 没有调用的时候为 0
+     */
+    @Override
+    public double getImbalance() {
+        val current = rates;
+        double max = 0;
+        double sum = 0;
+        for (val r : current) {
+            max = Math.max(max, r);
+            sum += r;
+        }
+        return sum == 0 ? 0 : max * current.length / sum;
+    }
+
+    @Override
+    public String getHottestDatasource() {
+        val current = rates;
+        int hottest = -1;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] > 0 && (hottest < 0 || current[i] > current[hottest])) {
+                hottest = i;
+            }
+        }
+        return hottest < 0 ? null : datasources[hottest];
+    }
+
+    @Override
+    public Map<String, Double> getPoolSaturation() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (val ds : datasources) {
+            val pool = pools.get(ds);
+            if (pool != null) {
+                result.put(ds, pool.getSaturation());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        entries.set(EMPTY);
+        threshold = 0;
+        floor = 0;
+        sketch.clear();
+        for (val c : calls) {
+            c.reset();
+        }
+        rates = new double[datasources.length];
+    }
+
+    private static final class Entry {
+        private final long key;
+        private final int datasourceIndex;
+
+        Entry(long key, int datasourceIndex) {
+            this.key = key;
+            this.datasourceIndex = datasourceIndex;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.winjeg.spring.sharding.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个 mapper 的热点分片键和各数据源的负载， 次数和速率按时间衰减
+ *
+ * @author winjeg
+ */
+public interface HotKeyStatsMXBean {
+
+    String getMapper();
+
+    /**
+     * 按调用次数从大到小排列的热点分片键
+     */
+    List<HotKey> getTopKeys();
+
+    /**
+     * 每个数据源每秒按分片键路由的次数(1 分钟衰减平均)
+     */
+    Map<String, Double> getDatasourceRates();
+
+    /**
+     * 负载最高的数据源的速率 / 平均速率， 1 为完全均衡
+     */
+    double getImbalance();
+
+    String getHottestDatasource();
+
+    /**
+     * 每个数据源连接池的饱和度： 活跃连接 / 最大连接数
+     */
+    Map<String, Double> getPoolSaturation();
+
+    void reset();
+}
@@ -0,0 +1,75 @@
+package com.winjeg.spring.sharding.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * 默认的指标发布方式， 注册到平台 MBeanServer
+ * <pre>
+ * com.winjeg.sharding:type=Shard,mapper=..,method=..,datasource=..,table=..
+ * com.winjeg.sharding:type=Routing,mapper=..,method=..
+ * com.winjeg.sharding:type=Pool,name=..
+ * com.winjeg.sharding:type=RouteCache,mapper=..
+ * com.winjeg.sharding:type=HotKeys,mapper=..
+ * com.winjeg.sharding:type=ResultCache,mapper=..
+ * </pre>
+ *
+ * @author winjeg
+ */
+@Slf4j
+public class JmxMetricsRegistry implements MetricsRegistry {
+    public static final String DOMAIN = "com.winjeg.sharding";
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Override
+    public void registerShard(ShardStatsMXBean stats) {
+        register(stats, "type=Shard,mapper=" + ObjectName.quote(stats.getMapper())
+                + ",method=" + ObjectName.quote(stats.getMethod())
+                + ",datasource=" + ObjectName.quote(stats.getDatasource())
+                + ",table=" + ObjectName.quote(String.valueOf(stats.getTable())));
+    }
+
+    @Override
+    public void registerRouting(RoutingStatsMXBean stats) {
+        register(stats, "type=Routing,mapper=" + ObjectName.quote(stats.getMapper())
+                + ",method=" + ObjectName.quote(stats.getMethod()));
+    }
+
+    @Override
+    public void registerPool(PoolStatsMXBean stats) {
+        register(stats, "type=Pool,name=" + ObjectName.quote(stats.getName()));
+    }
+
+    @Override
+    public void registerRouteCache(RouteCacheMXBean stats) {
+        register(stats, "type=RouteCache,mapper=" + ObjectName.quote(stats.getMapper()));
+    }
+
+    @Override
+    public void registerHotKeys(HotKeyStatsMXBean stats) {
+        register(stats, "type=HotKeys,mapper=" + ObjectName.quote(stats.getMapper()));
+    }
+
+    @Override
+    public void registerResultCache(ResultCacheMXBean stats) {
+        register(stats, "type=ResultCache,mapper=" + ObjectName.quote(stats.getMapper()));
+    }
+
+    /**
+     * 注册 MBean， 重复注册时替换旧的
+     */
+    public void register(Object bean, String properties) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        } catch (Exception e) {
+            log.warn("register - failed to register mbean:{}", properties, e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.winjeg.spring.sharding.metrics;
+
+import lombok.val;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HDR 风格的对数-线性直方图， 单位纳秒
+ * 每个 2 的幂区间再线性划分为 16 个子桶， 相对误差不超过 6.25%
+ * 记录只是一次数组下标计算和一次 LongAdder 累加， 没有锁也不分配对象；
+ * 耗时相近的调用会落在同一个桶里， LongAdder 在多线程争用的时候分散到不同的 cell， 避免都 CAS 同一个缓存行
+ *
+ * @author winjeg
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /**
+     * 最大记录 2^37 纳秒(约 137 秒)， 超过的计入最后一个桶
+     */
+    private static final int MAX_EXP = 36;
+    private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[index(nanos)].increment();
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        long c = count.sum();
+        return c == 0 ? 0 : (double) sum.sum() / c;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 计算分位数
+     *
+     * @param q 0 到 1 之间， 例如 0.99
+     * @return 分位数所在桶的中间值， 纳秒
+     */
+    public long percentile(double q) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(middle(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (val c : counts) {
+            c.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    static int index(long v) {
+        if (v < SUB_COUNT) {
+            return (int) v;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp > MAX_EXP) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long middle(int idx) {
+        if (idx < SUB_COUNT) {
+            return idx;
+        }
+        int exp = idx / SUB_COUNT + SUB_BITS - 1;
+        int sub = idx % SUB_COUNT;
+        long width = 1L << (exp - SUB_BITS);
+        long lower = (1L << exp) + sub * width;
+        return lower + width / 2;
+    }
+}
@@ -0,0 +1,103 @@
+package com.winjeg.spring.sharding.metrics;
+
+import com.winjeg.spring.sharding.utils.NameUtils;
+import org.apache.ibatis.binding.MapperMethod;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录每个语句在当前数据源、当前表上的执行耗时、错误数以及正在执行的数量
+ * 每个数据源一个实例， 表名从生成接口的 tableName 参数上读取
+ * 游标查询只统计打开游标的耗时
+ *
+ * @author winjeg
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor",
+                args = {MappedStatement.class, Object.class, RowBounds.class})
+})
+public class MetricsInterceptor implements Interceptor {
+    private static final String TABLE_PARAM = "tableName";
+    private static final String NO_TABLE = "";
+
+    private final ShardingMetrics metrics;
+    private final String datasource;
+    /**
+     * 生成接口的类名后缀， 去掉后即为原始 mapper 的类名
+     */
+    private final String suffix;
+    /**
+     * MappedStatement 为 key， 值为按表名索引的统计
+     */
+    private final Map<MappedStatement, Map<String, ShardStats>> stats = new ConcurrentHashMap<>();
+
+    MetricsInterceptor(ShardingMetrics metrics, String datasource) {
+        this.metrics = metrics;
+        this.datasource = datasource;
+        this.suffix = NameUtils.buildClassName(datasource, "");
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object[] args = invocation.getArgs();
+        ShardStats shard = stats((MappedStatement) args[0], table(args[1]));
+        long start = shard.start();
+        boolean success = false;
+        try {
+            Object result = invocation.proceed();
+            success = true;
+            return result;
+        } finally {
+            shard.end(start, success);
+        }
+    }
+
+    private ShardStats stats(MappedStatement ms, String table) {
+        Map<String, ShardStats> tables = stats.get(ms);
+        if (tables == null) {
+            tables = stats.computeIfAbsent(ms, k -> new ConcurrentHashMap<>());
+        }
+        ShardStats shard = tables.get(table);
+        if (shard == null) {
+            shard = tables.computeIfAbsent(table, t -> create(ms, t));
+        }
+        return shard;
+    }
+
+    private ShardStats create(MappedStatement ms, String table) {
+        String id = ms.getId();
+        int dot = id.lastIndexOf('.');
+        String mapper = dot < 0 ? id : id.substring(0, dot);
+        if (!suffix.isEmpty() && mapper.endsWith(suffix)) {
+            mapper = mapper.substring(0, mapper.length() - suffix.length());
+        }
+        return metrics.shard(mapper, id.substring(dot + 1), datasource, table);
+    }
+
+    private static String table(Object parameter) {
+        if (parameter instanceof MapperMethod.ParamMap) {
+            MapperMethod.ParamMap<?> params = (MapperMethod.ParamMap<?>) parameter;
+            if (params.containsKey(TABLE_PARAM)) {
+                Object table = params.get(TABLE_PARAM);
+                return table instanceof String ? (String) table : NO_TABLE;
+            }
+        }
+        return NO_TABLE;
+    }
+}
@@ -0,0 +1,43 @@
+package com.winjeg.spring.sharding.metrics;
+
+/**
+ * 指标的发布方式， 默认为 JMX， 可以通过 datasource.metrics.registry 配置自定义的实现类(需要无参构造函数)
+ * 统计对象在第一次出现的时候注册一次， 之后由实现方自行拉取
+ *
+ * @author winjeg
+ */
+public interface MetricsRegistry {
+
+    /**
+     * 一个 mapper 方法在一个分片上的执行统计
+     */
+    void registerShard(ShardStatsMXBean stats);
+
+    /**
+     * 一个 mapper 方法的路由统计
+     */
+    void registerRouting(RoutingStatsMXBean stats);
+
+    /**
+     * 一个连接池
+     */
+    void registerPool(PoolStatsMXBean stats);
+
+    /**
+     * 一个 mapper 的路由结果缓存， 只有开启了缓存的 mapper 才会注册
+     */
+    default void registerRouteCache(RouteCacheMXBean stats) {
+    }
+
+    /**
+     * 一个 mapper 的热点分片键和数据源负载， 只有开启了热点统计才会注册
+     */
+    default void registerHotKeys(HotKeyStatsMXBean stats) {
+    }
+
+    /**
+     * 一个 mapper 的查询结果缓存， 只有存在 Cached 方法的 mapper 才会注册
+     */
+    default void registerResultCache(ResultCacheMXBean stats) {
+    }
+}
@@ -0,0 +1,62 @@
+package com.winjeg.spring.sharding.metrics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * 基于 HikariPoolMXBean 的连接池统计， 连接池还没有启动的时候各项均为 0
+ *
+ * @author winjeg
+ */
+public class PoolStats implements PoolStatsMXBean {
+    private final String name;
+    private final HikariDataSource dataSource;
+
+    public PoolStats(String name, HikariDataSource dataSource) {
+        this.name = name;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getIdleConnections();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getTotalConnections();
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * 活跃连接 / 最大连接数
+     */
+    @Override
+    public double getSaturation() {
+        int max = dataSource.getMaximumPoolSize();
+        return max <= 0 ? 0 : (double) getActiveConnections() / max;
+    }
+}
@@ -0,0 +1,23 @@
+package com.winjeg.spring.sharding.metrics;
+
+/**
+ * 连接池的使用情况
+ *
+ * @author winjeg
+ */
+public interface PoolStatsMXBean {
+
+    String getName();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    int getThreadsAwaitingConnection();
+
+    int getMaximumPoolSize();
+
+    double getSaturation();
+}
@@ -0,0 +1,29 @@
+package com.winjeg.spring.sharding.metrics;
+
+/**
+ * 一个 mapper 的查询结果缓存
+ *
+ * @author winjeg
+ */
+public interface ResultCacheMXBean {
+
+    String getMapper();
+
+    int getCapacity();
+
+    int getSize();
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    long getInvalidations();
+
+    double getHitRatio();
+
+    void clear();
+
+    void resetCounters();
+}
@@ -0,0 +1,25 @@
+package com.winjeg.spring.sharding.metrics;
+
+/**
+ * 一个 mapper 的路由结果缓存
+ *
+ * @author winjeg
+ */
+public interface RouteCacheMXBean {
+
+    String getMapper();
+
+    int getCapacity();
+
+    int getSize();
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    double getHitRatio();
+
+    void resetCounters();
+}
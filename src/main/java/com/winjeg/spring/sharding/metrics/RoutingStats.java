@@ -0,0 +1,97 @@
+package com.winjeg.spring.sharding.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一个 mapper 方法的路由耗时统计
+ * 路由计算只有几纳秒， 每次都计时的开销(两次 nanoTime 和直方图的累加)比计算本身还大，
+ * 所以按 1/sampling 的概率抽样计时， 调用次数按抽样的次数乘以 sampling 估算
+ *
+ * @author winjeg
+ */
+public class RoutingStats implements RoutingStatsMXBean {
+    private final String mapper;
+    private final String method;
+    private final int sampling;
+    private final LatencyHistogram datasource = new LatencyHistogram();
+    private final LatencyHistogram table = new LatencyHistogram();
+
+    public RoutingStats(String mapper, String method) {
+        this(mapper, method, 1);
+    }
+
+    /**
+     * @param sampling 每 sampling 次调用计时一次(随机抽样)， 1 为全部计时
+     */
+    public RoutingStats(String mapper, String method, int sampling) {
+        this.mapper = mapper;
+        this.method = method;
+        this.sampling = Math.max(1, sampling);
+    }
+
+    /**
+     * @return 这一次调用是否需要计时
+     */
+    public boolean sample() {
+        return sampling == 1 || ThreadLocalRandom.current().nextInt(sampling) == 0;
+    }
+
+    public void recordDatasource(long nanos) {
+        datasource.record(nanos);
+    }
+
+    public void recordTable(long nanos) {
+        table.record(nanos);
+    }
+
+    @Override
+    public String getMapper() {
+        return mapper;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public long getCalls() {
+        return datasource.getCount() * sampling;
+    }
+
+    @Override
+    public double getMeanNanos() {
+        return datasource.getMean();
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return datasource.percentile(0.99);
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return datasource.getMax();
+    }
+
+    @Override
+    public double getTableMeanNanos() {
+        return table.getMean();
+    }
+
+    @Override
+    public long getTableP99Nanos() {
+        return table.percentile(0.99);
+    }
+
+    @Override
+    public long getTableMaxNanos() {
+        return table.getMax();
+    }
+
+    @Override
+    public void resetLatency() {
+        datasource.reset();
+        table.reset();
+    }
+}
@@ -0,0 +1,29 @@
+package com.winjeg.spring.sharding.metrics;
+
+/**
+ * 一个 mapper 方法的路由耗时， 分别统计数据源规则和表规则的计算， 时间单位为纳秒
+ *
+ * @author winjeg
+ */
+public interface RoutingStatsMXBean {
+
+    String getMapper();
+
+    String getMethod();
+
+    long getCalls();
+
+    double getMeanNanos();
+
+    long getP99Nanos();
+
+    long getMaxNanos();
+
+    double getTableMeanNanos();
+
+    long getTableP99Nanos();
+
+    long getTableMaxNanos();
+
+    void resetLatency();
+}
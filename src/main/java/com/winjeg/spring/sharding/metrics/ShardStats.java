@@ -0,0 +1,118 @@
+package com.winjeg.spring.sharding.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个 mapper 方法在一个分片上的执行统计
+ *
+ * @author winjeg
+ */
+public class ShardStats implements ShardStatsMXBean {
+    private static final double NANOS_PER_MICRO = 1000d;
+
+    private final String mapper;
+    private final String method;
+    private final String datasource;
+    private final String table;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public ShardStats(String mapper, String method, String datasource, String table) {
+        this.mapper = mapper;
+        this.method = method;
+        this.datasource = datasource;
+        this.table = table;
+    }
+
+    /**
+     * 开始执行
+     *
+     * @return 开始时间
+     */
+    public long start() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * 执行结束
+     *
+     * @param start   start 的返回值
+     * @param success 是否成功
+     */
+    public void end(long start, boolean success) {
+        latency.record(System.nanoTime() - start);
+        inFlight.decrement();
+        calls.increment();
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    @Override
+    public String getMapper() {
+        return mapper;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getDatasource() {
+        return datasource;
+    }
+
+    @Override
+    public String getTable() {
+        return table;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latency.getMean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latency.percentile(0.5) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latency.percentile(0.99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latency.percentile(0.999) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latency.getMax() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public void resetLatency() {
+        latency.reset();
+    }
+}
@@ -0,0 +1,38 @@
+package com.winjeg.spring.sharding.metrics;
+
+/**
+ * 一个 mapper 方法在一个分片(数据源 + 表)上的执行情况， 时间单位为微秒
+ *
+ * @author winjeg
+ */
+public interface ShardStatsMXBean {
+
+    String getMapper();
+
+    String getMethod();
+
+    String getDatasource();
+
+    String getTable();
+
+    long getCalls();
+
+    long getErrors();
+
+    long getInFlight();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    /**
+     * 清空延迟直方图， 计数器不清空
+     */
+    void resetLatency();
+}
@@ -0,0 +1,182 @@
+package com.winjeg.spring.sharding.metrics;
+
+import com.winjeg.spring.sharding.core.DatasourceManager;
+import com.winjeg.spring.sharding.factories.LazyDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.val;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分库分表的运行指标， 统计对象第一次出现的时候创建并注册到 MetricsRegistry
+ * 之后的记录只有 ConcurrentHashMap 的读取和 LongAdder 的累加
+ *
+ * @author winjeg
+ */
+public class ShardingMetrics {
+    public static final int DEFAULT_HOT_KEYS = 16;
+    public static final int DEFAULT_HOT_KEY_HALF_LIFE = 10;
+    public static final int DEFAULT_HOT_KEY_SAMPLING = 16;
+    public static final int DEFAULT_ROUTING_SAMPLING = 16;
+
+    private final MetricsRegistry registry;
+    private final Map<String, ShardStats> shards = new ConcurrentHashMap<>();
+    private final Map<String, PoolStats> pools = new ConcurrentHashMap<>();
+    private final Map<String, HotKeyStats> hotKeys = new ConcurrentHashMap<>();
+    private final int topKeys;
+    private final int halfLife;
+    private final int sampling;
+    private final int routingSampling;
+
+    public ShardingMetrics(MetricsRegistry registry) {
+        this(registry, DEFAULT_HOT_KEYS, DEFAULT_HOT_KEY_HALF_LIFE, DEFAULT_HOT_KEY_SAMPLING);
+    }
+
+    public ShardingMetrics(MetricsRegistry registry, int topKeys, int halfLife, int sampling) {
+        this(registry, topKeys, halfLife, sampling, DEFAULT_ROUTING_SAMPLING);
+    }
+
+    /**
+     * @param registry 发布方式
+     * @param topKeys  每个 mapper 统计的热点分片键数量， 0 为不统计
+     * @param halfLife 热点计数减半的间隔(秒)
+     * @param sampling        热点统计每 sampling 次调用记录一次
+     * @param routingSampling 路由耗时每 routingSampling 次调用计时一次
+     */
+    public ShardingMetrics(MetricsRegistry registry, int topKeys, int halfLife, int sampling, int routingSampling) {
+        this.registry = registry;
+        this.topKeys = topKeys;
+        this.halfLife = halfLife;
+        this.sampling = sampling;
+        this.routingSampling = routingSampling;
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 为 mapper 方法创建路由统计
+     *
+     * @param mapper 原始 mapper 接口
+     * @param method 方法
+     * @return 路由统计
+     */
+    public RoutingStats routing(Class<?> mapper, Method method) {
+        val stats = new RoutingStats(mapper.getCanonicalName(), signature(method), routingSampling);
+        registry.registerRouting(stats);
+        return stats;
+    }
+
+    /**
+     * 获取分片执行统计， 不存在则创建
+     *
+     * @param mapper     原始 mapper 接口名
+     * @param method     方法名
+     * @param datasource 数据源
+     * @param table      表名， 不分表为 null
+     * @return 分片执行统计
+     */
+    public ShardStats shard(String mapper, String method, String datasource, String table) {
+        val key = mapper + '#' + method + '@' + datasource + '/' + table;
+        val stats = shards.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        return shards.computeIfAbsent(key, k -> {
+            val created = new ShardStats(mapper, method, datasource, table);
+            registry.registerShard(created);
+            return created;
+        });
+    }
+
+    /**
+     * 为 mapper 创建热点分片键的统计
+     *
+     * @param mapper      原始 mapper 接口
+     * @param datasources 数据源， 下标与路由结果一致
+     * @return 热点统计， 没有开启返回 null
+     */
+    public HotKeyStats hotKeys(Class<?> mapper, String[] datasources) {
+        if (topKeys <= 0) {
+            return null;
+        }
+        val stats = new HotKeyStats(mapper.getCanonicalName(), datasources, pools, topKeys, halfLife, sampling);
+        val previous = hotKeys.put(stats.getMapper(), stats);
+        if (previous != null) {
+            previous.close();
+        }
+        registry.registerHotKeys(stats);
+        return stats;
+    }
+
+    /**
+     * @param mapper 原始 mapper 接口
+     * @return 热点统计， 不存在返回 null
+     */
+    public HotKeyStats getHotKeys(Class<?> mapper) {
+        return hotKeys.get(mapper.getCanonicalName());
+    }
+
+    /**
+     * 所有 mapper 的热点统计
+     */
+    public Collection<HotKeyStats> getHotKeys() {
+        return Collections.unmodifiableCollection(hotKeys.values());
+    }
+
+    /**
+     * 关闭所有热点统计， 停止它们的后台更新， 容器关闭的时候调用
+     */
+    public void close() {
+        for (val stats : hotKeys.values()) {
+            stats.close();
+        }
+        hotKeys.clear();
+    }
+
+    /**
+     * 为某个数据源创建执行统计的拦截器
+     */
+    public MetricsInterceptor interceptor(String datasource) {
+        return new MetricsInterceptor(this, datasource);
+    }
+
+    /**
+     * 注册所有连接池， 读写分离的数据源分别注册主库和从库
+     * 延迟创建的数据源在连接池创建之后注册
+     */
+    public void registerPools(DatasourceManager datasourceManager) {
+        datasourceManager.foreach((name, ds) -> {
+            if (ds instanceof LazyDataSource) {
+                ((LazyDataSource) ds).onCreated(target -> registerPools(DatasourceManager.getPools(name, target)));
+            } else {
+                registerPools(DatasourceManager.getPools(name, ds));
+            }
+        });
+    }
+
+    private void registerPools(Map<String, HikariDataSource> created) {
+        for (val entry : created.entrySet()) {
+            val stats = new PoolStats(entry.getKey(), entry.getValue());
+            pools.put(entry.getKey(), stats);
+            registry.registerPool(stats);
+        }
+    }
+
+    private static String signature(Method method) {
+        StringBuilder sb = new StringBuilder(method.getName()).append('(');
+        val types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(types[i].getSimpleName());
+        }
+        return sb.append(')').toString();
+    }
+}
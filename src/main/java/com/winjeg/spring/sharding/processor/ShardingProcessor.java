@@ -0,0 +1,317 @@
+package com.winjeg.spring.sharding.processor;
+
+import com.winjeg.spring.sharding.annos.Sharding;
+import com.winjeg.spring.sharding.utils.MapperXmlScanner;
+import com.winjeg.spring.sharding.utils.NameUtils;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 编译期生成分库分表需要的接口和 mapper 文件， 启动时不再用 ByteBuddy 生成接口， 也不再改写 xml
+ * <pre>
+ * 1. 各数据源接口的公共父接口 Xxx$$ShardingTarget， 分表时每个方法前面加 tableName 参数
+ * 2. 每个数据源一个接口， 名称由 NameUtils.buildClassName 决定
+ * 3. 改写了 namespace 的 mapper 文件 META-INF/sharding/{namespace}.xml， 以及记录原文件位置的 .source 文件
+ * </pre>
+ * 引入本组件后由 javac 自动发现， 可以用 -Asharding.generate=false 关闭， 关闭或者没有生成的时候运行时照常生成
+ * mapper 文件从编译输出目录(maven 在编译之前已经拷贝了资源)中按 mapperLocation 查找
+ *
+ * @author winjeg
+ */
+public class ShardingProcessor extends AbstractProcessor {
+    public static final String OPTION_GENERATE = "sharding.generate";
+    /**
+     * 编译期生成的 mapper 文件所在目录
+     */
+    public static final String XML_DIR = "META-INF/sharding/";
+    public static final String XML_SUFFIX = ".xml";
+    public static final String SOURCE_SUFFIX = ".source";
+    private static final String TABLE_PARAM = "$$tableName";
+    /**
+     * 执行的时候从方法上读取的注解， 需要复制到生成的接口上
+     */
+    private static final String MAP_KEY = "org.apache.ibatis.annotations.MapKey";
+    private static final Set<String> ASYNC_TYPES = new HashSet<>(java.util.Arrays.asList(
+            "java.util.concurrent.CompletableFuture", "java.util.concurrent.CompletionStage",
+            "java.util.concurrent.Future"));
+
+    private Filer filer;
+    private Messager messager;
+    private boolean enabled;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment env) {
+        super.init(env);
+        this.filer = env.getFiler();
+        this.messager = env.getMessager();
+        this.enabled = !"false".equalsIgnoreCase(env.getOptions().get(OPTION_GENERATE));
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(Sharding.class.getName());
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(OPTION_GENERATE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        if (!enabled) {
+            return false;
+        }
+        for (Element e : round.getElementsAnnotatedWith(Sharding.class)) {
+            if (e.getKind() != ElementKind.INTERFACE) {
+                continue;
+            }
+            TypeElement type = (TypeElement) e;
+            Sharding sharding = type.getAnnotation(Sharding.class);
+            if (sharding.dbRule().isEmpty() && sharding.tableRule().isEmpty()) {
+                continue;
+            }
+            if (type.getNestingKind() != NestingKind.TOP_LEVEL || !type.getTypeParameters().isEmpty()) {
+                // 嵌套接口和泛型接口留给运行时生成
+                continue;
+            }
+            try {
+                generate(type, sharding);
+            } catch (IOException | RuntimeException ex) {
+                messager.printMessage(Diagnostic.Kind.WARNING,
+                        "sharding classes not generated, fallback to runtime generation: " + ex, type);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type, Sharding sharding) throws IOException {
+        String canonical = type.getQualifiedName().toString();
+        String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String target = NameUtils.buildTargetName(canonical);
+        writeSource(target, pkg, targetInterface(type, simpleName(target), !sharding.tableRule().isEmpty()), type);
+        for (String ds : sharding.datasource()) {
+            String name = NameUtils.buildClassName(ds, canonical);
+            writeSource(name, pkg, datasourceInterface(type, simpleName(name), simpleName(target)), type);
+        }
+        generateXml(type, sharding, canonical);
+    }
+
+    private void writeSource(String name, String pkg, String body, Element origin) throws IOException {
+        try (Writer w = filer.createSourceFile(name, origin).openWriter()) {
+            if (!pkg.isEmpty()) {
+                w.write("package " + pkg + ";\n\n");
+            }
+            w.write(body);
+        }
+    }
+
+    /**
+     * 与 ClassScanUtils.generateTargetInterface 生成的接口一致
+     */
+    private String targetInterface(TypeElement type, String name, boolean isShardingTable) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/**\n * generated from {@link ").append(type.getQualifiedName()).append("}\n */\n");
+        sb.append("public interface ").append(name).append(" {\n");
+        for (ExecutableElement m : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (m.getEnclosingElement().getKind() != ElementKind.INTERFACE
+                    || m.isDefault() || m.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            sb.append("\n    ");
+            for (AnnotationMirror a : m.getAnnotationMirrors()) {
+                if (a.getAnnotationType().toString().equals(MAP_KEY)) {
+                    sb.append(a).append(' ');
+                }
+            }
+            if (!m.getTypeParameters().isEmpty()) {
+                sb.append('<').append(m.getTypeParameters().stream().map(this::typeParameter)
+                        .collect(Collectors.joining(", "))).append("> ");
+            }
+            sb.append(returnType(m.getReturnType())).append(' ').append(m.getSimpleName()).append('(');
+            List<String> params = new ArrayList<>();
+            if (isShardingTable) {
+                params.add("@org.apache.ibatis.annotations.Param(\"tableName\") String " + TABLE_PARAM);
+            }
+            for (VariableElement p : m.getParameters()) {
+                StringBuilder ps = new StringBuilder();
+                for (AnnotationMirror a : p.getAnnotationMirrors()) {
+                    ps.append(a).append(' ');
+                }
+                ps.append(p.asType()).append(' ').append(p.getSimpleName());
+                params.add(ps.toString());
+            }
+            sb.append(String.join(", ", params)).append(')');
+            if (!m.getThrownTypes().isEmpty()) {
+                sb.append(" throws ").append(m.getThrownTypes().stream().map(TypeMirror::toString)
+                        .collect(Collectors.joining(", ")));
+            }
+            sb.append(";\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * 与 ClassScanUtils.generateMapperViaMapper 生成的接口一致， 不带 Sharding 注解， 避免被当作原始 mapper 扫描
+     */
+    private String datasourceInterface(TypeElement type, String name, String target) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/**\n * generated from {@link ").append(type.getQualifiedName()).append("}\n */\n");
+        for (AnnotationMirror a : type.getAnnotationMirrors()) {
+            if (!a.getAnnotationType().toString().equals(Sharding.class.getName())) {
+                sb.append(a).append('\n');
+            }
+        }
+        sb.append("public interface ").append(name).append(" extends ").append(target).append(" {\n");
+        for (VariableElement f : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            sb.append("    ").append(f.asType()).append(' ').append(f.getSimpleName())
+                    .append(" = ").append(type.getQualifiedName()).append('.').append(f.getSimpleName()).append(";\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * 异步方法在生成的接口上是同步的， 返回值为 CompletableFuture 的泛型参数
+     */
+    private String returnType(TypeMirror type) {
+        if (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declared = (DeclaredType) type;
+            String raw = ((TypeElement) declared.asElement()).getQualifiedName().toString();
+            if (ASYNC_TYPES.contains(raw)) {
+                if (declared.getTypeArguments().isEmpty()) {
+                    return "Object";
+                }
+                TypeMirror arg = declared.getTypeArguments().get(0);
+                return arg.getKind() == TypeKind.WILDCARD ? "Object" : arg.toString();
+            }
+        }
+        return type.toString();
+    }
+
+    private String typeParameter(TypeParameterElement p) {
+        String bounds = p.getBounds().stream().map(TypeMirror::toString)
+                .filter(b -> !b.equals("java.lang.Object")).collect(Collectors.joining(" & "));
+        return bounds.isEmpty() ? p.getSimpleName().toString() : p.getSimpleName() + " extends " + bounds;
+    }
+
+    /**
+     * 在编译输出目录中按 mapperLocation 查找 namespace 为原接口的 mapper 文件， 为每个数据源写一份改写后的副本
+     */
+    private void generateXml(TypeElement type, Sharding sharding, String canonical) throws IOException {
+        Path root = outputRoot();
+        if (root == null) {
+            return;
+        }
+        Map<String, byte[]> found = new LinkedHashMap<>();
+        for (Path file : findMappers(root, sharding.mapperLocation())) {
+            byte[] content = Files.readAllBytes(file);
+            int[] range = MapperXmlScanner.namespaceRange(content);
+            if (range != null && canonical.equals(new String(content, range[0], range[1] - range[0],
+                    StandardCharsets.ISO_8859_1))) {
+                found.put(root.relativize(file).toString().replace('\\', '/'), content);
+            }
+        }
+        if (found.isEmpty()) {
+            messager.printMessage(Diagnostic.Kind.NOTE, "no mapper xml found for " + canonical
+                    + " in " + root + ", it will be rewritten at runtime", type);
+            return;
+        }
+        Map.Entry<String, byte[]> xml = found.entrySet().iterator().next();
+        for (String ds : sharding.datasource()) {
+            String name = NameUtils.buildClassName(ds, canonical);
+            FileObject out = filer.createResource(StandardLocation.CLASS_OUTPUT, "", XML_DIR + name + XML_SUFFIX, type);
+            try (OutputStream os = out.openOutputStream()) {
+                os.write(MapperXmlScanner.rewrite(xml.getValue(), name));
+            }
+            FileObject source = filer.createResource(StandardLocation.CLASS_OUTPUT, "", XML_DIR + name + SOURCE_SUFFIX, type);
+            try (OutputStream os = source.openOutputStream()) {
+                os.write(xml.getKey().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private Path outputRoot() {
+        try {
+            FileObject probe = filer.getResource(StandardLocation.CLASS_OUTPUT, "", "META-INF");
+            Path path = Paths.get(probe.toUri()).getParent();
+            return path != null && Files.isDirectory(path) ? path : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 支持 classpath:/classpath*: 前缀以及 * / ** 通配符
+     */
+    private static List<Path> findMappers(Path root, String location) throws IOException {
+        String pattern = location;
+        for (String prefix : new String[]{"classpath*:", "classpath:"}) {
+            if (pattern.startsWith(prefix)) {
+                pattern = pattern.substring(prefix.length());
+                break;
+            }
+        }
+        while (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0) {
+            Path file = root.resolve(pattern);
+            return Files.isRegularFile(file) ? Collections.singletonList(file) : Collections.emptyList();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.replace("**/", "{**/,}"));
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(f -> matcher.matches(root.relativize(f)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String simpleName(String qualified) {
+        return qualified.substring(qualified.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,37 @@
+package com.winjeg.spring.sharding.route;
+
+import com.winjeg.spring.sharding.utils.ExpressionUtil;
+import com.googlecode.aviator.Expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 无法编译成查找表的规则， 使用预先编译好的 aviator 表达式， 并复用每个线程的变量表
+ *
+ * @author winjeg
+ */
+final class ExpressionRouteRule extends RouteRule {
+    private final String expStr;
+    private final String varName;
+    private final Expression expression;
+    private final ThreadLocal<Map<String, Object>> env = ThreadLocal.withInitial(() -> new HashMap<>(4));
+
+    ExpressionRouteRule(String expStr, String varName) {
+        this.expStr = expStr;
+        this.varName = varName;
+        this.expression = ExpressionUtil.compile(expStr);
+    }
+
+    @Override
+    public String route(long key) {
+        Map<String, Object> map = env.get();
+        map.put(varName, key);
+        return (String) expression.execute(map);
+    }
+
+    @Override
+    public String expression() {
+        return expStr;
+    }
+}
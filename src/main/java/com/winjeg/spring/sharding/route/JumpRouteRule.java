@@ -0,0 +1,90 @@
+package com.winjeg.spring.sharding.route;
+
+import com.winjeg.spring.sharding.utils.ExpressionUtil;
+import lombok.val;
+
+import java.util.function.LongToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 形如 'prefix' + jump(key, N) 的规则， 使用 jump consistent hash 把 key 分配到 N 个分片
+ * 启动时预先生成 N 个结果， 路由时不经过表达式引擎
+ *
+ * @author winjeg
+ */
+final class JumpRouteRule extends RouteRule {
+    private static final int MAX_BUCKETS = 1 << 16;
+
+    private final String expStr;
+    private final String[] values;
+
+    private JumpRouteRule(String expStr, String[] values) {
+        this.expStr = expStr;
+        this.values = values;
+    }
+
+    @Override
+    public String route(long key) {
+        return values[KeyHash.jump(key, values.length)];
+    }
+
+    @Override
+    public String[] values() {
+        return values.clone();
+    }
+
+    @Override
+    public LongToIntFunction indexOf(String[] names) {
+        int[] ordinals = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ordinals[i] = -1;
+            for (int j = 0; j < names.length; j++) {
+                if (values[i].equals(names[j])) {
+                    ordinals[i] = j;
+                    break;
+                }
+            }
+        }
+        return key -> {
+            int idx = ordinals[KeyHash.jump(key, ordinals.length)];
+            if (idx < 0) {
+                throw unknownName(values[KeyHash.jump(key, values.length)]);
+            }
+            return idx;
+        };
+    }
+
+    @Override
+    public String expression() {
+        return expStr;
+    }
+
+    /**
+     * 尝试编译
+     *
+     * @return 不符合形式的表达式返回 null
+     */
+    static JumpRouteRule tryCompile(String expStr, String varName) {
+        Matcher m = Pattern.compile("^\\s*(['\"])([^'\"]*)\\1\\s*\\+\\s*jump\\(\\s*" + Pattern.quote(varName)
+                + "\\s*,\\s*(\\d{1,9})\\s*\\)\\s*$").matcher(expStr);
+        if (!m.find()) {
+            return null;
+        }
+        int buckets = Integer.parseInt(m.group(3));
+        if (buckets <= 0 || buckets > MAX_BUCKETS) {
+            return null;
+        }
+        String[] values = new String[buckets];
+        for (int i = 0; i < buckets; i++) {
+            values[i] = (m.group(2) + i).intern();
+        }
+        val rule = new JumpRouteRule(expStr, values);
+        // 与表达式引擎的结果校验一次， 保证两条路径一致
+        long probe = 0x2545F4914F6CDD1DL;
+        if (!rule.route(probe).equals(ExpressionUtil.eval(expStr, varName, probe))) {
+            return null;
+        }
+        return rule;
+    }
+}
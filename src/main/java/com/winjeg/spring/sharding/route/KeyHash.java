@@ -0,0 +1,327 @@
+package com.winjeg.spring.sharding.route;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * 非整数分片键(String/UUID/组合键)转换为 long 的 hash 算法， 通过 Sharding.keyHash 指定
+ * 字符串按 UTF-8 编码， 编码写入每个线程复用的缓冲区， 计算过程不产生对象
+ * 结果与各语言的标准实现一致： MURMUR3 为 murmur3_x64_128 的前 64 位， XXHASH 为 xxHash64， 种子都是 0
+ *
+ * @author winjeg
+ */
+public enum KeyHash {
+    MURMUR3 {
+        @Override
+        public long hash(byte[] data, int off, int len) {
+            return murmur3(data, off, len);
+        }
+    },
+    XXHASH {
+        @Override
+        public long hash(byte[] data, int off, int len) {
+            return xxHash64(data, off, len);
+        }
+    };
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[64]);
+
+    /**
+     * 计算字节数组的 hash
+     */
+    public abstract long hash(byte[] data, int off, int len);
+
+    /**
+     * 字符串按 UTF-8 编码后计算 hash
+     */
+    public long hash(String s) {
+        byte[] buf = BUFFER.get();
+        int max = s.length() * 3;
+        if (buf.length < max) {
+            buf = new byte[Math.max(max, buf.length * 2)];
+            BUFFER.set(buf);
+        }
+        return hash(buf, 0, encodeUtf8(s, buf));
+    }
+
+    /**
+     * UUID 按 16 字节的大端序(与 UUID 的字符串形式一致)计算 hash
+     */
+    public long hash(UUID uuid) {
+        byte[] buf = BUFFER.get();
+        putLongBigEndian(buf, 0, uuid.getMostSignificantBits());
+        putLongBigEndian(buf, 8, uuid.getLeastSignificantBits());
+        return hash(buf, 0, 16);
+    }
+
+    /**
+     * 整数按 8 字节小端序计算 hash， 用于组合键中的整数成员
+     */
+    public long hash(long value) {
+        byte[] buf = BUFFER.get();
+        for (int i = 0; i < 8; i++) {
+            buf[i] = (byte) (value >>> (i * 8));
+        }
+        return hash(buf, 0, 8);
+    }
+
+    /**
+     * 计算一个分片键成员的 hash
+     *
+     * @param key Number/String/UUID/Date/Instant， 时间按毫秒时间戳
+     * @return hash 值
+     */
+    public long hashKey(Object key) {
+        if (key instanceof String) {
+            return hash((String) key);
+        }
+        if (key instanceof UUID) {
+            return hash((UUID) key);
+        }
+        if (key instanceof Number) {
+            return hash(((Number) key).longValue());
+        }
+        if (key instanceof Date) {
+            return hash(((Date) key).getTime());
+        }
+        if (key instanceof Instant) {
+            return hash(((Instant) key).toEpochMilli());
+        }
+        if (key instanceof CharSequence) {
+            return hash(key.toString());
+        }
+        throw new IllegalArgumentException("unsupported sharding key type: " + key.getClass().getName());
+    }
+
+    /**
+     * 组合键： 按成员顺序把每个成员的 hash 合并， 结果与成员顺序有关
+     *
+     * @param h         之前的结果， 第一个成员传 0
+     * @param component 当前成员的 hash
+     * @return 合并后的结果， 全部合并之后需要调用 finish
+     */
+    public static long combine(long h, long component) {
+        return Long.rotateLeft(h ^ component, 27) * 0x9E3779B97F4A7C15L + 0x52dce729;
+    }
+
+    public static long finish(long h) {
+        return fmix64(h);
+    }
+
+    /**
+     * 转换为非负数的分片键， 保证 'prefix' + (key % N) 之类的规则不会得到负数的后缀
+     */
+    public static long toKey(long hash) {
+        return hash & Long.MAX_VALUE;
+    }
+
+    /**
+     * jump consistent hash (Lamping &amp; Veach)， 分片数增加的时候只有 1/n 的 key 需要迁移
+     *
+     * @param key     分片键
+     * @param buckets 分片数
+     * @return [0, buckets) 之间的分片序号
+     */
+    public static int jump(long key, int buckets) {
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("buckets should be positive: " + buckets);
+        }
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    private static int encodeUtf8(String s, byte[] buf) {
+        int pos = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符与 String.getBytes(UTF_8) 一致替换为 '?'
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return pos;
+    }
+
+    private static void putLongBigEndian(byte[] buf, int off, long v) {
+        for (int i = 0; i < 8; i++) {
+            buf[off + i] = (byte) (v >>> (56 - i * 8));
+        }
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xffL) | (b[i + 1] & 0xffL) << 8 | (b[i + 2] & 0xffL) << 16 | (b[i + 3] & 0xffL) << 24
+                | (b[i + 4] & 0xffL) << 32 | (b[i + 5] & 0xffL) << 40 | (b[i + 6] & 0xffL) << 48 | (b[i + 7] & 0xffL) << 56;
+    }
+
+    private static long getInt(byte[] b, int i) {
+        return (b[i] & 0xffL) | (b[i + 1] & 0xffL) << 8 | (b[i + 2] & 0xffL) << 16 | (b[i + 3] & 0xffL) << 24;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    static long murmur3(byte[] data, int off, int len) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = len >> 4;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, off + (i << 4));
+            long k2 = getLong(data, off + (i << 4) + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        int tail = off + (blocks << 4);
+        long k1 = 0;
+        long k2 = 0;
+        switch (len & 15) {
+            case 15:
+                k2 ^= (data[tail + 14] & 0xffL) << 48;
+            case 14:
+                k2 ^= (data[tail + 13] & 0xffL) << 40;
+            case 13:
+                k2 ^= (data[tail + 12] & 0xffL) << 32;
+            case 12:
+                k2 ^= (data[tail + 11] & 0xffL) << 24;
+            case 11:
+                k2 ^= (data[tail + 10] & 0xffL) << 16;
+            case 10:
+                k2 ^= (data[tail + 9] & 0xffL) << 8;
+            case 9:
+                k2 ^= data[tail + 8] & 0xffL;
+                h2 ^= mixK2(k2);
+            case 8:
+                k1 ^= (data[tail + 7] & 0xffL) << 56;
+            case 7:
+                k1 ^= (data[tail + 6] & 0xffL) << 48;
+            case 6:
+                k1 ^= (data[tail + 5] & 0xffL) << 40;
+            case 5:
+                k1 ^= (data[tail + 4] & 0xffL) << 32;
+            case 4:
+                k1 ^= (data[tail + 3] & 0xffL) << 24;
+            case 3:
+                k1 ^= (data[tail + 2] & 0xffL) << 16;
+            case 2:
+                k1 ^= (data[tail + 1] & 0xffL) << 8;
+            case 1:
+                k1 ^= data[tail] & 0xffL;
+                h1 ^= mixK1(k1);
+            default:
+        }
+        h1 ^= len;
+        h2 ^= len;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        return h1 + h2;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    static long xxHash64(byte[] data, int off, int len) {
+        int end = off + len;
+        int p = off;
+        long h;
+        if (len >= 32) {
+            long v1 = P1 + P2;
+            long v2 = P2;
+            long v3 = 0;
+            long v4 = -P1;
+            do {
+                v1 = round(v1, getLong(data, p));
+                v2 = round(v2, getLong(data, p + 8));
+                v3 = round(v3, getLong(data, p + 16));
+                v4 = round(v4, getLong(data, p + 24));
+                p += 32;
+            } while (p <= end - 32);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+        h += len;
+        for (; p <= end - 8; p += 8) {
+            h ^= round(0, getLong(data, p));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (p <= end - 4) {
+            h ^= getInt(data, p) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            p += 4;
+        }
+        for (; p < end; p++) {
+            h ^= (data[p] & 0xffL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        return Long.rotateLeft(acc, 31) * P1;
+    }
+
+    private static long merge(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * P1 + P4;
+    }
+}
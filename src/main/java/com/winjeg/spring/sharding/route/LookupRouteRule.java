@@ -0,0 +1,132 @@
+package com.winjeg.spring.sharding.route;
+
+import com.winjeg.spring.sharding.utils.ExpressionUtil;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 形如 'prefix' + (key % N ...) 的规则， 结果只取决于 key % N
+ * 启动时预先把 key % N 的所有取值计算出来， 路由时只需要一次取模和一次数组读取
+ *
+ * @author winjeg
+ */
+@Slf4j
+final class LookupRouteRule extends RouteRule {
+    /**
+     * 查找表的最大模数， 超过则使用表达式
+     */
+    private static final int MAX_MODULUS = 1 << 16;
+    private static final int SAMPLES = 64;
+
+    private final String expStr;
+    private final long modulus;
+    /**
+     * 下标为 key % N + N - 1， 兼容负数的 key
+     */
+    private final String[] table;
+
+    private LookupRouteRule(String expStr, long modulus, String[] table) {
+        this.expStr = expStr;
+        this.modulus = modulus;
+        this.table = table;
+    }
+
+    @Override
+    public String route(long key) {
+        return table[slot(key)];
+    }
+
+    @Override
+    public long period() {
+        return modulus;
+    }
+
+    @Override
+    public LongToIntFunction indexOf(String[] names) {
+        int[] ordinals = new int[table.length];
+        for (int i = 0; i < table.length; i++) {
+            ordinals[i] = -1;
+            for (int j = 0; j < names.length; j++) {
+                if (table[i].equals(names[j])) {
+                    ordinals[i] = j;
+                    break;
+                }
+            }
+        }
+        // 不在 names 中的值(例如负数 key 的余数)不影响启动， 真的路由到了再报错
+        return key -> {
+            int idx = ordinals[slot(key)];
+            if (idx < 0) {
+                throw unknownName(route(key));
+            }
+            return idx;
+        };
+    }
+
+    private int slot(long key) {
+        return (int) (key % modulus + modulus - 1);
+    }
+
+    @Override
+    public String expression() {
+        return expStr;
+    }
+
+    /**
+     * 尝试编译成查找表
+     *
+     * @return 不符合形式的表达式返回 null
+     */
+    static LookupRouteRule tryCompile(String expStr, String varName) {
+        val modulus = findModulus(expStr, varName);
+        if (modulus <= 0 || modulus > MAX_MODULUS) {
+            return null;
+        }
+        int n = (int) modulus;
+        String[] table = new String[2 * n - 1];
+        try {
+            for (int r = -(n - 1); r < n; r++) {
+                Object v = ExpressionUtil.eval(expStr, varName, r);
+                table[r + n - 1] = ((String) v).intern();
+            }
+            val rule = new LookupRouteRule(expStr, modulus, table);
+            // 随机抽样校验， 防止表达式并不只依赖 key % N
+            val random = ThreadLocalRandom.current();
+            for (int i = 0; i < SAMPLES; i++) {
+                long key = i % 2 == 0 ? random.nextLong() : random.nextInt();
+                if (!rule.route(key).equals(ExpressionUtil.eval(expStr, varName, key))) {
+                    return null;
+                }
+            }
+            return rule;
+        } catch (RuntimeException e) {
+            log.debug("tryCompile - rule:{} can not be compiled to a lookup table", expStr, e);
+            return null;
+        }
+    }
+
+    /**
+     * key 在表达式中只能出现一次， 而且以 key % N 的形式作为一个整体参与运算
+     */
+    private static long findModulus(String expStr, String varName) {
+        val quoted = Pattern.quote(varName);
+        Matcher any = Pattern.compile("(?<![\\w$.])" + quoted + "(?![\\w$])").matcher(expStr);
+        int count = 0;
+        while (any.find()) {
+            count++;
+        }
+        if (count != 1) {
+            return -1;
+        }
+        Matcher m = Pattern.compile("(^|[(+\\-])\\s*" + quoted + "\\s*%\\s*(\\d{1,9})(?![\\w.$])").matcher(expStr);
+        if (!m.find()) {
+            return -1;
+        }
+        return Long.parseLong(m.group(2));
+    }
+}
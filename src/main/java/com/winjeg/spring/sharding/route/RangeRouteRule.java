@@ -0,0 +1,299 @@
+package com.winjeg.spring.sharding.route;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 按范围分区的规则， 规则形如:
+ * <pre>
+ * range:month:'order_'yyyyMM                  按月分区， 分片键为毫秒时间戳， 表名为 order_202610
+ * range:day@Asia/Shanghai:'log_'yyyyMMdd     按天分区， 指定时区(默认为系统时区)
+ * range:10000000:'order_'                     按数值分区， 每 1000 万一个分区， 表名为 order_0, order_1 ...
+ * </pre>
+ * 时间单位支持 year/month/week/day/hour， 表名格式为 DateTimeFormatter 的格式， 作用于分区的起点
+ * <p>
+ * 分区边界保存在有序数组中， 点查询和范围查询都是二分查找
+ * 边界按需向两端扩展(写时复制)， 新的快照通过 volatile 发布， 读取不加锁
+ *
+ * @author winjeg
+ */
+public final class RangeRouteRule extends RouteRule {
+    public static final String PREFIX = "range:";
+    /**
+     * 索引中最多保存的分区数， 超过之后不再扩展， 直接计算
+     */
+    private static final int MAX_INDEXED = 1 << 16;
+    /**
+     * 一次范围查询最多涉及的分区数
+     */
+    private static final int MAX_RANGE = 4096;
+
+    private final String expStr;
+    private final ChronoUnit unit;
+    private final ZoneId zone;
+    private final DateTimeFormatter formatter;
+    private final long step;
+    private final String prefix;
+    private volatile Index index;
+
+    private RangeRouteRule(String expStr, ChronoUnit unit, ZoneId zone, DateTimeFormatter formatter,
+                           long step, String prefix) {
+        this.expStr = expStr;
+        this.unit = unit;
+        this.zone = zone;
+        this.formatter = formatter;
+        this.step = step;
+        this.prefix = prefix;
+        long start = floor(unit == null ? 0 : System.currentTimeMillis());
+        this.index = new Index(new long[]{start, next(start)}, new String[]{name(start)});
+    }
+
+    /**
+     * 解析范围规则
+     *
+     * @param expStr 以 range: 开头的规则
+     * @return 规则
+     * @throws IllegalArgumentException 规则格式不正确
+     */
+    static RangeRouteRule parse(String expStr) {
+        String spec = expStr.substring(PREFIX.length());
+        int colon = spec.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("invalid range rule: " + expStr);
+        }
+        String unitSpec = spec.substring(0, colon).trim();
+        String pattern = spec.substring(colon + 1).trim();
+        try {
+            if (Character.isDigit(unitSpec.charAt(0))) {
+                long step = Long.parseLong(unitSpec);
+                if (step <= 0) {
+                    throw new IllegalArgumentException("range step should be positive: " + expStr);
+                }
+                return new RangeRouteRule(expStr, null, null, null, step, unquote(pattern));
+            }
+            ZoneId zone = ZoneId.systemDefault();
+            int at = unitSpec.indexOf('@');
+            if (at > 0) {
+                zone = ZoneId.of(unitSpec.substring(at + 1));
+                unitSpec = unitSpec.substring(0, at);
+            }
+            return new RangeRouteRule(expStr, unit(unitSpec, expStr), zone, DateTimeFormatter.ofPattern(pattern), 0, null);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid range rule: " + expStr, e);
+        }
+    }
+
+    private static ChronoUnit unit(String name, String expStr) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "year":
+                return ChronoUnit.YEARS;
+            case "month":
+                return ChronoUnit.MONTHS;
+            case "week":
+                return ChronoUnit.WEEKS;
+            case "day":
+                return ChronoUnit.DAYS;
+            case "hour":
+                return ChronoUnit.HOURS;
+            default:
+                throw new IllegalArgumentException("unknown range unit: " + name + " in " + expStr);
+        }
+    }
+
+    private static String unquote(String s) {
+        return s.replace("'", "").replace("\"", "");
+    }
+
+    /**
+     * 是否按时间分区， 否则按数值分区， 分片键不是时间戳
+     */
+    public boolean isTime() {
+        return unit != null;
+    }
+
+    /**
+     * 分片键所在分区的起点
+     */
+    public long floor(long key) {
+        if (unit == null) {
+            return Math.floorDiv(key, step) * step;
+        }
+        ZonedDateTime t = Instant.ofEpochMilli(key).atZone(zone);
+        switch (unit) {
+            case YEARS:
+                t = t.withDayOfYear(1).truncatedTo(ChronoUnit.DAYS);
+                break;
+            case MONTHS:
+                t = t.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+                break;
+            case WEEKS:
+                t = t.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).truncatedTo(ChronoUnit.DAYS);
+                break;
+            default:
+                t = t.truncatedTo(unit);
+        }
+        return t.toInstant().toEpochMilli();
+    }
+
+    /**
+     * 下一个分区的起点
+     *
+     * @param start 分区起点
+     */
+    public long next(long start) {
+        if (unit == null) {
+            return start + step;
+        }
+        return Instant.ofEpochMilli(start).atZone(zone).plus(1, unit).toInstant().toEpochMilli();
+    }
+
+    private long previous(long start) {
+        if (unit == null) {
+            return start - step;
+        }
+        return Instant.ofEpochMilli(start).atZone(zone).minus(1, unit).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 分区的表名(或者数据源名)
+     *
+     * @param start 分区起点
+     */
+    public String name(long start) {
+        if (unit == null) {
+            return prefix + Math.floorDiv(start, step);
+        }
+        return formatter.format(Instant.ofEpochMilli(start).atZone(zone));
+    }
+
+    @Override
+    public String route(long key) {
+        Index idx = index;
+        if (key < idx.bounds[0] || key >= idx.bounds[idx.bounds.length - 1]) {
+            idx = extend(key);
+            if (idx == null) {
+                return name(floor(key));
+            }
+        }
+        return idx.names[idx.partition(key)];
+    }
+
+    /**
+     * 与 [from, to) 有交集的所有分区的起点， 按时间(数值)顺序
+     *
+     * @param from 起点(包含)
+     * @param to   终点(不包含)
+     * @return 分区起点， from &gt;= to 的时候为空
+     * @throws IllegalArgumentException 涉及的分区太多
+     */
+    public long[] partitions(long from, long to) {
+        if (from >= to) {
+            return new long[0];
+        }
+        Index idx = index;
+        if (from < idx.bounds[0] || to > idx.bounds[idx.bounds.length - 1]) {
+            idx = extend(from) == null ? null : extend(to - 1);
+        }
+        if (idx == null) {
+            return iterate(from, to);
+        }
+        int lo = idx.partition(from);
+        int hi = idx.partition(to - 1);
+        checkRange(from, to, hi - lo + 1);
+        return Arrays.copyOfRange(idx.bounds, lo, hi + 1);
+    }
+
+    /**
+     * 超出索引范围的时候逐个计算
+     */
+    private long[] iterate(long from, long to) {
+        long[] result = new long[8];
+        int n = 0;
+        for (long start = floor(from); start < to; start = next(start)) {
+            checkRange(from, to, n + 1);
+            if (n == result.length) {
+                result = Arrays.copyOf(result, n * 2);
+            }
+            result[n++] = start;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private void checkRange(long from, long to, int partitions) {
+        if (partitions > MAX_RANGE) {
+            throw new IllegalArgumentException(String.format("range [%d, %d) covers more than %d partitions of %s",
+                    from, to, MAX_RANGE, expStr));
+        }
+    }
+
+    /**
+     * 扩展索引直到包含 key
+     *
+     * @return 新的索引， 超过最大分区数的时候返回 null
+     */
+    private synchronized Index extend(long key) {
+        Index idx = index;
+        long[] bounds = idx.bounds;
+        long first = bounds[0];
+        long last = bounds[bounds.length - 1];
+        if (key >= first && key < last) {
+            return idx;
+        }
+        int before = 0;
+        for (long s = first; key < s; s = previous(s)) {
+            if (++before + bounds.length > MAX_INDEXED) {
+                return null;
+            }
+        }
+        int after = 0;
+        for (long s = last; key >= s; s = next(s)) {
+            if (++after + bounds.length > MAX_INDEXED) {
+                return null;
+            }
+        }
+        long[] newBounds = new long[bounds.length + before + after];
+        String[] newNames = new String[newBounds.length - 1];
+        System.arraycopy(bounds, 0, newBounds, before, bounds.length);
+        System.arraycopy(idx.names, 0, newNames, before, idx.names.length);
+        for (int i = before - 1; i >= 0; i--) {
+            newBounds[i] = previous(newBounds[i + 1]);
+            newNames[i] = name(newBounds[i]).intern();
+        }
+        for (int i = before + bounds.length; i < newBounds.length; i++) {
+            newBounds[i] = next(newBounds[i - 1]);
+            newNames[i - 1] = name(newBounds[i - 1]).intern();
+        }
+        index = new Index(newBounds, newNames);
+        return index;
+    }
+
+    @Override
+    public String expression() {
+        return expStr;
+    }
+
+    /**
+     * 分区边界的快照， bounds[i] 到 bounds[i + 1] 为第 i 个分区
+     */
+    private static final class Index {
+        final long[] bounds;
+        final String[] names;
+
+        Index(long[] bounds, String[] names) {
+            this.bounds = bounds;
+            this.names = names;
+        }
+
+        int partition(long key) {
+            int i = Arrays.binarySearch(bounds, key);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+}
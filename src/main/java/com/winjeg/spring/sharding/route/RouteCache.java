@@ -0,0 +1,194 @@
+package com.winjeg.spring.sharding.route;
+
+import com.winjeg.spring.sharding.metrics.RouteCacheMXBean;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分片键到路由结果(数据源下标 + 表名)的缓存， 用于无法编译成查找表的表达式规则
+ * 以 long 为键的开放寻址表， 每个键只在从 hash 位置开始的 WAYS 个槽位中查找， 容量固定
+ * 槽位满了以后按 CLOCK 淘汰： 命中的时候置访问位， 淘汰的时候跳过并清除访问位， 淘汰第一个未被访问的
+ * <p>
+ * 读写都不加锁： 槽位中的 Entry 不可变(final 字段)， 读到的要么是旧值要么是完整的新值，
+ * 并发写入同一个槽位最多丢掉一个缓存项， 不影响正确性
+ *
+ * @author winjeg
+ */
+public final class RouteCache implements RouteCacheMXBean {
+    private static final int WAYS = 8;
+
+    private final String mapper;
+    private final Entry[] entries;
+    private final boolean[] referenced;
+    private final int mask;
+    private int hand;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param mapper   mapper 名称， 用于统计
+     * @param capacity 容量， 向上取整为 2 的幂
+     */
+    public RouteCache(String mapper, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("route cache capacity should be positive: " + capacity);
+        }
+        int size = Math.max(WAYS, Integer.highestOneBit(Math.min(capacity, 1 << 30) - 1) << 1);
+        this.mapper = mapper;
+        this.entries = new Entry[size];
+        this.referenced = new boolean[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * 查找缓存的路由结果
+     *
+     * @param key 分片键
+     * @return 未缓存返回 null
+     */
+    public Entry get(long key) {
+        int base = index(key);
+        for (int i = 0; i < WAYS; i++) {
+            int slot = (base + i) & mask;
+            Entry e = entries[slot];
+            if (e != null && e.key == key) {
+                if (!referenced[slot]) {
+                    referenced[slot] = true;
+                }
+                hits.increment();
+                return e;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 缓存路由结果， 没有空闲槽位的时候淘汰一个
+     */
+    public void put(Entry entry) {
+        int base = index(entry.key);
+        int victim = -1;
+        for (int i = 0; i < WAYS; i++) {
+            int slot = (base + i) & mask;
+            Entry e = entries[slot];
+            if (e == null || e.key == entry.key) {
+                victim = slot;
+                break;
+            }
+        }
+        if (victim < 0) {
+            victim = evict(base);
+            evictions.increment();
+        }
+        referenced[victim] = false;
+        entries[victim] = entry;
+    }
+
+    /**
+     * 删除所有缓存的路由结果并清零统计， 例如预热之后去掉合成的分片键
+     */
+    public void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+            referenced[i] = false;
+        }
+        resetCounters();
+    }
+
+    /**
+     * 在 base 开始的 WAYS 个槽位中转动时钟指针， 最多两圈一定能找到访问位为 0 的槽位
+     */
+    private int evict(int base) {
+        int start = hand++;
+        for (int i = 0; i < WAYS * 2; i++) {
+            int slot = (base + ((start + i) & (WAYS - 1))) & mask;
+            if (!referenced[slot]) {
+                return slot;
+            }
+            referenced[slot] = false;
+        }
+        return (base + (start & (WAYS - 1))) & mask;
+    }
+
+    private int index(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    @Override
+    public String getMapper() {
+        return mapper;
+    }
+
+    @Override
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Entry e : entries) {
+            if (e != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    /**
+     * 一个分片键的路由结果
+     */
+    public static final class Entry {
+        final long key;
+        final int datasourceIndex;
+        final String table;
+
+        public Entry(long key, int datasourceIndex, String table) {
+            this.key = key;
+            this.datasourceIndex = datasourceIndex;
+            this.table = table;
+        }
+
+        public int getDatasourceIndex() {
+            return datasourceIndex;
+        }
+
+        public String getTable() {
+            return table;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.winjeg.spring.sharding.route;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongToIntFunction;
+
+/**
+ * 编译好的分库/分表规则， 根据 shardingKey 计算出实际的数据源名或者表名
+ * 常见的 'prefix' + (key % N ...) 形式会被编译成查找表， 'prefix' + jump(key, N) 形式预先生成结果， 路由时不产生任何对象
+ * 以 range: 开头的是按范围(时间或者数值)分区的规则， 见 RangeRouteRule
+ * 其余表达式退化为缓存好的 aviator 表达式
+ *
+ * @author winjeg
+ */
+public abstract class RouteRule {
+    /**
+     * 表达式 -> 变量名 -> 规则， 查找的时候不需要拼接字符串
+     */
+    private static final Map<String, Map<String, RouteRule>> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 计算路由结果
+     *
+     * @param key shardingKey
+     * @return 数据源名称或者表名
+     */
+    public abstract String route(long key);
+
+    /**
+     * 表达式原文
+     *
+     * @return 表达式
+     */
+    public abstract String expression();
+
+    /**
+     * 非负 key 的路由结果的周期， 即 route(key) == route(key % period())
+     *
+     * @return 周期， 未知返回 0
+     */
+    public long period() {
+        return 0;
+    }
+
+    /**
+     * 所有可能的路由结果， 用于无法按周期枚举的规则(例如 jump)的广播
+     *
+     * @return 未知返回 null
+     */
+    public String[] values() {
+        return null;
+    }
+
+    /**
+     * 把路由结果转换为 names 中的下标， 启动时调用一次， 路由时不再需要字符串比较
+     *
+     * @param names 所有可能的路由结果， 例如配置的数据源列表
+     * @return key 到下标的映射， 结果不在 names 中会抛出异常
+     */
+    public LongToIntFunction indexOf(String[] names) {
+        Map<String, Integer> ordinals = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ordinals.put(names[i], i);
+        }
+        return key -> {
+            String name = route(key);
+            Integer idx = ordinals.get(name);
+            if (idx == null) {
+                throw unknownName(name);
+            }
+            return idx;
+        };
+    }
+
+    /**
+     * 路由结果不在 indexOf 的 names 中
+     */
+    protected IllegalArgumentException unknownName(String name) {
+        return new IllegalArgumentException(String.format("rule %s routed to unknown name: %s", expression(), name));
+    }
+
+    /**
+     * 编译规则， 相同的表达式只会编译一次， 已经编译过的只是两次 Map 查找， 不分配对象
+     *
+     * @param expStr  表达式， 例如 'user_' + (id % 16 % 4)
+     * @param varName 表达式中 shardingKey 的变量名
+     * @return 编译后的规则
+     */
+    public static RouteRule compile(String expStr, String varName) {
+        Map<String, RouteRule> byVar = CACHE.get(expStr);
+        RouteRule compiled = byVar == null ? null : byVar.get(varName);
+        if (compiled != null) {
+            return compiled;
+        }
+        return CACHE.computeIfAbsent(expStr, k -> new ConcurrentHashMap<>()).computeIfAbsent(varName, k -> {
+            if (expStr.startsWith(RangeRouteRule.PREFIX)) {
+                return RangeRouteRule.parse(expStr);
+            }
+            RouteRule rule = LookupRouteRule.tryCompile(expStr, varName);
+            if (rule == null) {
+                rule = JumpRouteRule.tryCompile(expStr, varName);
+            }
+            return rule != null ? rule : new ExpressionRouteRule(expStr, varName);
+        });
+    }
+}
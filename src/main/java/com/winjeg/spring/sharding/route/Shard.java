@@ -0,0 +1,58 @@
+package com.winjeg.spring.sharding.route;
+
+/**
+ * 一个物理分片， 即 数据源 + 表
+ *
+ * @author winjeg
+ */
+public final class Shard {
+    private final int datasourceIndex;
+    private final String datasource;
+    private final String table;
+
+    public Shard(int datasourceIndex, String datasource, String table) {
+        this.datasourceIndex = datasourceIndex;
+        this.datasource = datasource;
+        this.table = table;
+    }
+
+    /**
+     * 数据源在 Sharding.datasource() 中的下标
+     */
+    public int getDatasourceIndex() {
+        return datasourceIndex;
+    }
+
+    public String getDatasource() {
+        return datasource;
+    }
+
+    /**
+     * 表名， 不分表的时候为 null
+     */
+    public String getTable() {
+        return table;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Shard)) {
+            return false;
+        }
+        Shard s = (Shard) o;
+        return datasourceIndex == s.datasourceIndex && (table == null ? s.table == null : table.equals(s.table));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * datasourceIndex + (table == null ? 0 : table.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return table == null ? datasource : datasource + "." + table;
+    }
+}
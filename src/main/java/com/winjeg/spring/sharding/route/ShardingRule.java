@@ -0,0 +1,218 @@
+package com.winjeg.spring.sharding.route;
+
+import com.winjeg.spring.sharding.annos.Sharding;
+import com.winjeg.spring.sharding.utils.ResourceUtil;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongToIntFunction;
+
+/**
+ * 一个 mapper 的分库分表规则， 在扫描到 Sharding 注解的时候编译一次
+ *
+ * @author winjeg
+ */
+public final class ShardingRule {
+    private static final Map<Class<?>, ShardingRule> RULE_MAP = new ConcurrentHashMap<>();
+    private static final long MAX_ENUMERATION = 1 << 20;
+
+    private final Sharding sharding;
+    private final String[] datasource;
+    private final RouteRule dbRule;
+    private final RouteRule tableRule;
+    /**
+     * 按范围分区的规则(优先取分表规则)， 用于范围查询
+     */
+    private final RangeRouteRule rangeRule;
+    private final LongToIntFunction datasourceIndex;
+    /**
+     * 规则中有表达式的时候才可能开启， 为空则每次都计算
+     */
+    private final RouteCache routeCache;
+
+    private ShardingRule(Class<?> clz, Sharding sharding) {
+        this.sharding = sharding;
+        this.datasource = new String[sharding.datasource().length];
+        for (int i = 0; i < datasource.length; i++) {
+            datasource[i] = sharding.datasource()[i].intern();
+        }
+        this.dbRule = sharding.dbRule().length() > 0 ? RouteRule.compile(sharding.dbRule(), sharding.shardingKey()) : null;
+        this.tableRule = sharding.tableRule().length() > 0 ? RouteRule.compile(sharding.tableRule(), sharding.shardingKey()) : null;
+        this.datasourceIndex = dbRule == null ? key -> 0 : dbRule.indexOf(datasource);
+        this.rangeRule = tableRule instanceof RangeRouteRule ? (RangeRouteRule) tableRule
+                : dbRule instanceof RangeRouteRule ? (RangeRouteRule) dbRule : null;
+        boolean evaluated = (dbRule != null && dbRule.period() == 0) || (tableRule != null && tableRule.period() == 0);
+        this.routeCache = evaluated && sharding.routeCacheSize() > 0
+                ? new RouteCache(clz.getCanonicalName(), sharding.routeCacheSize()) : null;
+    }
+
+    /**
+     * 获取(必要时编译) mapper 的规则
+     *
+     * @param clz mapper 接口
+     * @return 规则， 没有 Sharding 注解返回 null
+     */
+    public static ShardingRule of(Class<?> clz) {
+        ShardingRule rule = RULE_MAP.get(clz);
+        if (rule != null) {
+            return rule;
+        }
+        Sharding sharding = ResourceUtil.getShardingAnno(clz);
+        if (sharding == null) {
+            return null;
+        }
+        return RULE_MAP.computeIfAbsent(clz, c -> new ShardingRule(c, sharding));
+    }
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    public boolean isShardingDb() {
+        return dbRule != null;
+    }
+
+    public boolean isShardingTable() {
+        return tableRule != null;
+    }
+
+    /**
+     * 计算数据源， 不分库的时候就是配置的第一个数据源
+     */
+    public String datasource(long key) {
+        return dbRule == null ? datasource[0] : dbRule.route(key);
+    }
+
+    /**
+     * 计算数据源在 Sharding.datasource() 中的下标
+     */
+    public int datasourceIndex(long key) {
+        return routeCache == null ? datasourceIndex.applyAsInt(key) : cached(key).getDatasourceIndex();
+    }
+
+    /**
+     * @return 路由结果缓存， 未开启返回 null
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    private RouteCache.Entry cached(long key) {
+        RouteCache.Entry e = routeCache.get(key);
+        if (e == null) {
+            e = new RouteCache.Entry(key, datasourceIndex.applyAsInt(key), tableRule == null ? null : tableRule.route(key));
+            routeCache.put(e);
+        }
+        return e;
+    }
+
+    /**
+     * 配置的数据源， 下标与 datasourceIndex 对应
+     */
+    public String[] getDatasource() {
+        return datasource.clone();
+    }
+
+    /**
+     * @param index datasourceIndex 的结果
+     * @return 数据源名称， 不复制数组
+     */
+    public String getDatasource(int index) {
+        return datasource[index];
+    }
+
+    /**
+     * 枚举所有物理分片， 用于广播执行
+     * 两个规则都是查找表的时候按周期精确枚举， 否则取所有数据源和所有表(查找表的一个周期或者 jump 的所有结果)的笛卡尔积
+     *
+     * @return 所有分片
+     * @throws IllegalArgumentException 分表规则无法枚举
+     */
+    public List<Shard> shards() {
+        long dbPeriod = dbRule == null ? 1 : dbRule.period();
+        long tablePeriod = tableRule == null ? 1 : tableRule.period();
+        String[] tables = tableRule == null ? null : tableRule.values();
+        if (tablePeriod == 0 && tables == null) {
+            throw new IllegalArgumentException("table rule can not be enumerated: " + tableRule.expression());
+        }
+        Set<Shard> result = new LinkedHashSet<>();
+        if (dbPeriod > 0 && tablePeriod > 0) {
+            long period = dbPeriod / gcd(dbPeriod, tablePeriod) * tablePeriod;
+            if (period <= MAX_ENUMERATION) {
+                for (long key = 0; key < period; key++) {
+                    int idx = datasourceIndex(key);
+                    result.add(new Shard(idx, datasource[idx], table(key)));
+                }
+                return new ArrayList<>(result);
+            }
+        }
+        for (int i = 0; i < datasource.length; i++) {
+            if (tables != null) {
+                for (val table : tables) {
+                    result.add(new Shard(i, datasource[i], table));
+                }
+                continue;
+            }
+            for (long key = 0; key < tablePeriod; key++) {
+                // 直接计算， 枚举用的 key 不进入路由缓存
+                result.add(new Shard(i, datasource[i], tableRule == null ? null : tableRule.route(key)));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 是否有按范围分区的规则
+     */
+    public boolean isRange() {
+        return rangeRule != null;
+    }
+
+    /**
+     * @return 按范围分区的规则， 没有返回 null
+     */
+    public RangeRouteRule getRangeRule() {
+        return rangeRule;
+    }
+
+    /**
+     * 与 [from, to) 有交集的物理分片， 按分区顺序， 每个分区用分区内的第一个 key 计算数据源和表
+     * 所以另一个规则在一个分区之内的结果必须相同(例如按月分表、按年分库)
+     *
+     * @param from 起点(包含)
+     * @param to   终点(不包含)
+     * @return 分片， 去重
+     * @throws IllegalStateException 没有按范围分区的规则
+     */
+    public List<Shard> shards(long from, long to) {
+        if (rangeRule == null) {
+            throw new IllegalStateException("no range rule in " + sharding);
+        }
+        Set<Shard> result = new LinkedHashSet<>();
+        for (long start : rangeRule.partitions(from, to)) {
+            long key = Math.max(start, from);
+            int idx = datasourceIndex(key);
+            result.add(new Shard(idx, datasource[idx], table(key)));
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * 计算表名， 不分表的时候返回 null
+     */
+    public String table(long key) {
+        if (tableRule == null) {
+            return null;
+        }
+        return routeCache == null ? tableRule.route(key) : cached(key).getTable();
+    }
+}
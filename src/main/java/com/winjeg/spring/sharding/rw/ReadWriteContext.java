@@ -0,0 +1,33 @@
+package com.winjeg.spring.sharding.rw;
+
+/**
+ * 当前线程正在执行的语句是否是只读语句， 由 ReadWriteInterceptor 在获取连接之前设置
+ *
+ * @author winjeg
+ */
+public final class ReadWriteContext {
+    private static final ThreadLocal<Boolean> READ = new ThreadLocal<>();
+
+    private ReadWriteContext() {
+    }
+
+    public static boolean isRead() {
+        return Boolean.TRUE.equals(READ.get());
+    }
+
+    /**
+     * 设置当前线程的读写标记
+     *
+     * @param read 是否只读
+     * @return 之前的标记， 用于恢复
+     */
+    static Boolean set(Boolean read) {
+        Boolean previous = READ.get();
+        if (read == null) {
+            READ.remove();
+        } else {
+            READ.set(read);
+        }
+        return previous;
+    }
+}
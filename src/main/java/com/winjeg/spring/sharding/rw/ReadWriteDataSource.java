@@ -0,0 +1,99 @@
+package com.winjeg.spring.sharding.rw;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个逻辑数据源， 包括一个主库和若干从库
+ * 只读语句(由 ReadWriteInterceptor 标记)并且不在事务中的时候使用从库， 其他情况一律使用主库
+ * 从库获取连接失败的时候退回主库
+ *
+ * @author winjeg
+ */
+@Slf4j
+public class ReadWriteDataSource extends AbstractDataSource {
+    private final String name;
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final ReplicaSelector.Replica[] states;
+    private final ReplicaSelector selector;
+
+    public ReadWriteDataSource(String name, DataSource primary, List<DataSource> replicas, ReplicaSelector selector) {
+        this.name = name;
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.selector = selector;
+        this.states = new ReplicaSelector.Replica[replicas.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new ReplicaSelector.Replica();
+        }
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public List<DataSource> getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!useReplica()) {
+            return primary.getConnection();
+        }
+        int idx = selector.select(states);
+        try {
+            return track(replicas.get(idx).getConnection(), states[idx]);
+        } catch (SQLException e) {
+            log.warn("getConnection - replica {} of {} unavailable, fallback to primary", idx, name, e);
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    private boolean useReplica() {
+        return !replicas.isEmpty() && ReadWriteContext.isRead()
+                && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * 记录连接的占用情况， 连接关闭的时候更新从库的负载状态
+     */
+    private static Connection track(Connection conn, ReplicaSelector.Replica state) {
+        state.acquired();
+        long start = System.nanoTime();
+        return (Connection) Proxy.newProxyInstance(ReadWriteDataSource.class.getClassLoader(),
+                new Class[]{Connection.class}, (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                        boolean closed = conn.isClosed();
+                        try {
+                            conn.close();
+                        } finally {
+                            if (!closed) {
+                                state.released(System.nanoTime() - start);
+                            }
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -0,0 +1,106 @@
+package com.winjeg.spring.sharding.rw;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 从库选择策略， 随机取两个从库(power of two choices)， 选择负载较低的那个
+ * <ul>
+ *     <li>least-outstanding: 正在使用的连接数较少的</li>
+ *     <li>ewma: 连接占用时间的 EWMA(峰值敏感) 乘以 正在使用的连接数+1 较小的</li>
+ * </ul>
+ *
+ * @author winjeg
+ */
+public abstract class ReplicaSelector {
+    public static final String LEAST_OUTSTANDING = "least-outstanding";
+    public static final String EWMA = "ewma";
+
+    public static ReplicaSelector of(String strategy) {
+        if (strategy == null || LEAST_OUTSTANDING.equalsIgnoreCase(strategy)) {
+            return new LeastOutstanding();
+        }
+        if (EWMA.equalsIgnoreCase(strategy)) {
+            return new Ewma();
+        }
+        throw new IllegalArgumentException("unknown load balance strategy: " + strategy);
+    }
+
+    /**
+     * 选择一个从库
+     *
+     * @param replicas 从库
+     * @return 下标
+     */
+    public int select(Replica[] replicas) {
+        int n = replicas.length;
+        if (n == 1) {
+            return 0;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(n);
+        int b = random.nextInt(n - 1);
+        if (b >= a) {
+            b++;
+        }
+        return score(replicas[a]) <= score(replicas[b]) ? a : b;
+    }
+
+    protected abstract double score(Replica replica);
+
+    private static class LeastOutstanding extends ReplicaSelector {
+        @Override
+        protected double score(Replica replica) {
+            return replica.outstanding.get();
+        }
+    }
+
+    private static class Ewma extends ReplicaSelector {
+        @Override
+        protected double score(Replica replica) {
+            return replica.ewmaNanos() * (replica.outstanding.get() + 1);
+        }
+    }
+
+    /**
+     * 一个从库的负载状态
+     */
+    public static class Replica {
+        /**
+         * EWMA 的衰减时间常数
+         */
+        private static final double TAU_NANOS = 10_000_000_000d;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile double ewma;
+        private volatile long lastUpdate = System.nanoTime();
+
+        void acquired() {
+            outstanding.incrementAndGet();
+        }
+
+        void released(long costNanos) {
+            outstanding.decrementAndGet();
+            long now = System.nanoTime();
+            double current = ewma;
+            if (costNanos > current) {
+                // 峰值敏感， 变慢的从库立刻被降权
+                ewma = costNanos;
+            } else {
+                double w = Math.exp(-(now - lastUpdate) / TAU_NANOS);
+                ewma = current * w + costNanos * (1 - w);
+            }
+            lastUpdate = now;
+        }
+
+        /**
+         * 长时间没有被使用的从库， 负载估计随时间衰减， 保证会被重新探测
+         */
+        double ewmaNanos() {
+            return ewma * Math.exp(-(System.nanoTime() - lastUpdate) / TAU_NANOS);
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+    }
+}
@@ -3,8 +3,16 @@ package com.winjeg.spring.sharding.starter;
 import com.winjeg.spring.sharding.annos.EnableSharding;
 import com.winjeg.spring.sharding.config.DataSourceProps;
 import com.winjeg.spring.sharding.core.DatasourceManager;
+import com.winjeg.spring.sharding.core.PartitionCreator;
+import com.winjeg.spring.sharding.core.ShardingCoreHandler;
 import com.winjeg.spring.sharding.core.ShardingTransactionManager;
+import com.winjeg.spring.sharding.core.ShardingWarmUp;
 import com.winjeg.spring.sharding.core.SqlSessionFactoryManager;
+import com.winjeg.spring.sharding.exec.ShardExecutor;
+import com.winjeg.spring.sharding.exec.ShardExecutors;
+import com.winjeg.spring.sharding.metrics.JmxMetricsRegistry;
+import com.winjeg.spring.sharding.metrics.MetricsRegistry;
+import com.winjeg.spring.sharding.metrics.ShardingMetrics;
 import com.winjeg.spring.sharding.factories.ClassManager;
 import com.winjeg.spring.sharding.factories.ShardingMapperFactory;
 import lombok.extern.slf4j.Slf4j;
@@ -12,8 +20,10 @@ import lombok.val;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.DefaultSingletonBeanRegistry;
 import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.boot.context.properties.source.ConfigurationPropertySource;
 import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
@@ -24,6 +34,8 @@ import org.springframework.lang.NonNull;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static com.winjeg.spring.sharding.utils.ResourceUtil.getClassesWithAnno;
@@ -34,6 +46,10 @@ import static com.winjeg.spring.sharding.utils.ResourceUtil.getClassesWithAnno;
  * 2. 注入SqlSessionFactory
  * 3. 注入Datasource 以及DatasourceManager
  * 4. 注入事务管理器
+ * 5. 注入多分片任务执行器
+ * 6. 注入运行指标(包括热点分片键)， 默认发布到 JMX
+ * 7. 注入范围分区的建表工具
+ * 8. 按配置预热连接池、预编译语句以及路由计算
  *
  * @author winjeg
  */
@@ -68,9 +84,22 @@ public class ShardingStarter implements ImportBeanDefinitionRegistrar, BeanFacto
         List<Class<?>> classes = new ArrayList<>();
         classes.addAll(classesPair.left());
         classes.addAll(classesPair.right());
-        val sessionManager = new SqlSessionFactoryManager(classes, datasourceManager);
+        val metrics = createMetrics(datasourceCfg);
+        if (metrics != null) {
+            metrics.registerPools(datasourceManager);
+            beanFactory.registerSingleton("sharding_metrics", metrics);
+            registerDestroy("sharding_metrics", metrics::close);
+        }
+        val sessionManager = new SqlSessionFactoryManager(classes, datasourceManager, metrics);
+        val executor = ShardExecutors.create(datasourceCfg);
+        beanFactory.registerSingleton("sharding_executor", executor);
+        registerDestroy("sharding_executor", executor::shutdown);
+        Collection<ShardingCoreHandler> handlers = Collections.emptyList();
         if (classManager != null) {
-            registerSharding(classesPair.right(), sessionManager, classManager);
+            handlers = registerSharding(classesPair.right(), sessionManager, classManager, executor, metrics);
+        }
+        if (datasourceCfg != null && datasourceCfg.getWarmUp() != null && datasourceCfg.getWarmUp().isEnabled()) {
+            new ShardingWarmUp(datasourceManager, sessionManager, handlers, datasourceCfg.getWarmUp()).run();
         }
         if (classesPair.left().size() > 0) {
             registerNonShardingClasses(classesPair.left(), sessionManager);
@@ -78,6 +107,7 @@ public class ShardingStarter implements ImportBeanDefinitionRegistrar, BeanFacto
         beanFactory.registerSingleton("session_factory_manager", sessionManager);
         beanFactory.registerSingleton("sharding_trans_mgr", new ShardingTransactionManager(datasourceManager));
         beanFactory.registerSingleton("sharding_trans_def", new DefaultTransactionDefinition(0));
+        beanFactory.registerSingleton("sharding_partition_creator", new PartitionCreator(datasourceManager));
     }
 
 
@@ -87,12 +117,28 @@ public class ShardingStarter implements ImportBeanDefinitionRegistrar, BeanFacto
         });
     }
 
-    private void registerSharding(List<Class<?>> classes, SqlSessionFactoryManager sessionManager, ClassManager classManager) {
-        ShardingMapperFactory factory = new ShardingMapperFactory(sessionManager, classManager);
+    /**
+     * registerSingleton 注册的对象不会被 Spring 销毁， 需要单独注册销毁回调， 在容器关闭的时候执行
+     */
+    private void registerDestroy(String name, DisposableBean destroy) {
+        if (beanFactory instanceof DefaultSingletonBeanRegistry) {
+            ((DefaultSingletonBeanRegistry) beanFactory).registerDisposableBean(name, destroy);
+        }
+    }
+
+    /**
+     * @return 注册的 mapper 的 handler
+     */
+    private Collection<ShardingCoreHandler> registerSharding(List<Class<?>> classes,
+                                                             SqlSessionFactoryManager sessionManager,
+                                                             ClassManager classManager, ShardExecutor executor,
+                                                             ShardingMetrics metrics) {
+        ShardingMapperFactory factory = new ShardingMapperFactory(sessionManager, classManager, executor, metrics);
         for (val clz : classes) {
             val mapper = factory.createProxy(clz);
             beanFactory.registerSingleton(clz.getCanonicalName(), mapper);
         }
+        return factory.getHandlers();
     }
 
     private void registerNonShardingClasses(List<Class<?>> classes, SqlSessionFactoryManager sessionManager) {
@@ -102,6 +148,27 @@ public class ShardingStarter implements ImportBeanDefinitionRegistrar, BeanFacto
         }
     }
 
+    private ShardingMetrics createMetrics(DataSourceProps props) {
+        val cfg = props == null ? null : props.getMetrics();
+        if (cfg != null && !cfg.isEnabled()) {
+            return null;
+        }
+        if (cfg == null) {
+            return new ShardingMetrics(new JmxMetricsRegistry());
+        }
+        if (cfg.getRegistry() == null || cfg.getRegistry().isEmpty()) {
+            return new ShardingMetrics(new JmxMetricsRegistry(), cfg.getHotKeys(), cfg.getHotKeyHalfLife(),
+                    cfg.getHotKeySampling(), cfg.getRoutingSampling());
+        }
+        try {
+            val registryClass = Class.forName(cfg.getRegistry(), true, beanFactory.getBeanClassLoader());
+            return new ShardingMetrics((MetricsRegistry) registryClass.getDeclaredConstructor().newInstance(),
+                    cfg.getHotKeys(), cfg.getHotKeyHalfLife(), cfg.getHotKeySampling(), cfg.getRoutingSampling());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("invalid metrics registry: " + cfg.getRegistry(), e);
+        }
+    }
+
     private DataSourceProps getDatasourceCfg() {
         val env = beanFactory.getBean(Environment.class);
         try {
@@ -1,5 +1,7 @@
 package com.winjeg.spring.sharding.utils;
 
+import com.winjeg.spring.sharding.core.ShardingCoreHandler;
+import com.winjeg.spring.sharding.core.ShardingKeyAccessor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import net.bytebuddy.ByteBuddy;
@@ -8,15 +10,26 @@ import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.dynamic.scaffold.InstrumentedType;
+import net.bytebuddy.dynamic.scaffold.subclass.ConstructorStrategy;
+import net.bytebuddy.implementation.FieldAccessor;
 import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.InvocationHandlerAdapter;
+import net.bytebuddy.implementation.MethodCall;
 import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
 import net.bytebuddy.implementation.bytecode.Duplication;
 import net.bytebuddy.implementation.bytecode.StackManipulation;
 import net.bytebuddy.implementation.bytecode.TypeCreation;
+import net.bytebuddy.implementation.bytecode.assign.TypeCasting;
+import net.bytebuddy.implementation.bytecode.assign.primitive.PrimitiveWideningDelegate;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
 import net.bytebuddy.implementation.bytecode.member.FieldAccess;
 import net.bytebuddy.implementation.bytecode.member.MethodInvocation;
+import net.bytebuddy.implementation.bytecode.member.MethodReturn;
+import net.bytebuddy.implementation.bytecode.member.MethodVariableAccess;
 import net.bytebuddy.jar.asm.MethodVisitor;
 import net.bytebuddy.matcher.ElementMatchers;
+import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.annotations.Param;
 
 import java.io.File;
@@ -24,41 +37,144 @@ import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
 
 import static java.lang.reflect.Modifier.ABSTRACT;
+import static java.lang.reflect.Modifier.FINAL;
+import static java.lang.reflect.Modifier.PRIVATE;
 import static java.lang.reflect.Modifier.PUBLIC;
 
 /**
  * 主要目的的根据一个 interface 创建出一个全新的Interface
  * 新interface的方法前面都加一个 tableName的参数
+ * 同时生成实现原 interface 的分发类， 替代 jdk 动态代理
  *
  * @author winjeg
  */
 @Slf4j
 public class ClassScanUtils {
+    private static final String HANDLER_FIELD = "handler";
+    private static final TypeDescription LONG_TYPE = TypeDescription.ForLoadedType.of(long.class);
+    private static final MethodDescription.InDefinedShape OBJECT_CONSTRUCTOR =
+            TypeDescription.ForLoadedType.of(Object.class).getDeclaredMethods().filter(ElementMatchers.isConstructor()).getOnly();
+    private static final MethodDescription HANDLER_KEY = handlerMethod("key", int.class, Object.class);
+    private static final MethodDescription HANDLER_MAPPER = handlerMethod("mapper", int.class, long.class);
+    private static final MethodDescription HANDLER_TABLE = handlerMethod("table", int.class, long.class);
+
+    private static MethodDescription handlerMethod(String name, Class<?>... types) {
+        try {
+            return new MethodDescription.ForLoadedMethod(ShardingCoreHandler.class.getMethod(name, types));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
     /**
-     * 根据一个接口，生成一个全新的接口，视情况给每个方法加参数
+     * 根据一个接口，生成一个全新的接口，方法都继承自公共父接口
+     *
+     * @param clz    原接口
+     * @param target 由 generateTargetInterface 生成的公共父接口
+     * @return 返回新的接口类，并且加载到jvm中
+     */
+    public static Class<?> generateMapperViaMapper(Class<?> clz, String dsName, Class<?> target) {
+        String name = NameUtils.buildClassName(dsName, clz.getCanonicalName());
+        return ClassScanUtils.genInterfaceViaInterface(clz, name, target);
+    }
+
+    /**
+     * 根据一个接口，生成各个数据源接口的公共父接口，视情况给每个方法加参数
+     * 分发类只面对这一个接口， 调用点是单态的
      *
      * @param clz             原接口
      * @param isShardingTable 是否是分表， 如果分表，会自动加 tableName 参数
      * @return 返回新的接口类，并且加载到jvm中
      */
-    public static Class<?> generateMapperViaMapper(Class<?> clz, String dsName, boolean isShardingTable) {
-        String name = NameUtils.buildClassName(dsName, clz.getCanonicalName());
-        return ClassScanUtils.genInterfaceViaInterface(clz, name, isShardingTable);
+    public static Class<?> generateTargetInterface(Class<?> clz, boolean isShardingTable) {
+        if (clz == null || !clz.isInterface()) {
+            return null;
+        }
+        DynamicType.Builder<?> builder = new ByteBuddy()
+                .makeInterface()
+                .name(NameUtils.buildTargetName(clz.getCanonicalName()));
+        for (val m : clz.getMethods()) {
+            if (m.isDefault() || Modifier.isStatic(m.getModifiers())) {
+                continue;
+            }
+            builder = genBuilderMethod(builder, m, isShardingTable);
+        }
+        return load(clz, builder);
+    }
+
+    /**
+     * 生成实现原接口的分发类， 每个方法直接计算路由，然后调用路由到的 mapper 上的对应方法
+     * 分表的情况下表名作为第一个参数传入， 不需要反射也不需要拷贝参数数组
+     * 无法直接调用的方法(例如广播)交给 handler 的 invoke 处理
+     *
+     * @param clz     原接口
+     * @param handler 核心逻辑
+     * @return 分发类， 构造函数的参数为 ShardingCoreHandler
+     */
+    public static Class<?> generateDispatcher(Class<?> clz, ShardingCoreHandler handler) {
+        DynamicType.Builder<?> builder = new ByteBuddy()
+                .subclass(Object.class, ConstructorStrategy.Default.NO_CONSTRUCTORS)
+                .implement(clz)
+                .name(NameUtils.buildDispatcherName(clz.getCanonicalName()))
+                .defineField(HANDLER_FIELD, ShardingCoreHandler.class, PRIVATE | FINAL)
+                .defineConstructor(PUBLIC)
+                .withParameters(ShardingCoreHandler.class)
+                .intercept(MethodCall.invoke(OBJECT_CONSTRUCTOR)
+                        .andThen(FieldAccessor.ofField(HANDLER_FIELD).setsArgumentAt(0)));
+        val methods = handler.getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            Implementation impl = handler.isDirect(i)
+                    ? new DispatchImplementation(i, handler.getKeyAccessors()[i], handler.getDispatchTable().getTargetMethod(i),
+                    handler.isShardingTable())
+                    : InvocationHandlerAdapter.toField(HANDLER_FIELD);
+            builder = builder.method(ElementMatchers.is(methods[i])).intercept(impl);
+        }
+        return load(clz, builder);
     }
 
-    private static Class<?> genInterfaceViaInterface(Class<?> clz, String name, boolean isShardingTable) {
+    /**
+     * 方法是否是异步方法， 即返回 CompletableFuture/CompletionStage/Future
+     */
+    public static boolean isAsync(Method m) {
+        val type = m.getReturnType();
+        return type == CompletableFuture.class || type == CompletionStage.class || type == Future.class;
+    }
+
+    /**
+     * 异步方法实际的返回类型
+     *
+     * @return 泛型参数的类型， 无法确定时为 Object
+     */
+    public static Class<?> asyncValueType(Method m) {
+        Type type = m.getGenericReturnType();
+        if (type instanceof ParameterizedType) {
+            Type arg = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (arg instanceof Class) {
+                return (Class<?>) arg;
+            }
+            if (arg instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) arg).getRawType();
+            }
+        }
+        return Object.class;
+    }
+
+    private static Class<?> genInterfaceViaInterface(Class<?> clz, String name, Class<?> target) {
         if (clz == null || !clz.isInterface()) {
             return null;
         }
         Annotation[] clzAnnos = clz.getAnnotations();
-        Method[] methods = clz.getMethods();
         Field[] fields = clz.getDeclaredFields();
         DynamicType.Builder<?> builder = new ByteBuddy()
-                .makeInterface()
+                .makeInterface(target)
                 .name(name);
         // 生成原注解
         for (val anno : clzAnnos) {
@@ -72,11 +188,10 @@ public class ClassScanUtils {
                 log.warn("genInterfaceViaInterface - gen field failed:{}", f.getName());
             }
         }
-        // 生成方法
-        for (val m : methods) {
-            builder = genBuilderMethod(builder, m, isShardingTable);
-        }
+        return load(clz, builder);
+    }
 
+    private static Class<?> load(Class<?> clz, DynamicType.Builder<?> builder) {
         // 加载并返回class
         val unloaded = builder.make();
         saveClass2Target(unloaded);
@@ -143,10 +258,17 @@ public class ClassScanUtils {
             types[idx] = p.getType();
             i++;
         }
+        // 异步方法在生成的接口上是同步的， 返回值为 CompletableFuture 的泛型参数
+        Class<?> returnType = isAsync(m) ? asyncValueType(m) : m.getReturnType();
         DynamicType.Builder.MethodDefinition<?> methodBuilder = builder
-                .defineMethod(m.getName(), m.getReturnType(), PUBLIC + ABSTRACT)
+                .defineMethod(m.getName(), returnType, PUBLIC + ABSTRACT)
                 .withParameters(types)
                 .withoutCode();
+        // MapKey 在执行的时候从方法上读取， 多个分片的 Map 结果由 ScatterGather 合并
+        val mapKey = m.getAnnotation(MapKey.class);
+        if (mapKey != null) {
+            methodBuilder = methodBuilder.annotateMethod(mapKey);
+        }
         if (isShardingTable) {
             methodBuilder = methodBuilder.annotateParameter(0, AnnotationDescription.Builder.ofType(Param.class)
                     .define("value", "tableName").build());
@@ -159,13 +281,84 @@ public class ClassScanUtils {
         return methodBuilder;
     }
 
+    /**
+     * 分发方法的字节码:
+     * <pre>
+     * long key = handler.key(ordinal, arg) 或者直接读取 long/int 参数
+     * return ((Target) handler.mapper(ordinal, key)).method(handler.table(ordinal, key), args...)
+     * </pre>
+     */
+    private static class DispatchImplementation implements Implementation {
+        private final int ordinal;
+        private final ShardingKeyAccessor accessor;
+        private final Method targetMethod;
+        private final boolean isShardingTable;
+
+        DispatchImplementation(int ordinal, ShardingKeyAccessor accessor, Method targetMethod, boolean isShardingTable) {
+            this.ordinal = ordinal;
+            this.accessor = accessor;
+            this.targetMethod = targetMethod;
+            this.isShardingTable = isShardingTable;
+        }
+
+        @Override
+        public InstrumentedType prepare(InstrumentedType instrumentedType) {
+            return instrumentedType;
+        }
+
+        @Override
+        public ByteCodeAppender appender(Target target) {
+            return (mv, ctx, md) -> {
+                val handler = FieldAccess.forField(target.getInstrumentedType().getDeclaredFields()
+                        .filter(ElementMatchers.named(HANDLER_FIELD)).getOnly()).read();
+                val keyParam = md.getParameters().get(accessor.getParamIndex());
+                val keyType = keyParam.getType().asErasure();
+                int keySlot = md.getStackSize();
+                StackManipulation readKey;
+                if (keyType.represents(long.class)) {
+                    readKey = MethodVariableAccess.load(keyParam);
+                } else if (keyType.represents(int.class)) {
+                    readKey = new StackManipulation.Compound(MethodVariableAccess.load(keyParam),
+                            PrimitiveWideningDelegate.forPrimitive(keyType).widenTo(LONG_TYPE));
+                } else {
+                    readKey = new StackManipulation.Compound(MethodVariableAccess.loadThis(), handler,
+                            IntegerConstant.forValue(ordinal), MethodVariableAccess.load(keyParam),
+                            MethodInvocation.invoke(HANDLER_KEY));
+                }
+                val loadTable = isShardingTable
+                        ? new StackManipulation.Compound(MethodVariableAccess.loadThis(), handler,
+                        IntegerConstant.forValue(ordinal), MethodVariableAccess.LONG.loadFrom(keySlot),
+                        MethodInvocation.invoke(HANDLER_TABLE))
+                        : StackManipulation.Trivial.INSTANCE;
+                val size = new StackManipulation.Compound(
+                        readKey,
+                        MethodVariableAccess.LONG.storeAt(keySlot),
+                        MethodVariableAccess.loadThis(), handler,
+                        IntegerConstant.forValue(ordinal), MethodVariableAccess.LONG.loadFrom(keySlot),
+                        MethodInvocation.invoke(HANDLER_MAPPER),
+                        TypeCasting.to(TypeDescription.ForLoadedType.of(targetMethod.getDeclaringClass())),
+                        loadTable,
+                        MethodVariableAccess.allArgumentsOf(md),
+                        MethodInvocation.invoke(new MethodDescription.ForLoadedMethod(targetMethod)),
+                        MethodReturn.of(md.getReturnType())
+                ).apply(mv, ctx);
+                return new ByteCodeAppender.Size(size.getMaximalSize(), keySlot + 2);
+            };
+        }
+    }
+
     /**
      * 保存一下生成的类， 用于核验是否生成有误
      *
      * @param unloaded 未加载之前的类
      */
     private static void saveClass2Target(DynamicType.Unloaded<?> unloaded) {
-        String path = Thread.currentThread().getContextClassLoader().getResource("").getPath();
+        val root = Thread.currentThread().getContextClassLoader().getResource("");
+        if (root == null || !"file".equals(root.getProtocol())) {
+            // 从 jar 中运行的时候没有可写的 classpath 目录
+            return;
+        }
+        String path = root.getPath();
         path = path.substring(0, path.substring(0, path.length() - 1).lastIndexOf("/"));
         try {
             unloaded.saveIn(new File(path));
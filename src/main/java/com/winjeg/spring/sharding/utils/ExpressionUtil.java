@@ -3,6 +3,11 @@ package com.winjeg.spring.sharding.utils;
 import com.googlecode.aviator.AviatorEvaluator;
 import com.googlecode.aviator.AviatorEvaluatorInstance;
 import com.googlecode.aviator.Expression;
+import com.googlecode.aviator.runtime.function.AbstractFunction;
+import com.googlecode.aviator.runtime.function.FunctionUtils;
+import com.googlecode.aviator.runtime.type.AviatorLong;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+import com.winjeg.spring.sharding.route.KeyHash;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -16,6 +21,10 @@ import java.util.Map;
 public class ExpressionUtil {
     private static final AviatorEvaluatorInstance EVALUATOR = AviatorEvaluator.getInstance();
 
+    static {
+        EVALUATOR.addFunction(new JumpFunction());
+    }
+
     /**
      * 评估一个表达式，计算出最终结果
      */
@@ -26,7 +35,31 @@ public class ExpressionUtil {
     }
 
     public static String eval(String expStr, Map<String, Object> expMap) {
-        Expression e = EVALUATOR.compile(expStr, true);
+        Expression e = compile(expStr);
         return (String) e.execute(expMap);
     }
+
+    /**
+     * 编译表达式， 结果会被 aviator 缓存， 路由时应当持有编译结果而不是每次查找
+     */
+    public static Expression compile(String expStr) {
+        return EVALUATOR.compile(expStr, true);
+    }
+
+    /**
+     * jump(key, N)： jump consistent hash， 结果为 [0, N) 之间的整数
+     */
+    private static class JumpFunction extends AbstractFunction {
+        @Override
+        public String getName() {
+            return "jump";
+        }
+
+        @Override
+        public AviatorObject call(Map<String, Object> env, AviatorObject key, AviatorObject buckets) {
+            long k = FunctionUtils.getNumberValue(key, env).longValue();
+            int n = FunctionUtils.getNumberValue(buckets, env).intValue();
+            return AviatorLong.valueOf(KeyHash.jump(k, n));
+        }
+    }
 }
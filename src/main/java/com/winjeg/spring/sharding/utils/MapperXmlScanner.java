@@ -0,0 +1,216 @@
+package com.winjeg.spring.sharding.utils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * mapper 文件根元素 namespace 属性的定位， 运行时和编译期(ShardingProcessor)共用， 因此只依赖 JDK
+ * namespace 的值通过 StAX 读取(读到根元素为止， 不加载 DTD)， 再在原始字节中定位它的位置
+ *
+ * @author winjeg
+ */
+public final class MapperXmlScanner {
+    private static final String NAMESPACE = "namespace";
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private MapperXmlScanner() {
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * 定位根元素的 namespace 属性值
+     *
+     * @param content mapper 文件内容
+     * @return [start, end)， 没有 namespace 返回 null
+     * @throws IllegalArgumentException 文件格式错误， 或者 namespace 含有转义字符以及非 ASCII 字符
+     */
+    public static int[] namespaceRange(byte[] content) {
+        String namespace = readNamespace(content);
+        if (namespace == null || namespace.isEmpty()) {
+            return null;
+        }
+        int[] range = locate(content);
+        if (range == null || !namespace.equals(new String(content, range[0], range[1] - range[0], StandardCharsets.ISO_8859_1))) {
+            throw new IllegalArgumentException("namespace contains escaped or non-ascii characters: " + namespace);
+        }
+        return range;
+    }
+
+    /**
+     * 替换 namespace
+     *
+     * @return 新的内容， 没有 namespace 返回 null
+     */
+    public static byte[] rewrite(byte[] content, String namespace) {
+        int[] range = namespaceRange(content);
+        if (range == null) {
+            return null;
+        }
+        byte[] ns = namespace.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] result = new byte[content.length - (range[1] - range[0]) + ns.length];
+        System.arraycopy(content, 0, result, 0, range[0]);
+        System.arraycopy(ns, 0, result, range[0], ns.length);
+        System.arraycopy(content, range[1], result, range[0] + ns.length, content.length - range[1]);
+        return result;
+    }
+
+    /**
+     * 用 StAX 读取到根元素为止
+     */
+    private static String readNamespace(byte[] content) {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    return reader.getAttributeValue(null, NAMESPACE);
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 在原始字节中找到根元素 namespace 属性值的位置， 跳过 XML 声明、注释、DOCTYPE 以及处理指令
+     * 标记部分只需要 ASCII 兼容的编码(UTF-8/GBK/ISO-8859-1 等)
+     *
+     * @return [start, end)， 找不到返回 null
+     */
+    private static int[] locate(byte[] c) {
+        int i = 0;
+        if (c.length >= 3 && (c[0] & 0xFF) == 0xEF && (c[1] & 0xFF) == 0xBB && (c[2] & 0xFF) == 0xBF) {
+            i = 3;
+        }
+        while (i < c.length) {
+            if (c[i] != '<') {
+                i++;
+                continue;
+            }
+            if (startsWith(c, i, "<?")) {
+                i = indexOf(c, i, "?>");
+            } else if (startsWith(c, i, "<!--")) {
+                i = indexOf(c, i, "-->");
+            } else if (startsWith(c, i, "<!")) {
+                i = skipDeclaration(c, i);
+            } else {
+                return attributeRange(c, i);
+            }
+            if (i < 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 跳过 DOCTYPE， 包括可能存在的内部子集 [...]
+     */
+    private static int skipDeclaration(byte[] c, int i) {
+        byte quote = 0;
+        int depth = 0;
+        for (; i < c.length; i++) {
+            byte b = c[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                depth++;
+            } else if (b == ']') {
+                depth--;
+            } else if (b == '>' && depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] attributeRange(byte[] c, int i) {
+        byte quote = 0;
+        int valueStart = -1;
+        boolean isNamespace = false;
+        for (; i < c.length; i++) {
+            byte b = c[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    if (isNamespace) {
+                        return new int[]{valueStart, i};
+                    }
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+                valueStart = i + 1;
+                isNamespace = isNamespaceAttribute(c, i);
+            } else if (b == '>') {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 引号前面是否为 namespace=， 允许等号两侧有空白
+     */
+    private static boolean isNamespaceAttribute(byte[] c, int quotePos) {
+        int j = quotePos - 1;
+        while (j >= 0 && isSpace(c[j])) {
+            j--;
+        }
+        if (j < 0 || c[j] != '=') {
+            return false;
+        }
+        j--;
+        while (j >= 0 && isSpace(c[j])) {
+            j--;
+        }
+        int start = j - NAMESPACE.length() + 1;
+        return start > 0 && startsWith(c, start, NAMESPACE) && isSpace(c[start - 1]);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean startsWith(byte[] c, int i, String s) {
+        if (i + s.length() > c.length) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (c[i + k] != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] c, int from, String s) {
+        for (int i = from; i + s.length() <= c.length; i++) {
+            if (startsWith(c, i, s)) {
+                return i + s.length();
+            }
+        }
+        return -1;
+    }
+}
@@ -18,6 +18,20 @@ public class NameUtils {
     }
 
 
+    /**
+     * 各个数据源生成的接口的公共父接口， 分发类直接调用父接口上的方法
+     */
+    public static String buildTargetName(String orignalName) {
+        return orignalName + "$$ShardingTarget";
+    }
+
+    /**
+     * 实现原接口的分发类
+     */
+    public static String buildDispatcherName(String orignalName) {
+        return orignalName + "$$ShardingDispatcher";
+    }
+
     private static String process(String name) {
         StringBuilder builder = new StringBuilder();
         for (val c : name.toCharArray()) {
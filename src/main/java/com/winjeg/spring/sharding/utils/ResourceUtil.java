@@ -1,6 +1,7 @@
 package com.winjeg.spring.sharding.utils;
 
 import com.winjeg.spring.sharding.annos.Sharding;
+import com.winjeg.spring.sharding.route.ShardingRule;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.core.io.Resource;
@@ -14,9 +15,9 @@ import org.springframework.util.SystemPropertyUtils;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 扫描类和注解的工具包
@@ -28,7 +29,7 @@ public class ResourceUtil {
     private static final String[] SYSTEM_PATH = new String[]{"sun.", "java.", "javax.", "javafx.", "jdk.", "oracle.",
             "com.sun.", "com.oracle.", "netscape."};
 
-    private static final Map<Class<?>, Sharding> SHARDING_MAP = new HashMap<>();
+    private static final Map<Class<?>, Sharding> SHARDING_MAP = new ConcurrentHashMap<>();
 
 
     /**
@@ -85,6 +86,8 @@ public class ResourceUtil {
                             nonShardingClasses.add(clz);
                         } else {
                             shardingClasses.add(clz);
+                            // 扫描的时候就把规则编译好
+                            ShardingRule.of(clz);
                         }
                         break;
                     }
@@ -102,8 +105,9 @@ public class ResourceUtil {
         if (clz == null) {
             return null;
         }
-        if (SHARDING_MAP.containsKey(clz)) {
-            return SHARDING_MAP.get(clz);
+        val cached = SHARDING_MAP.get(clz);
+        if (cached != null) {
+            return cached;
         }
         for (val a : clz.getAnnotations()) {
             if (a instanceof Sharding) {
@@ -1,63 +1,51 @@
 package com.winjeg.spring.sharding.utils;
 
 import lombok.extern.slf4j.Slf4j;
-import lombok.val;
-import org.jdom2.Document;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.AbstractResource;
 import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
 
 /**
  * 主要是读取XML，并修改XML的内容，生成新的xml，供mybatis读取消费
+ * 每个 mapper 文件只读取一次， namespace 由 MapperXmlScanner 读取(不加载 DTD， 不构建 DOM)
+ * 各个数据源的副本共享原始内容， 读取的时候只替换 namespace 属性的值
  *
  * @author winjeg
  */
 @Slf4j
 public class XmlUtils {
-    private static final SAXBuilder XML_BUILDER = new SAXBuilder();
-
-
-    public static Pair<String, Resource> changeMapperNameSpace(String dsName, Resource resource) {
-        InputStream inputStream = null;
-        try {
-            inputStream = resource.getInputStream();
+    /**
+     * 读取一个 mapper 文件
+     *
+     * @param resource 资源
+     * @return 读取结果， 文件无法读取或者不是 mapper 文件的时候返回 null
+     */
+    public static MapperXml parse(Resource resource) {
+        byte[] content;
+        try (InputStream in = resource.getInputStream()) {
+            content = StreamUtils.copyToByteArray(in);
         } catch (IOException e) {
-            log.warn("changeMapperNameSpace - exception occurred", e);
-        }
-        if (inputStream == null) {
+            log.warn("parse - failed to read mapper:{}", resource, e);
             return null;
         }
-        Document doc = null;
+        int[] range;
         try {
-            doc = XML_BUILDER.build(inputStream);
-        } catch (JDOMException | IOException e) {
-            log.warn("changeMapperNameSpace - error in mapper");
+            range = MapperXmlScanner.namespaceRange(content);
+        } catch (IllegalArgumentException e) {
+            log.warn("parse - error in mapper:{}", resource, e);
             return null;
         }
-        val element = doc.getRootElement();
-        String originalName = element.getAttribute("namespace").getValue();
-        if (originalName == null || originalName.length() == 0) {
+        if (range == null) {
             return null;
         }
-        String name = NameUtils.buildClassName(dsName, originalName);
-        element.setAttribute("namespace", name);
-        doc.detachRootElement();
-        doc.setRootElement(element);
-        Format format = Format.getPrettyFormat();
-        format.setEncoding("UTF-8");
-        format.setTextMode(Format.TextMode.PRESERVE);
-        XMLOutputter output = new XMLOutputter(format);
-        String xml = output.outputString(doc);
-        val res = new InputStreamResource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), name);
-        return Pair.of(name, res);
+        String namespace = new String(content, range[0], range[1] - range[0], StandardCharsets.ISO_8859_1);
+        return new MapperXml(resource, content, namespace, range[0], range[1]);
     }
 
     /**
@@ -67,23 +55,85 @@ public class XmlUtils {
      * @return namespace
      */
     public static String extractNamespace(Resource resource) {
-        InputStream inputStream = null;
-        try {
-            inputStream = resource.getInputStream();
-        } catch (IOException e) {
-            log.warn("changeMapperNameSpace - exception occurred", e);
+        MapperXml xml = parse(resource);
+        return xml == null ? null : xml.getNamespace();
+    }
+
+    /**
+     * 一个 mapper 文件的内容以及 namespace 的位置
+     */
+    public static class MapperXml {
+        private final Resource resource;
+        private final byte[] content;
+        private final String namespace;
+        private final int start;
+        private final int end;
+
+        MapperXml(Resource resource, byte[] content, String namespace, int start, int end) {
+            this.resource = resource;
+            this.content = content;
+            this.namespace = namespace;
+            this.start = start;
+            this.end = end;
         }
-        if (inputStream == null) {
-            return null;
+
+        public String getNamespace() {
+            return namespace;
         }
-        Document doc = null;
-        try {
-            doc = XML_BUILDER.build(inputStream);
-        } catch (JDOMException | IOException e) {
-            log.warn("changeMapperNameSpace - error in mapper");
-            return null;
+
+        public Resource getResource() {
+            return resource;
+        }
+
+        /**
+         * 替换了 namespace 的副本， 与原文件共享内容， 读取的时候拼接
+         *
+         * @param newNamespace 新的 namespace， 只能包含 ASCII 字符
+         * @return 新的资源
+         */
+        public Resource withNamespace(String newNamespace) {
+            return new NamespaceResource(this, newNamespace.getBytes(StandardCharsets.ISO_8859_1), newNamespace);
+        }
+    }
+
+    private static class NamespaceResource extends AbstractResource {
+        private final MapperXml xml;
+        private final byte[] namespace;
+        private final String description;
+
+        NamespaceResource(MapperXml xml, byte[] namespace, String name) {
+            this.xml = xml;
+            this.namespace = namespace;
+            this.description = name + " [" + xml.resource.getDescription() + "]";
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            byte[] c = xml.content;
+            return new SequenceInputStream(new SequenceInputStream(
+                    new ByteArrayInputStream(c, 0, xml.start), new ByteArrayInputStream(namespace)),
+                    new ByteArrayInputStream(c, xml.end, c.length - xml.end));
+        }
+
+        @Override
+        public long contentLength() {
+            return xml.content.length - (xml.end - xml.start) + namespace.length;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other || (other instanceof NamespaceResource
+                    && description.equals(((NamespaceResource) other).description));
+        }
+
+        @Override
+        public int hashCode() {
+            return description.hashCode();
         }
-        val element = doc.getRootElement();
-        return element.getAttribute("namespace").getValue();
     }
 }
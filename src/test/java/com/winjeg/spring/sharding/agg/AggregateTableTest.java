@@ -0,0 +1,60 @@
+package com.winjeg.spring.sharding.agg;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 溢出到磁盘以后的归并结果与全部在内存中的一致
+ *
+ * @author winjeg
+ */
+public class AggregateTableTest {
+    private static final byte[] OPS = {0, AggregateTable.OP_ADD_LONG, AggregateTable.OP_MAX_LONG};
+    private static final int[] COLUMNS = {0, 0, 1};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spillAndMergeWithHashCollisions() throws Exception {
+        File dir = folder.newFolder();
+        Map<List<Object>, long[]> expected = aggregate(Long.MAX_VALUE, dir, 0);
+        Map<List<Object>, long[]> actual = aggregate(64 * 1024, dir, 2);
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<List<Object>, long[]> e : expected.entrySet()) {
+            assertArrayEquals(e.getKey().toString(), e.getValue(), actual.get(e.getKey()));
+        }
+        assertEquals(0, Objects.requireNonNull(dir.listFiles()).length);
+    }
+
+    /**
+     * 5000 个分组只有 100 个不同的 hash， 同一个 hash 的分组分散在不同的 run 里
+     */
+    private static Map<List<Object>, long[]> aggregate(long memoryLimit, File dir, int minSpills) {
+        Map<List<Object>, long[]> result = new HashMap<>();
+        try (AggregateTable table = new AggregateTable(OPS, COLUMNS, 2, memoryLimit, dir)) {
+            Random random = new Random(7);
+            for (int i = 0; i < 50000; i++) {
+                int k = random.nextInt(5000);
+                Object[] key = {"k" + k, k % 3 == 0 ? null : (long) k};
+                table.add(k % 100, key, new long[]{3, 1, random.nextInt(1000)});
+            }
+            Iterator<AggregateTable.Group> groups = table.groups();
+            while (groups.hasNext()) {
+                AggregateTable.Group g = groups.next();
+                assertNull("duplicated group", result.put(Arrays.asList(g.getKeys()), g.getState()));
+            }
+            assertTrue(table.getSpillCount() >= minSpills);
+            if (minSpills > 0) {
+                assertTrue(Objects.requireNonNull(dir.listFiles()).length > 0);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.annos.Aggregate;
+import com.winjeg.spring.sharding.annos.AggregateFunction;
+import org.apache.ibatis.session.Configuration;
+import lombok.val;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 各分片返回 Map 的部分结果， MIN/MAX 对 java.time、BigDecimal 和字符串精确合并
+ *
+ * @author winjeg
+ */
+public class AggregatePlanTest {
+
+    interface StatsMapper {
+        @Aggregate(groupBy = "region", value = {
+                @Aggregate.Column(value = "cnt", fn = AggregateFunction.COUNT),
+                @Aggregate.Column(value = "firstTime", fn = AggregateFunction.MIN),
+                @Aggregate.Column(value = "lastTime", fn = AggregateFunction.MAX),
+                @Aggregate.Column(value = "firstDay", fn = AggregateFunction.MIN),
+                @Aggregate.Column(value = "lastSeen", fn = AggregateFunction.MAX),
+                @Aggregate.Column(value = "minPrice", fn = AggregateFunction.MIN),
+                @Aggregate.Column(value = "maxName", fn = AggregateFunction.MAX),
+                @Aggregate.Column(value = "maxId", fn = AggregateFunction.MAX)})
+        List<Map<String, Object>> stats();
+
+        @Aggregate(groupBy = "k", memoryLimitMb = 1, value = {
+                @Aggregate.Column(value = "cnt", fn = AggregateFunction.COUNT),
+                @Aggregate.Column(value = "maxName", fn = AggregateFunction.MAX),
+                @Aggregate.Column(value = "minPrice", fn = AggregateFunction.MIN)})
+        List<Map<String, Object>> spilled();
+    }
+
+    private static AggregatePlan plan(String method) throws Exception {
+        val m = StatsMapper.class.getMethod(method);
+        return new AggregatePlan(m.getAnnotation(Aggregate.class), m, null, new Configuration());
+    }
+
+    private static Map<String, Object> row(Object... kv) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            row.put((String) kv[i], kv[i + 1]);
+        }
+        return row;
+    }
+
+    @Test
+    public void minMaxOfMapRows() throws Exception {
+        LocalDateTime t = LocalDateTime.of(2024, 3, 1, 10, 0, 0, 123456789);
+        Instant now = Instant.parse("2024-03-01T10:00:00.000000001Z");
+        List<Map<String, Object>> partials = Arrays.asList(
+                row("region", "east", "cnt", 2L, "firstTime", t, "lastTime", t, "firstDay", LocalDate.of(2024, 3, 2),
+                        "lastSeen", now, "minPrice", new BigDecimal("0.10000000000000000001"), "maxName", "b",
+                        "maxId", 7L),
+                row("region", "west", "cnt", 1L, "firstTime", t.plusDays(1), "lastTime", t.plusDays(1),
+                        "firstDay", null, "lastSeen", null, "minPrice", null, "maxName", "中文", "maxId", 3L),
+                row("region", "east", "cnt", 3L, "firstTime", t.minusNanos(1), "lastTime", t.plusNanos(1),
+                        "firstDay", LocalDate.of(2024, 3, 1), "lastSeen", now.minusNanos(1),
+                        "minPrice", new BigDecimal("0.1"), "maxName", "a", "maxId", 9L));
+        List<Object> rows = plan("stats").merge(partials);
+        assertEquals(2, rows.size());
+        Map<?, ?> east = (Map<?, ?>) rows.get(0);
+        assertEquals("east", east.get("region"));
+        assertEquals(5L, east.get("cnt"));
+        assertEquals(t.minusNanos(1), east.get("firstTime"));
+        assertEquals(t.plusNanos(1), east.get("lastTime"));
+        assertEquals(LocalDate.of(2024, 3, 1), east.get("firstDay"));
+        assertEquals(now, east.get("lastSeen"));
+        assertEquals(new BigDecimal("0.1"), east.get("minPrice"));
+        assertEquals("b", east.get("maxName"));
+        assertEquals(9L, east.get("maxId"));
+        Map<?, ?> west = (Map<?, ?>) rows.get(1);
+        assertEquals(t.plusDays(1), west.get("lastTime"));
+        assertNull(west.get("firstDay"));
+        assertNull(west.get("minPrice"));
+        assertEquals("中文", west.get("maxName"));
+    }
+
+    @Test
+    public void minMaxAfterSpill() throws Exception {
+        Random random = new Random(11);
+        Map<Object, String> maxNames = new HashMap<>();
+        Map<Object, BigDecimal> minPrices = new HashMap<>();
+        List<Map<String, Object>> partials = new ArrayList<>();
+        for (int i = 0; i < 60000; i++) {
+            long k = random.nextInt(20000);
+            String name = "name-" + random.nextInt(1000000);
+            BigDecimal price = BigDecimal.valueOf(random.nextInt(1000000), 4);
+            maxNames.merge(k, name, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+            minPrices.merge(k, price, BigDecimal::min);
+            partials.add(row("k", k, "cnt", 1L, "maxName", name, "minPrice", price));
+        }
+        List<Object> rows = plan("spilled").merge(partials);
+        assertEquals(maxNames.size(), rows.size());
+        for (Object r : rows) {
+            Map<?, ?> row = (Map<?, ?>) r;
+            assertEquals(maxNames.get(row.get("k")), row.get("maxName"));
+            assertEquals(minPrices.get(row.get("k")), row.get("minPrice"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mixedTypesAreRejected() throws Exception {
+        plan("stats").merge(Arrays.asList(row("region", "east", "maxName", "a"),
+                row("region", "east", "maxName", LocalDate.of(2024, 1, 1))));
+    }
+}
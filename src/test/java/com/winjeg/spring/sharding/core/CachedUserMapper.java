@@ -0,0 +1,22 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.annos.Cached;
+import com.winjeg.spring.sharding.annos.Sharding;
+import com.winjeg.spring.sharding.annos.ShardingKey;
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * 结果缓存测试用的 mapper， 一个数据源两张表
+ *
+ * @author winjeg
+ */
+@Sharding(datasource = {"cached-1"}, mapperLocation = "classpath:mappers/cached/*.xml",
+        tableRule = "'user_' + (id % 2)", shardingKey = "id")
+public interface CachedUserMapper {
+    int addUser(@ShardingKey @Param("id") long id, @Param("name") String name);
+
+    @Cached(ttl = 60)
+    String getName(@ShardingKey @Param("id") long id);
+
+    int rename(@ShardingKey @Param("id") long id, @Param("name") String name);
+}
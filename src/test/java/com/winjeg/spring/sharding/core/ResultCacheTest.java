@@ -0,0 +1,104 @@
+package com.winjeg.spring.sharding.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 结果缓存的版本号、CLOCK 淘汰以及过期
+ *
+ * @author winjeg
+ */
+public class ResultCacheTest {
+    private static final Object[] ARGS = {1L};
+    private static final long TTL = 1000;
+
+    @Test
+    public void writeBetweenVersionAndPutIsNotCached() {
+        ResultCache cache = new ResultCache("m", 64);
+        int version = cache.version(1);
+        cache.invalidate(1);
+        cache.put(1, 0, ARGS, "stale", TTL, version);
+        assertSame(ResultCache.MISS, cache.get(1, 0, ARGS, 0));
+        assertEquals(0, cache.getSize());
+
+        version = cache.version(1);
+        cache.clear();
+        cache.put(1, 0, ARGS, "stale", TTL, version);
+        assertSame(ResultCache.MISS, cache.get(1, 0, ARGS, 0));
+
+        version = cache.version(1);
+        cache.put(1, 0, ARGS, "fresh", TTL, version);
+        assertEquals("fresh", cache.get(1, 0, ARGS, 0));
+    }
+
+    @Test
+    public void evictionStaysWithinWays() {
+        ResultCache cache = new ResultCache("m", 64);
+        List<Long> keys = sameSlot(cache, 20);
+        for (long key : keys) {
+            cache.put(key, 0, new Object[]{key}, key, TTL, cache.version(key));
+        }
+        // 同一个 hash 位置的键只会占用从这个位置开始的 8 个槽位， 不会挤掉其他位置的结果
+        assertEquals(8, cache.getSize());
+        assertEquals(12, cache.getEvictions());
+    }
+
+    @Test
+    public void clockKeepsReferencedEntries() {
+        ResultCache cache = new ResultCache("m", 64);
+        List<Long> keys = sameSlot(cache, 9);
+        for (int i = 0; i < 8; i++) {
+            long key = keys.get(i);
+            cache.put(key, 0, new Object[]{key}, key, TTL, cache.version(key));
+        }
+        for (int i = 1; i < 8; i++) {
+            long key = keys.get(i);
+            assertEquals(key, cache.get(key, 0, new Object[]{key}, 0));
+        }
+        long last = keys.get(8);
+        cache.put(last, 0, new Object[]{last}, last, TTL, cache.version(last));
+        long first = keys.get(0);
+        assertSame("the only unreferenced entry is evicted", ResultCache.MISS,
+                cache.get(first, 0, new Object[]{first}, 0));
+        for (int i = 1; i < 9; i++) {
+            long key = keys.get(i);
+            assertEquals(key, cache.get(key, 0, new Object[]{key}, 0));
+        }
+    }
+
+    @Test
+    public void expiredEntriesMiss() {
+        ResultCache cache = new ResultCache("m", 64);
+        long now = System.nanoTime();
+        cache.put(1, 0, ARGS, "v", now + TTL, cache.version(1));
+        assertEquals("v", cache.get(1, 0, ARGS, now + TTL - 1));
+        assertSame(ResultCache.MISS, cache.get(1, 0, ARGS, now + TTL));
+        assertSame(ResultCache.MISS, cache.get(1, 0, ARGS, now + TTL * 2));
+        // 过期的结果被新的结果覆盖， 不占用额外的槽位
+        cache.put(1, 0, ARGS, "w", now + TTL * 3, cache.version(1));
+        assertEquals("w", cache.get(1, 0, ARGS, now + TTL * 2));
+        assertEquals(1, cache.getSize());
+    }
+
+    /**
+     * 找出 hash 位置相同的键： 删除一个键会增加它所在位置的版本号
+     */
+    private static List<Long> sameSlot(ResultCache cache, int count) {
+        long base = 1_000_003;
+        cache.invalidate(base);
+        int version = cache.version(base);
+        List<Long> keys = new ArrayList<>();
+        keys.add(base);
+        for (long key = 0; keys.size() < count; key++) {
+            if (key != base && cache.version(key) == version) {
+                keys.add(key);
+            }
+        }
+        cache.resetCounters();
+        return keys;
+    }
+}
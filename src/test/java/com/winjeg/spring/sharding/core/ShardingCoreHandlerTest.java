@@ -0,0 +1,138 @@
+package com.winjeg.spring.sharding.core;
+
+import com.winjeg.spring.sharding.config.DataSourceProps;
+import com.winjeg.spring.sharding.factories.ClassManager;
+import com.winjeg.spring.sharding.factories.ShardingMapperFactory;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cached 方法经过 handler 的读写： 写操作删除缓存， 查询期间的写不会被旧结果覆盖， 事务提交之后再删除一次
+ *
+ * @author winjeg
+ */
+public class ShardingCoreHandlerTest {
+    private static final String DS = "cached-1";
+    /**
+     * 查询执行之后调用， 模拟在 version 和 put 之间发生的写
+     */
+    private static volatile Runnable afterQuery;
+    private static final AtomicInteger QUERIES = new AtomicInteger();
+    private static DatasourceManager datasourceManager;
+    private static CachedUserMapper mapper;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        DataSourceProps.HikariProps p = new DataSourceProps.HikariProps();
+        p.setName(DS);
+        p.setDriverClassName("org.h2.Driver");
+        p.setJdbcUrl("jdbc:h2:mem:cached_1;DB_CLOSE_DELAY=-1");
+        p.setUsername("sa");
+        p.setPassword("");
+        p.setMaximumPoolSize(2);
+        DataSourceProps props = new DataSourceProps();
+        props.setList(new DataSourceProps.HikariProps[]{p});
+        datasourceManager = new DatasourceManager(props);
+        try (Connection c = datasourceManager.get(DS).getConnection(); Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE user_0(id BIGINT, name VARCHAR(64))");
+            st.execute("CREATE TABLE user_1(id BIGINT, name VARCHAR(64))");
+        }
+        List<Class<?>> classes = Collections.singletonList(CachedUserMapper.class);
+        ClassManager classManager = new ClassManager(classes);
+        SqlSessionFactoryManager sessionManager = new SqlSessionFactoryManager(classes, datasourceManager, null);
+        sessionManager.getSessionFactory(classManager.getDispatchTable(CachedUserMapper.class).getShardClass(0))
+                .getConfiguration().addInterceptor(new AfterQuery());
+        mapper = new ShardingMapperFactory(sessionManager, classManager).createProxy(CachedUserMapper.class);
+    }
+
+    private static void update(long id, String name) throws Exception {
+        try (Connection c = datasourceManager.get(DS).getConnection();
+             PreparedStatement st = c.prepareStatement("UPDATE user_" + (id % 2) + " SET name = ? WHERE id = ?")) {
+            st.setString(1, name);
+            st.setLong(2, id);
+            assertEquals(1, st.executeUpdate());
+        }
+    }
+
+    @Test
+    public void writeThroughMapperInvalidates() throws Exception {
+        mapper.addUser(1, "a");
+        assertEquals("a", mapper.getName(1));
+        // 绕过 mapper 的修改在过期之前读不到
+        update(1, "b");
+        assertEquals("a", mapper.getName(1));
+        mapper.rename(1, "c");
+        assertEquals("c", mapper.getName(1));
+    }
+
+    @Test
+    public void writeDuringQueryIsNotCached() {
+        mapper.addUser(2, "a");
+        afterQuery = () -> {
+            afterQuery = null;
+            mapper.rename(2, "b");
+        };
+        // 查询读到旧值之后、写入缓存之前发生了修改， 旧值不进入缓存
+        assertEquals("a", mapper.getName(2));
+        assertEquals("b", mapper.getName(2));
+        int queries = QUERIES.get();
+        assertEquals("b", mapper.getName(2));
+        assertEquals(queries, QUERIES.get());
+    }
+
+    @Test
+    public void transactionInvalidatesAgainAfterCommit() throws Exception {
+        mapper.addUser(4, "a");
+        assertEquals("a", mapper.getName(4));
+        TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(datasourceManager.get(DS)));
+        String other = tx.execute(status -> {
+            mapper.rename(4, "tx");
+            // 事务中不读写缓存
+            assertEquals("tx", mapper.getName(4));
+            // 提交之前其他线程读到已提交的旧值并缓存
+            try {
+                return CompletableFuture.supplyAsync(() -> mapper.getName(4)).get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertEquals("a", other);
+        assertEquals("tx", mapper.getName(4));
+    }
+
+    @Intercepts(@Signature(type = Executor.class, method = "query",
+            args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}))
+    public static final class AfterQuery implements Interceptor {
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            Object result = invocation.proceed();
+            QUERIES.incrementAndGet();
+            Runnable r = afterQuery;
+            if (r != null) {
+                r.run();
+            }
+            return result;
+        }
+    }
+}
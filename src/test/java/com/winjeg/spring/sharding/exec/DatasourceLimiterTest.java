@@ -0,0 +1,103 @@
+package com.winjeg.spring.sharding.exec;
+
+import com.winjeg.spring.sharding.config.DataSourceProps;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 数据源并发上限： 许可不足的任务只在自己的线程上等待， 不会被释放许可的线程执行
+ *
+ * @author winjeg
+ */
+public class DatasourceLimiterTest {
+    private static final String DS = "ds-0";
+
+    private static DatasourceLimiter limiter(int limit) {
+        DataSourceProps.HikariProps p = new DataSourceProps.HikariProps();
+        p.setName(DS);
+        p.setMaximumPoolSize(limit);
+        DataSourceProps props = new DataSourceProps();
+        props.setList(new DataSourceProps.HikariProps[]{p});
+        return new DatasourceLimiter(props);
+    }
+
+    @Test
+    public void callerRunsWaiterRunsOnItsOwnThread() throws Exception {
+        DatasourceLimiter limiter = limiter(1);
+        ShardExecutor executor = new CallerRunsShardExecutor(limiter);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                executor.call(DS, () -> {
+                    holding.countDown();
+                    return finish.await(10, TimeUnit.SECONDS);
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, "holder");
+        holder.start();
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        Thread waiter = new Thread(() -> executor.executor(DS).execute(() -> ranOn.set(Thread.currentThread())), "waiter");
+        waiter.start();
+        waiter.join(200);
+        assertTrue("waiter should block until the permit is released", waiter.isAlive());
+        assertNull(ranOn.get());
+
+        finish.countDown();
+        holder.join(10000);
+        waiter.join(10000);
+        assertSame(waiter, ranOn.get());
+        assertEquals(1, limiter.available(DS));
+    }
+
+    @Test
+    public void callerRunsManyTasksDoNotNest() throws Exception {
+        ShardExecutor executor = new CallerRunsShardExecutor(limiter(1));
+        AtomicInteger maxDepth = new AtomicInteger();
+        for (int i = 0; i < 10000; i++) {
+            executor.submit(DS, () -> {
+                maxDepth.accumulateAndGet(Thread.currentThread().getStackTrace().length, Math::max);
+                return null;
+            }).get();
+        }
+        assertTrue(maxDepth.get() < 100);
+    }
+
+    @Test
+    public void pooledNeverExceedsLimit() throws Exception {
+        ShardExecutor executor = new PooledShardExecutor(limiter(2), 8, 4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                final int n = i;
+                futures.add(executor.submit(DS, () -> {
+                    max.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(1);
+                    running.decrementAndGet();
+                    return n;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i, (int) futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertTrue("max concurrency " + max.get(), max.get() <= 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
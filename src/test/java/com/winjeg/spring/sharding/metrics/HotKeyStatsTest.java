@@ -0,0 +1,83 @@
+package com.winjeg.spring.sharding.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 热点统计的后台线程： 关闭所有统计之后退出， 之后再创建统计的时候重新启动
+ *
+ * @author winjeg
+ */
+public class HotKeyStatsTest {
+    private static final String TICKER = "sharding-hot-keys";
+
+    private static ShardingMetrics metrics() {
+        return new ShardingMetrics(new MetricsRegistry() {
+            @Override
+            public void registerShard(ShardStatsMXBean stats) {
+            }
+
+            @Override
+            public void registerRouting(RoutingStatsMXBean stats) {
+            }
+
+            @Override
+            public void registerPool(PoolStatsMXBean stats) {
+            }
+        });
+    }
+
+    private static Thread ticker() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (TICKER.equals(t.getName()) && t.isAlive()) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private static boolean tickerStopped() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        Thread t;
+        while ((t = ticker()) != null && System.nanoTime() < deadline) {
+            t.join(100);
+        }
+        return t == null;
+    }
+
+    @Test
+    public void closeStopsTickerAfterLastStats() throws Exception {
+        ShardingMetrics first = metrics();
+        ShardingMetrics second = metrics();
+        first.hotKeys(String.class, new String[]{"ds-0"}).record(1, 0);
+        second.hotKeys(Integer.class, new String[]{"ds-0"}).record(1, 0);
+        assertNotNull(ticker());
+
+        first.close();
+        assertTrue(first.getHotKeys().isEmpty());
+        assertNotNull("still used by the second metrics", ticker());
+
+        second.close();
+        assertTrue(tickerStopped());
+
+        ShardingMetrics third = metrics();
+        third.hotKeys(Long.class, new String[]{"ds-0"});
+        assertNotNull("restarted for new stats", ticker());
+        third.close();
+        assertTrue(tickerStopped());
+    }
+
+    @Test
+    public void replacedStatsAreClosed() throws Exception {
+        ShardingMetrics metrics = metrics();
+        metrics.hotKeys(String.class, new String[]{"ds-0"});
+        HotKeyStats replacement = metrics.hotKeys(String.class, new String[]{"ds-0"});
+        assertSame(replacement, metrics.getHotKeys(String.class));
+        assertEquals(1, metrics.getHotKeys().size());
+        metrics.close();
+        assertTrue(tickerStopped());
+    }
+}
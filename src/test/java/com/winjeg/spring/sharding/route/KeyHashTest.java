@@ -0,0 +1,92 @@
+package com.winjeg.spring.sharding.route;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 与标准实现的已知结果比较： MURMUR3 为 murmur3_x64_128 的前 64 位(h1)， XXHASH 为 xxHash64， 种子都是 0
+ * 输入为 data(n)， 覆盖 0-15 字节的尾部以及 32 字节分块的边界
+ *
+ * @author winjeg
+ */
+public class KeyHashTest {
+    private static final int[] LENGTHS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 31, 32, 33};
+    private static final long[] MURMUR3 = {
+            0x0000000000000000L, 0xC427909D8972BD17L, 0xBCAA5D247B77F590L, 0x33FF6EDA4DA0A23BL,
+            0x331195913937A3B4L, 0x634332548738E00FL, 0x72B7246DAAD5C140L, 0x3F14FDFCC2D9B91CL,
+            0xD927130C3EA3AF5DL, 0x320F43F3FBFB3BE4L, 0xFA195B9D5E7E8097L, 0x099A44202EECE712L,
+            0x46F0C933F9EFBF04L, 0xE5B8C6C787B0B3C4L, 0x672EBB93FD9286D5L, 0x3775F4B56782AB17L,
+            0x49DB93DA32960569L, 0x428638CEA8126132L, 0xFA0BC7309230CDEBL};
+    private static final long[] XXHASH = {
+            0xEF46DB3751D8E999L, 0xA96C7F0CE858BBB7L, 0xAC378C5993CD5F9AL, 0x56E6957632A487F9L,
+            0xC60D15B1E3FF8F04L, 0x808815858624DD4EL, 0xCF22B4E87E9BBD00L, 0xAFBEFC3D6C6F9A8EL,
+            0x3DA5C7AA269683E0L, 0x4B17A9BA9E215C09L, 0x6B889090B8A922B8L, 0x1FC070E44716BD8EL,
+            0x8FE8AB1C1FD0666EL, 0x0382284CC19C4ABBL, 0x1523F762201BA56EL, 0xAE2A37EB9357CAA7L,
+            0x4A74F3A1A39AD4A1L, 0x8D57D6A4671CC43DL, 0x62C9FD21ED857664L};
+    /**
+     * 中文、四字节的 emoji 以及两字节的 é
+     */
+    private static final String NON_ASCII = "订单-😀-é";
+    /**
+     * 不成对的代理字符， 编码为 '?'
+     */
+    private static final String LONE_SURROGATE = "a\uD800b";
+
+    private static byte[] data(int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = (byte) (i * 31 + 7);
+        }
+        return b;
+    }
+
+    @Test
+    public void murmur3KnownAnswers() {
+        byte[] hello = "hello".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0xCBD8A7B341BD9B02L, KeyHash.MURMUR3.hash(hello, 0, hello.length));
+        for (int i = 0; i < LENGTHS.length; i++) {
+            assertEquals("length " + LENGTHS[i], MURMUR3[i], KeyHash.MURMUR3.hash(data(LENGTHS[i]), 0, LENGTHS[i]));
+        }
+    }
+
+    @Test
+    public void xxHashKnownAnswers() {
+        assertEquals(0x44BC2CF5AD770999L, KeyHash.XXHASH.hash("abc"));
+        assertEquals(0xFBCEA83C8A378BF1L, KeyHash.XXHASH.hash("Nobody inspects the spammish repetition"));
+        for (int i = 0; i < LENGTHS.length; i++) {
+            assertEquals("length " + LENGTHS[i], XXHASH[i], KeyHash.XXHASH.hash(data(LENGTHS[i]), 0, LENGTHS[i]));
+        }
+    }
+
+    @Test
+    public void offsetDoesNotChangeResult() {
+        for (KeyHash hash : KeyHash.values()) {
+            for (int n : LENGTHS) {
+                byte[] shifted = new byte[n + 3];
+                System.arraycopy(data(n), 0, shifted, 3, n);
+                assertEquals(hash + " length " + n, hash.hash(data(n), 0, n), hash.hash(shifted, 3, n));
+            }
+        }
+    }
+
+    @Test
+    public void nonAsciiStrings() {
+        assertEquals(0x2C976F3B81FDD018L, KeyHash.MURMUR3.hash(NON_ASCII));
+        assertEquals(0x04C3FF20FAA7C9F7L, KeyHash.XXHASH.hash(NON_ASCII));
+        assertEquals(0x65F9E689041BDB4AL, KeyHash.MURMUR3.hash(LONE_SURROGATE));
+        assertEquals(0x53E3784ECD1A8F5FL, KeyHash.XXHASH.hash(LONE_SURROGATE));
+        // 超过线程缓冲区初始大小的字符串与 String.getBytes(UTF_8) 的结果一致
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sb.append(NON_ASCII);
+        }
+        String s = sb.toString();
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        for (KeyHash hash : KeyHash.values()) {
+            assertEquals(hash.hash(bytes, 0, bytes.length), hash.hash(s));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.winjeg.spring.sharding.route;
+
+import org.junit.Test;
+
+import java.util.function.LongToIntFunction;
+
+import static org.junit.Assert.*;
+
+/**
+ * 编译后的规则与 indexOf 的结果
+ *
+ * @author winjeg
+ */
+public class RouteRuleTest {
+    private static final String[] DATASOURCES = {"ds-0", "ds-1"};
+
+    @Test
+    public void lookupIndexOfWithUnmatchedResidues() {
+        RouteRule rule = RouteRule.compile("'ds-' + (id % 8 / 4)", "id");
+        assertTrue(rule instanceof LookupRouteRule);
+        LongToIntFunction indexOf = rule.indexOf(DATASOURCES);
+        for (long key = -3; key < 64; key++) {
+            assertEquals(rule.route(key), DATASOURCES[indexOf.applyAsInt(key)]);
+        }
+        assertEquals(1, indexOf.applyAsInt(Long.MAX_VALUE));
+        assertEquals(0, indexOf.applyAsInt(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void lookupIndexOfRoutedToUnknownName() {
+        LongToIntFunction indexOf = RouteRule.compile("'ds-' + (id % 8 / 4)", "id").indexOf(DATASOURCES);
+        for (long key = -7; key <= -4; key++) {
+            try {
+                indexOf.applyAsInt(key);
+                fail("key " + key + " should not be routed");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("ds--1"));
+            }
+        }
+    }
+
+    @Test
+    public void jumpIndexOfRoutedToUnknownName() {
+        RouteRule rule = RouteRule.compile("'ds-' + jump(id, 3)", "id");
+        assertTrue(rule instanceof JumpRouteRule);
+        LongToIntFunction indexOf = rule.indexOf(DATASOURCES);
+        int unknown = 0;
+        for (long key = 0; key < 1000; key++) {
+            String name = rule.route(key);
+            try {
+                assertEquals(name, DATASOURCES[indexOf.applyAsInt(key)]);
+            } catch (IllegalArgumentException e) {
+                assertEquals("ds-2", name);
+                unknown++;
+            }
+        }
+        assertTrue(unknown > 0);
+    }
+}